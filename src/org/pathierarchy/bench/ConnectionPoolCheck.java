@@ -0,0 +1,313 @@
+package org.pathierarchy.bench;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.pathierarchy.db.ConnectionPool;
+import org.pathierarchy.db.PooledConnection;
+
+
+/**
+ * runnable check of {@link ConnectionPool} and {@link PooledConnection} against
+ * in-memory stand-in connections, so that the pool can be tried without MetNetDB.
+ * Covers borrowing and returning, the limit on connections handed out and the
+ * order in which waiting borrowers are served, replacement of connections that
+ * fail validation, and eviction from the statement cache.
+ *
+ * Usage: ConnectionPoolCheck. Prints one line per check and exits with status 1
+ * if any of them failed.
+ * @author Divya Mistry
+ *
+ */
+public class ConnectionPoolCheck {
+	private static final long WAIT_MILLIS = 5000; //longest wait for another thread before a check fails
+	
+	private int failed = 0; //checks that failed so far
+	
+	/**
+	 * run every check
+	 * @param args not used
+	 */
+	public static void main(String[] args){
+		ConnectionPoolCheck c = new ConnectionPoolCheck();
+		try {
+			c.borrowAndReturn();
+			c.limitAndFairness();
+			c.validation();
+			c.statementCache();
+		} catch (Exception e) {
+			System.out.println("FAIL  check stopped: " + e);
+			c.failed++;
+		}
+		System.out.println(c.failed == 0 ? "all checks passed" : c.failed + " checks failed");
+		System.exit(c.failed == 0 ? 0 : 1);
+	}
+	
+	/**
+	 * a returned connection is reused by the next borrower, and returning it twice has no effect
+	 */
+	private void borrowAndReturn() throws SQLException {
+		StandInPool pool = new StandInPool(2);
+		PooledConnection first = pool.borrow();
+		check("borrow hands out a connection", pool.getActiveCount() == 1 && pool.getIdleCount() == 0);
+		first.close();
+		check("return makes the connection idle", pool.getActiveCount() == 0 && pool.getIdleCount() == 1);
+		PooledConnection second = pool.borrow();
+		check("next borrower reuses the idle connection", second == first && pool.opened.size() == 1);
+		second.close();
+		second.close();
+		check("returning twice has no effect", pool.getActiveCount() == 0 && pool.getIdleCount() == 1);
+		pool.close();
+		check("closing the pool closes idle connections", pool.opened.get(0).closed);
+	}
+	
+	/**
+	 * no more than maxSize connections are handed out, and waiting borrowers are served in arrival order
+	 */
+	private void limitAndFairness() throws Exception {
+		final StandInPool pool = new StandInPool(2);
+		PooledConnection a = pool.borrow();
+		PooledConnection b = pool.borrow();
+		boolean refused = false;
+		try {
+			pool.borrow(100).close();
+		} catch (SQLException e) {
+			refused = true;
+		}
+		check("borrowing beyond the limit times out", refused && pool.opened.size() == 2);
+		
+		final List<String> served = Collections.synchronizedList(new ArrayList<String>());
+		final List<PooledConnection> held = Collections.synchronizedList(new ArrayList<PooledConnection>());
+		Thread[] waiters = new Thread[2];
+		for (int i=0; i<waiters.length; i++){
+			final String name = "waiter" + i;
+			waiters[i] = new Thread(new Runnable(){
+				@Override
+				public void run() {
+					try {
+						held.add(pool.borrow(WAIT_MILLIS));
+						served.add(name);
+					} catch (SQLException e) {
+						served.add(name + " failed: " + e.getMessage());
+					}
+				}
+			});
+			waiters[i].start();
+			//the next waiter may only queue up once this one is waiting
+			awaitState(waiters[i], Thread.State.TIMED_WAITING);
+		}
+		a.close();
+		awaitSize(served, 1);
+		b.close();
+		awaitSize(served, 2);
+		check("waiting borrowers are served in arrival order", served.equals(Arrays.asList("waiter0", "waiter1")));
+		check("waiting borrowers reuse the returned connections", pool.opened.size() == 2);
+		for (Thread t:waiters){
+			t.join(WAIT_MILLIS);
+		}
+		for (PooledConnection pc:held){
+			pc.close();
+		}
+		check("all connections are back", pool.getActiveCount() == 0 && pool.getIdleCount() == 2);
+		pool.close();
+	}
+	
+	/**
+	 * a connection failing the check on reuse is closed and replaced by a new one
+	 */
+	private void validation() throws SQLException {
+		StandInPool pool = new StandInPool(1);
+		pool.setValidateAfter(0);
+		PooledConnection pc = pool.borrow();
+		StandInConnection conn = StandInConnection.of(pc);
+		pc.close();
+		pc = pool.borrow();
+		check("healthy connection passes validation and is reused", StandInConnection.of(pc) == conn && conn.validations == 1);
+		pc.close();
+		conn.broken = true;
+		pc = pool.borrow();
+		check("broken connection is replaced", StandInConnection.of(pc) != conn && pool.opened.size() == 2);
+		check("broken connection is closed", conn.closed);
+		pc.close();
+		
+		pool.setValidateAfter(60000);
+		pc = pool.borrow();
+		conn = StandInConnection.of(pc);
+		pc.invalidate();
+		pc.close();
+		check("invalidated connection is closed on return", conn.closed && pool.getIdleCount() == 0);
+		pool.close();
+	}
+	
+	/**
+	 * prepared statements are reused per SQL, and the least recently used one is closed when the cache is full
+	 */
+	private void statementCache() throws SQLException {
+		StandInPool pool = new StandInPool(1);
+		PooledConnection pc = pool.borrow();
+		PreparedStatement first = pc.prepare("select 0");
+		check("same SQL reuses the prepared statement", pc.prepare("select 0") == first);
+		pc.close();
+		pc = pool.borrow();
+		check("statement is kept for the next borrower", pc.prepare("select 0") == first);
+		PreparedStatement recent = null;
+		for (int i=1; i<=PooledConnection.STATEMENT_CACHE_SIZE; i++){
+			recent = pc.prepare("select " + i);
+		}
+		check("least recently used statement is evicted and closed", StandInStatement.of(first).closed);
+		check("recently used statements stay open", !StandInStatement.of(recent).closed);
+		check("evicted SQL is prepared again", pc.prepare("select 0") != first);
+		StandInConnection conn = StandInConnection.of(pc);
+		pc.invalidate();
+		pc.close();
+		boolean allClosed = true;
+		for (StandInStatement st:conn.statements){
+			allClosed &= st.closed;
+		}
+		check("closing a connection closes its statements", allClosed);
+		pool.close();
+	}
+	
+	private void check(String name, boolean ok){
+		System.out.println((ok ? "ok    " : "FAIL  ") + name);
+		if (!ok){
+			this.failed++;
+		}
+	}
+	
+	private static void awaitState(Thread t, Thread.State state) throws InterruptedException {
+		long end = System.currentTimeMillis() + WAIT_MILLIS;
+		while (t.getState() != state && System.currentTimeMillis() < end){
+			Thread.sleep(1);
+		}
+	}
+	
+	private static void awaitSize(List<?> list, int size) throws InterruptedException {
+		long end = System.currentTimeMillis() + WAIT_MILLIS;
+		while (list.size() < size && System.currentTimeMillis() < end){
+			Thread.sleep(1);
+		}
+	}
+	
+	/**
+	 * pool handing out stand-in connections instead of connecting to MetNetDB
+	 */
+	private static class StandInPool extends ConnectionPool {
+		final List<StandInConnection> opened = Collections.synchronizedList(new ArrayList<StandInConnection>());
+		
+		StandInPool(int maxSize){
+			super(maxSize);
+		}
+		
+		@Override
+		protected Connection openConnection() {
+			StandInConnection conn = new StandInConnection();
+			this.opened.add(conn);
+			return conn.proxy;
+		}
+	}
+	
+	/**
+	 * connection answering every query with an empty result, or failing every query once broken
+	 */
+	private static class StandInConnection implements InvocationHandler {
+		final Connection proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, this);
+		final List<StandInStatement> statements = new ArrayList<StandInStatement>();
+		volatile boolean closed = false;
+		volatile boolean broken = false;
+		volatile int validations = 0; //queries run on plain statements, i.e. health checks
+		
+		static StandInConnection of(PooledConnection pc){
+			return (StandInConnection) Proxy.getInvocationHandler(pc.getConnection());
+		}
+		
+		@Override
+		public Object invoke(Object p, Method m, Object[] args) throws Throwable {
+			String name = m.getName();
+			if (name.equals("close")){
+				this.closed = true;
+				return null;
+			} else if (name.equals("isClosed")){
+				return this.closed;
+			} else if (name.equals("createStatement") || name.equals("prepareStatement")){
+				StandInStatement st = new StandInStatement(this, name.equals("createStatement"));
+				this.statements.add(st);
+				return st.proxy;
+			}
+			return StandInStatement.objectMethod(p, m, args);
+		}
+	}
+	
+	/**
+	 * statement of a stand-in connection
+	 */
+	private static class StandInStatement implements InvocationHandler {
+		final PreparedStatement proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, this);
+		final StandInConnection conn;
+		final boolean plain; //created with createStatement() rather than prepared
+		volatile boolean closed = false;
+		
+		StandInStatement(StandInConnection conn, boolean plain){
+			this.conn = conn;
+			this.plain = plain;
+		}
+		
+		static StandInStatement of(Statement st){
+			return (StandInStatement) Proxy.getInvocationHandler(st);
+		}
+		
+		@Override
+		public Object invoke(Object p, Method m, Object[] args) throws Throwable {
+			String name = m.getName();
+			if (name.equals("close")){
+				this.closed = true;
+				return null;
+			} else if (name.equals("clearParameters")){
+				return null;
+			} else if (name.equals("executeQuery")){
+				if (this.conn.broken || this.conn.closed){
+					throw new SQLException("Stand-in connection is gone");
+				}
+				if (this.plain){
+					this.conn.validations++;
+				}
+				return Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class}, new InvocationHandler(){
+					@Override
+					public Object invoke(Object p, Method m, Object[] args) throws Throwable {
+						if (m.getName().equals("next")){
+							return false;
+						} else if (m.getName().equals("close")){
+							return null;
+						}
+						return objectMethod(p, m, args);
+					}
+				});
+			}
+			return objectMethod(p, m, args);
+		}
+		
+		/**
+		 * answer the methods every object has, and refuse anything else the check does not need
+		 */
+		static Object objectMethod(Object p, Method m, Object[] args){
+			if (m.getName().equals("hashCode")){
+				return System.identityHashCode(p);
+			} else if (m.getName().equals("equals")){
+				return p == args[0];
+			} else if (m.getName().equals("toString")){
+				return "stand-in " + m.getDeclaringClass().getSimpleName();
+			}
+			throw new UnsupportedOperationException(m.getName() + " is not supported by the stand-in");
+		}
+	}
+}
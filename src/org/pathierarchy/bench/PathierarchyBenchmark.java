@@ -0,0 +1,427 @@
+package org.pathierarchy.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLStreamException;
+
+import org.pathierarchy.data.CompactNameTable;
+import org.pathierarchy.data.CompactPClassTree;
+import org.pathierarchy.data.HierarchyIndex;
+import org.pathierarchy.data.HierarchySnapshot;
+import org.pathierarchy.data.PClassNode;
+import org.pathierarchy.data.PClassTree;
+import org.pathierarchy.data.PathwayCatalog;
+import org.pathierarchy.data.PathwayEntry;
+import org.pathierarchy.data.SnapshotSource;
+import org.pathierarchy.metrics.Metrics;
+import org.pathierarchy.xml.BinaryHierarchyReader;
+import org.pathierarchy.xml.NetworkWriter;
+import org.pathierarchy.xml.PathwaysToXML;
+import org.pathierarchy.xml.StreamingXMLWriter;
+import org.pathierarchy.xml.XGMMLExporter;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import edu.iastate.metnet.Entity;
+import edu.iastate.metnet.EntityType;
+import edu.iastate.metnet.Organism;
+import edu.iastate.metnet.Pathway;
+
+
+/**
+ * offline benchmarks of the export pipeline against a {@link SyntheticMetNet},
+ * so that changes to tree building, XML generation and file output can be
+ * measured on any machine without MetNetDB. Every benchmark is run a number
+ * of warmup iterations that are not measured, then a number of measured ones,
+ * and the mean, best and worst time per iteration are reported.
+ * 
+ * Building the XGMML networks themselves needs MetNetDB (edu.iastate.metnet.Network
+ * fetches its interactions), so the XGMML benchmarks run {@link XGMMLExporter}
+ * with a network writer that writes a graph of each synthetic pathway instead.
+ * They measure the exporter's own work, i.e. the worker threads, temporary files,
+ * journal and zip archive, but not the time MetNetDB takes to build the networks.
+ * 
+ * Usage: PathierarchyBenchmark [key=value ...] with keys depth, fanout, pathways,
+ * entities, seed, warmup, iterations, threads, dir and only (benchmark name prefix).
+ * @author Divya Mistry
+ *
+ */
+public class PathierarchyBenchmark {
+	private static final String ORGANISM = "Synthetic";
+	
+	private Map<String, String> params = new LinkedHashMap<String, String>(); //benchmark parameters
+	private SyntheticMetNet data; //MetNetDB stand-in
+	private PClassNode tree; //hierarchy built from the stand-in
+	private File dir; //directory the benchmarks write to
+	
+	/**
+	 * a single benchmarked operation
+	 */
+	private interface Benchmark {
+		/**
+		 * @throws Exception if the operation failed, which stops the benchmark
+		 */
+		void run() throws Exception;
+	}
+	
+	/**
+	 * constructor
+	 * @param args key=value parameters overriding the defaults
+	 */
+	public PathierarchyBenchmark(String[] args){
+		this.params.put("depth", "4");
+		this.params.put("fanout", "6");
+		this.params.put("pathways", "2000");
+		this.params.put("entities", "20");
+		this.params.put("seed", "42");
+		this.params.put("warmup", "3");
+		this.params.put("iterations", "10");
+		this.params.put("threads", String.valueOf(Runtime.getRuntime().availableProcessors()));
+		this.params.put("dir", new File(System.getProperty("java.io.tmpdir"), "pathierarchy-bench").getPath());
+		this.params.put("only", "");
+		for (String arg:args){
+			int eq = arg.indexOf('=');
+			if (eq < 0 || !this.params.containsKey(arg.substring(0, eq))){
+				throw new IllegalArgumentException("Unknown parameter " + arg + ", expected one of " + this.params.keySet());
+			}
+			this.params.put(arg.substring(0, eq), arg.substring(eq + 1));
+		}
+	}
+	
+	/**
+	 * generate the data and run every benchmark
+	 * @throws Exception if a benchmark failed
+	 */
+	public void run() throws Exception {
+		long start = System.currentTimeMillis();
+		this.data = new SyntheticMetNet(param("depth"), param("fanout"), param("pathways"), param("entities"), param("seed"));
+		this.tree = new PClassTree(new Organism(0, ORGANISM)).buildTree(this.data.getLoader());
+		this.dir = new File(this.params.get("dir"));
+		if (!this.dir.isDirectory() && !this.dir.mkdirs()){
+			throw new IOException("Unable to create directory " + this.dir.getPath());
+		}
+		//the benchmarks time themselves, the metrics would only add their own cost
+		Metrics.setEnabled(false);
+		System.out.println("Parameters: " + this.params);
+		System.out.println(this.data.getClassCount() + " classes, " + this.data.getPathwayCount() + " pathways, generated in " +
+				(System.currentTimeMillis() - start) + "ms\n");
+		System.out.println(String.format("%-22s %10s %10s %10s %14s", "benchmark", "mean ms", "min ms", "max ms", "pathways/s"));
+		
+		final int threads = param("threads");
+		measure("tree.build", new Benchmark(){
+			@Override
+			public void run() {
+				new PClassTree(new Organism(0, ORGANISM)).buildTree(PathierarchyBenchmark.this.data.getLoader());
+			}
+		});
+		measure("tree.compact", new Benchmark(){
+			@Override
+			public void run() {
+				CompactPClassTree.from(PathierarchyBenchmark.this.tree, new CompactNameTable());
+			}
+		});
+		measure("index.build", new Benchmark(){
+			@Override
+			public void run() {
+				HierarchyIndex.build(PathierarchyBenchmark.this.tree, PathierarchyBenchmark.this.data.getCatalog());
+			}
+		});
+		measure("xml.dom", new Benchmark(){
+			@Override
+			public void run() throws IOException {
+				writeXML(false, false, 1);
+			}
+		});
+		measure("xml.stream", new Benchmark(){
+			@Override
+			public void run() throws IOException {
+				writeXML(true, false, 1);
+			}
+		});
+		measure("xml.stream.gzip", new Benchmark(){
+			@Override
+			public void run() throws IOException {
+				writeXML(true, true, 1);
+			}
+		});
+		measure("xml.stream.pgzip", new Benchmark(){
+			@Override
+			public void run() throws IOException {
+				writeXML(true, true, threads);
+			}
+		});
+		measure("snapshot.write", new Benchmark(){
+			@Override
+			public void run() throws IOException {
+				writeSnapshot();
+			}
+		});
+		final File snap = writeSnapshot();
+		measure("snapshot.read", new Benchmark(){
+			@Override
+			public void run() throws IOException {
+				HierarchySnapshot.read(snap);
+			}
+		});
+		measure("xml.snapshotSource", new Benchmark(){
+			@Override
+			public void run() throws IOException {
+				//whole export as run offline: hierarchy and pathways read from the snapshot
+				PathwaysToXML ptx = new PathwaysToXML(PathierarchyBenchmark.this.dir.getPath(), ORGANISM, true, true, false);
+				ptx.setStreaming(true);
+				ptx.setSource(new SnapshotSource(PathierarchyBenchmark.this.dir));
+				boolean written = ptx.generateXML();
+				ptx.getXMLFile().delete();
+				if (!written){
+					throw new IOException("XML export from snapshot failed");
+				}
+			}
+		});
+		snap.delete();
+		measure("hierarchy.binary", new Benchmark(){
+			@Override
+			public void run() throws IOException {
+				writeHierarchy(true).delete();
+			}
+		});
+		//loading an export the way a downstream tool would, into a tree and a catalog
+		final File xml = writeHierarchy(false);
+		final File bin = writeHierarchy(true);
+		measure("load.xml", new Benchmark(){
+			@Override
+			public void run() throws Exception {
+				loadXML(xml);
+			}
+		});
+		measure("load.binary", new Benchmark(){
+			@Override
+			public void run() throws IOException {
+				BinaryHierarchyReader.read(bin);
+			}
+		});
+		measure("load.binary.catalog", new Benchmark(){
+			@Override
+			public void run() throws IOException {
+				//same MetNet entity objects the XML loader makes
+				BinaryHierarchyReader.read(bin).getCatalog();
+			}
+		});
+		xml.delete();
+		bin.delete();
+		measure("xgmml.files", new Benchmark(){
+			@Override
+			public void run() throws Exception {
+				exportGraphs(false, threads);
+			}
+		});
+		measure("xgmml.zip", new Benchmark(){
+			@Override
+			public void run() throws Exception {
+				exportGraphs(true, threads);
+			}
+		});
+	}
+	
+	/**
+	 * run a benchmark, unless it is filtered out, and print its timings
+	 * @param name name of the benchmark
+	 * @param b operation to be measured
+	 * @throws Exception if the operation failed
+	 */
+	private void measure(String name, Benchmark b) throws Exception {
+		if (!name.startsWith(this.params.get("only"))){
+			return;
+		}
+		for (int i=0; i<param("warmup"); i++){
+			b.run();
+		}
+		int iterations = Math.max(1, param("iterations"));
+		long total = 0;
+		long min = Long.MAX_VALUE;
+		long max = 0;
+		for (int i=0; i<iterations; i++){
+			long t = System.nanoTime();
+			b.run();
+			long nanos = System.nanoTime() - t;
+			total += nanos;
+			min = Math.min(min, nanos);
+			max = Math.max(max, nanos);
+		}
+		double mean = total / 1e6 / iterations;
+		System.out.println(String.format("%-22s %10.2f %10.2f %10.2f %14.0f", name, mean, min / 1e6, max / 1e6,
+				this.data.getPathwayCount() * 1000.0 / mean));
+	}
+	
+	/**
+	 * export the synthetic organism to ontology XML and remove the file again
+	 */
+	private void writeXML(boolean stream, boolean gzip, int threads) throws IOException {
+		PathwaysToXML ptx = new PathwaysToXML(this.dir.getPath(), ORGANISM, true, true, false);
+		ptx.setStreaming(stream);
+		ptx.setCompression(gzip, threads);
+		boolean written = ptx.generateXML(this.tree, this.data.getCatalog());
+		ptx.getXMLFile().delete();
+		if (!written){
+			throw new IOException("XML export failed");
+		}
+	}
+	
+	/**
+	 * export the synthetic organism as streamed XML or in the binary hierarchy format
+	 * @return file that was written
+	 */
+	private File writeHierarchy(boolean binary) throws IOException {
+		PathwaysToXML ptx = new PathwaysToXML(this.dir.getPath(), ORGANISM, true, true, false);
+		ptx.setStreaming(true);
+		ptx.setBinaryFormat(binary);
+		if (!ptx.generateXML(this.tree, this.data.getCatalog())){
+			throw new IOException("Hierarchy export failed");
+		}
+		return ptx.getXMLFile();
+	}
+	
+	/**
+	 * parse an ontology XML file into the same tree and catalog that
+	 * {@link BinaryHierarchyReader} loads, as the baseline to compare it with
+	 */
+	private static PClassNode loadXML(File f) throws Exception {
+		final PClassNode root = new PClassNode(-1, null);
+		final PathwayCatalog cat = new PathwayCatalog(new String[]{EntityType.RNA, EntityType.GENE});
+		SAXParserFactory.newInstance().newSAXParser().parse(f, new DefaultHandler(){
+			private List<PClassNode> open = new ArrayList<PClassNode>();
+			private PathwayEntry pathway = null;
+			private int ids = 0;
+			
+			@Override
+			public void startElement(String uri, String local, String qName, Attributes atts) {
+				String name = atts.getValue("name");
+				if (qName.equals("class")){
+					PClassNode node = new PClassNode(-1, name);
+					(this.open.isEmpty() ? root : this.open.get(this.open.size() - 1)).addChildPathwayClass(node);
+					this.open.add(node);
+				} else if (qName.equals("pathway")){
+					this.pathway = new PathwayEntry(++this.ids, name);
+					cat.add(this.pathway);
+					this.open.get(this.open.size() - 1).addPathway(this.ids);
+				} else if (qName.equals("rna") || qName.equals("gene")){
+					this.pathway.addEntity(qName.equals("rna") ? EntityType.RNA : EntityType.GENE, new Entity(0, name, qName));
+				}
+			}
+			
+			@Override
+			public void endElement(String uri, String local, String qName) {
+				if (qName.equals("class")){
+					this.open.remove(this.open.size() - 1);
+				}
+			}
+		});
+		return root;
+	}
+	
+	private File writeSnapshot() throws IOException {
+		return new HierarchySnapshot(ORGANISM, this.tree, this.data.getCatalog()).write(this.dir);
+	}
+	
+	/**
+	 * export every pathway through the XGMML exporter, to a file per pathway
+	 * or to one zip archive, with the networks written by {@link #writeGraph(Writer, PathwayEntry)}
+	 */
+	private void exportGraphs(boolean zip, int threads) throws Exception {
+		File out = new File(this.dir, "xgmml");
+		if (!out.isDirectory() && !out.mkdirs()){
+			throw new IOException("Unable to create directory " + out.getPath());
+		}
+		File archive = new File(out, ORGANISM + ".xgmml.zip");
+		try {
+			XGMMLExporter xe = new XGMMLExporter(out.getPath(), threads);
+			xe.setNetworkWriter(new GraphWriter(this.data.getCatalog()));
+			if (zip){
+				xe.setArchive(archive);
+			}
+			List<Pathway> paths = new ArrayList<Pathway>();
+			for (PathwayEntry entry:this.data.getCatalog().getEntries()){
+				paths.add(new Pathway(entry.getPathwayId(), entry.getName(), ORGANISM));
+			}
+			Map<String, Exception> failures = xe.export(paths.toArray(new Pathway[paths.size()]));
+			if (!failures.isEmpty()){
+				throw new IOException(failures.size() + " pathways failed, e.g. " + failures.entrySet().iterator().next());
+			}
+		} finally {
+			//files, archive, manifest and journal alike
+			File[] written = out.listFiles();
+			for (int i=0; written != null && i<written.length; i++){
+				written[i].delete();
+			}
+		}
+	}
+	
+	private static void writeGraph(Writer w, PathwayEntry entry) throws XMLStreamException {
+		StreamingXMLWriter sw = new StreamingXMLWriter(w);
+		sw.startDocument();
+		sw.startElement("graph", "label", entry.getName(), "directed", "1");
+		String previous = null;
+		for (String type:entry.getTypes()){
+			for (Entity e:entry.getEntities(type)){
+				String id = String.valueOf(e.id);
+				sw.startElement("node", "id", id, "label", e.name);
+				sw.startElement("att", "name", "type", "value", type);
+				sw.endElement();
+				sw.endElement();
+				if (previous != null){
+					sw.startElement("edge", "source", previous, "target", id);
+					sw.endElement();
+				}
+				previous = id;
+			}
+		}
+		sw.endElement();
+		sw.endDocument();
+	}
+	
+	/**
+	 * network writer writing an XGMML-like graph of a synthetic pathway: a node
+	 * per entity and edges linking consecutive entities
+	 */
+	private static class GraphWriter implements NetworkWriter {
+		private PathwayCatalog catalog; //synthetic pathways the graphs are made of
+		
+		GraphWriter(PathwayCatalog catalog){
+			this.catalog = catalog;
+		}
+		
+		@Override
+		public String signature(Pathway p) {
+			return p.id + "|" + this.catalog.get(p.id).getName();
+		}
+		
+		@Override
+		public void write(Pathway p, File file) throws IOException {
+			Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+			try {
+				writeGraph(w, this.catalog.get(p.id));
+			} catch (XMLStreamException e) {
+				throw new IOException("Unable to write the graph of " + p.name, e);
+			} finally {
+				w.close();
+			}
+		}
+	}
+	
+	private int param(String key){
+		return Integer.parseInt(this.params.get(key));
+	}
+	
+	public static void main(String[] args) throws Exception {
+		new PathierarchyBenchmark(args).run();
+	}
+}
@@ -0,0 +1,139 @@
+package org.pathierarchy.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+
+import org.pathierarchy.data.PClassLoader;
+import org.pathierarchy.data.PathwayCatalog;
+import org.pathierarchy.data.PathwayEntry;
+
+import edu.iastate.metnet.Entity;
+import edu.iastate.metnet.EntityType;
+
+
+/**
+ * deterministic, in-memory stand-in for the MetNetDB content of one organism:
+ * a pathway class hierarchy of given depth and fan-out, pathways spread over
+ * its classes, and RNA/gene entities per pathway drawn from a shared pool so
+ * that entities recur across pathways as they do in MetNetDB. The same
+ * parameters and seed always produce the same data, so runs are comparable.
+ * @author Divya Mistry
+ *
+ */
+public class SyntheticMetNet {
+	public static final String[] TYPES = {EntityType.RNA, EntityType.GENE}; //entity types of the pathways
+	private static final int FIRST_PATHWAY_ID = 1000000; //keeps pathway ids apart from class ids
+	
+	private PClassLoader loader; //class hierarchy and pathway memberships
+	private PathwayCatalog catalog; //names and entities of the pathways
+	private int classCount = 0;
+	private int pathwayCount;
+	
+	/**
+	 * constructor to generate the data
+	 * @param depth number of class levels below the root
+	 * @param fanout subclasses per class
+	 * @param pathways number of pathways
+	 * @param entities entities per pathway, half of them RNAs and half genes
+	 * @param seed seed of the generator
+	 */
+	public SyntheticMetNet(int depth, int fanout, int pathways, int entities, long seed){
+		Random rnd = new Random(seed);
+		this.loader = new PClassLoader();
+		this.pathwayCount = pathways;
+		
+		//classes level by level, each level ordered by name as PathwayClass.getChildren() is
+		List<Integer> level = new ArrayList<Integer>();
+		for (int i=0; i<fanout; i++){
+			int id = ++this.classCount;
+			this.loader.addRoot(id, className(1, id));
+			level.add(id);
+		}
+		List<Integer> all = new ArrayList<Integer>(level);
+		for (int d=2; d<=depth; d++){
+			List<Integer> next = new ArrayList<Integer>();
+			for (int parent:level){
+				for (int i=0; i<fanout; i++){
+					int id = ++this.classCount;
+					this.loader.addChild(parent, id, className(d, id));
+					next.add(id);
+				}
+			}
+			all.addAll(next);
+			level = next;
+		}
+		
+		//pathways in id (and so name) order, a fifth of them in a second class as well
+		this.catalog = new PathwayCatalog(TYPES);
+		int pool = Math.max(1, pathways * entities / 4);
+		for (int p=0; p<pathways; p++){
+			int id = FIRST_PATHWAY_ID + p;
+			this.loader.addPathway(all.get(rnd.nextInt(all.size())), id);
+			if (rnd.nextInt(5) == 0){
+				this.loader.addPathway(all.get(rnd.nextInt(all.size())), id);
+			}
+			PathwayEntry entry = new PathwayEntry(id, String.format("pathway %07d", p));
+			for (int t=0; t<TYPES.length; t++){
+				entry.addType(TYPES[t]);
+				Vector<Entity> ents = new Vector<Entity>();
+				HashSet<Integer> seen = new HashSet<Integer>();
+				int count = Math.min(pool, entities / TYPES.length + (t < entities % TYPES.length ? 1 : 0));
+				while (ents.size() < count){
+					//entities of a pathway are distinct, as in MetNetDB
+					int eid = rnd.nextInt(pool);
+					if (seen.add(eid)){
+						ents.add(new Entity(eid * TYPES.length + t, TYPES[t] + "-" + eid, TYPES[t]));
+					}
+				}
+				//entities come ordered by name from MetNetDB
+				Collections.sort(ents, new Comparator<Entity>(){
+					@Override
+					public int compare(Entity a, Entity b) {
+						return a.name.compareTo(b.name);
+					}
+				});
+				for (Entity e:ents){
+					entry.addEntity(TYPES[t], e);
+				}
+			}
+			this.catalog.add(entry);
+		}
+	}
+	
+	/**
+	 * @return class hierarchy and pathway memberships, as loaded from MetNetDB by {@link PClassLoader#load}
+	 */
+	public PClassLoader getLoader(){
+		return this.loader;
+	}
+	
+	/**
+	 * @return names and entities of every pathway
+	 */
+	public PathwayCatalog getCatalog(){
+		return this.catalog;
+	}
+	
+	/**
+	 * @return number of pathway classes
+	 */
+	public int getClassCount(){
+		return this.classCount;
+	}
+	
+	/**
+	 * @return number of pathways
+	 */
+	public int getPathwayCount(){
+		return this.pathwayCount;
+	}
+	
+	private static String className(int level, int id){
+		return String.format("class L%d %06d", level, id);
+	}
+}
@@ -0,0 +1,17 @@
+package org.pathierarchy.data;
+
+
+/**
+ * lets a long running load, e.g. building a hierarchy tree or fetching its
+ * pathways from MetNetDB, be stopped between two queries when the export it
+ * belongs to is cancelled
+ * @author Divya Mistry
+ *
+ */
+public interface Cancellation {
+	/**
+	 * stop the calling load if it was asked to
+	 * @throws java.util.concurrent.CancellationException if the load was cancelled
+	 */
+	void checkCancelled();
+}
@@ -0,0 +1,75 @@
+package org.pathierarchy.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+
+/**
+ * table of names shared between compact hierarchy trees, so that a class
+ * name appearing in the trees of many organisms is stored only once.
+ * Only adding names takes a lock; names are looked up without one, so trees
+ * sharing the table can be walked from many threads at the same time.
+ * @author Divya Mistry
+ *
+ */
+public class CompactNameTable {
+	private HashMap<String, Integer> ids; //name -> id, only used while holding the lock
+	//id -> name. a full array is replaced by a larger copy, and count is raised only
+	//  after the name is stored, so a reader that sees count > id also sees the name
+	private volatile String[] names;
+	private volatile int count;
+	
+	/**
+	 * constructor to create an empty table
+	 */
+	public CompactNameTable(){
+		this.ids = new HashMap<String, Integer>();
+		this.names = new String[64];
+		this.count = 0;
+	}
+	
+	/**
+	 * find the id of a name, adding the name to the table if it is not there yet
+	 * @param name name to be looked up
+	 * @return id of the name, -1 for null
+	 */
+	public synchronized int intern(String name){
+		if (name == null){
+			return -1;
+		}
+		Integer id = this.ids.get(name);
+		if (id == null){
+			id = this.count;
+			String[] n = this.names;
+			if (id == n.length){
+				n = Arrays.copyOf(n, n.length * 2);
+				this.names = n;
+			}
+			n[id] = name;
+			this.ids.put(name, id);
+			this.count = id + 1;
+		}
+		return id;
+	}
+	
+	/**
+	 * @param id id of a name
+	 * @return the name, null for -1
+	 */
+	public String get(int id){
+		if (id < 0){
+			return null;
+		}
+		if (id >= this.count){
+			throw new IndexOutOfBoundsException("Name id " + id + " is not in the table");
+		}
+		return this.names[id];
+	}
+	
+	/**
+	 * @return number of names in the table
+	 */
+	public int size(){
+		return this.count;
+	}
+}
@@ -0,0 +1,168 @@
+package org.pathierarchy.data;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Vector;
+
+
+/**
+ * read-only pathwayClass->pathways hierarchy stored in flat int arrays.
+ * Nodes are numbered from 0 (the root); the subclasses and pathway ids of node <i>n</i>
+ * are found between offsets [n] and [n+1] of the child and pathway arrays, the
+ * hasPaths flags are kept in a bit set, and class names are ids into a
+ * {@link CompactNameTable} that can be shared by the trees of many organisms.
+ * Traversing the tree allocates nothing.
+ * @author Divya Mistry
+ *
+ */
+public class CompactPClassTree {
+	private CompactNameTable names; //table holding the class names
+	private int[] nameIds; //node -> id of the class name
+	private int[] classIds; //node -> MetNetDB id of the class, -1 for the root
+	private int[] childOffsets; //node -> start of its subclasses in children
+	private int[] children; //subclass nodes of all the nodes
+	private int[] pathwayOffsets; //node -> start of its pathways in pathwayIds
+	private int[] pathwayIds; //pathway ids of all the nodes
+	private BitSet hasPaths; //node -> whether the class or any of its subclasses have pathways
+	
+	private CompactPClassTree(CompactNameTable names, int size, int childCount, int pathwayCount){
+		this.names = names;
+		this.nameIds = new int[size];
+		this.classIds = new int[size];
+		this.childOffsets = new int[size + 1];
+		this.children = new int[childCount];
+		this.pathwayOffsets = new int[size + 1];
+		this.pathwayIds = new int[pathwayCount];
+		this.hasPaths = new BitSet(size);
+	}
+	
+	/**
+	 * build the compact form of a hierarchy tree
+	 * @param root root of the hierarchy tree
+	 * @param names table the class names are added to
+	 * @return compact tree with the same classes, pathways and flags in the same order
+	 */
+	public static CompactPClassTree from(PClassNode root, CompactNameTable names){
+		//number the nodes in pre-order, a node reached more than once keeps its first number
+		IdentityHashMap<PClassNode, Integer> numbers = new IdentityHashMap<PClassNode, Integer>();
+		ArrayList<PClassNode> nodes = new ArrayList<PClassNode>();
+		int[] counts = new int[2]; //subclass and pathway entries
+		number(root, numbers, nodes, counts);
+		
+		CompactPClassTree t = new CompactPClassTree(names, nodes.size(), counts[0], counts[1]);
+		int c = 0;
+		int p = 0;
+		for (int n=0; n<nodes.size(); n++){
+			PClassNode node = nodes.get(n);
+			t.nameIds[n] = names.intern(node.getClassName());
+			t.classIds[n] = node.getClassId();
+			if (node.getHasPaths()){
+				t.hasPaths.set(n);
+			}
+			t.childOffsets[n] = c;
+			if (node.getChildClasses() != null){
+				for (PClassNode child:node.getChildClasses()){
+					t.children[c++] = numbers.get(child);
+				}
+			}
+			t.pathwayOffsets[n] = p;
+			if (node.getChildPathwayIds() != null){
+				for (Integer id:node.getChildPathwayIds()){
+					t.pathwayIds[p++] = id;
+				}
+			}
+		}
+		t.childOffsets[nodes.size()] = c;
+		t.pathwayOffsets[nodes.size()] = p;
+		return t;
+	}
+	
+	private static void number(PClassNode node, IdentityHashMap<PClassNode, Integer> numbers,
+			ArrayList<PClassNode> nodes, int[] counts){
+		numbers.put(node, nodes.size());
+		nodes.add(node);
+		Vector<Integer> pwys = node.getChildPathwayIds();
+		counts[1] += pwys == null ? 0 : pwys.size();
+		if (node.getChildClasses() != null){
+			counts[0] += node.getChildClasses().size();
+			for (PClassNode child:node.getChildClasses()){
+				if (!numbers.containsKey(child)){
+					number(child, numbers, nodes, counts);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return node number of the root
+	 */
+	public int getRoot(){
+		return 0;
+	}
+	
+	/**
+	 * @return number of nodes in the tree, including the root
+	 */
+	public int size(){
+		return this.nameIds.length;
+	}
+	
+	/**
+	 * @param node node number
+	 * @return name of the class represented by the node
+	 */
+	public String getClassName(int node){
+		return this.names.get(this.nameIds[node]);
+	}
+	
+	/**
+	 * @param node node number
+	 * @return id of the class represented by the node, -1 for the root
+	 */
+	public int getClassId(int node){
+		return this.classIds[node];
+	}
+	
+	/**
+	 * @param node node number
+	 * @return true if the class or any of its subclasses have pathways, false otherwise
+	 */
+	public boolean getHasPaths(int node){
+		return this.hasPaths.get(node);
+	}
+	
+	/**
+	 * @param node node number
+	 * @return number of subclasses of the class
+	 */
+	public int getChildCount(int node){
+		return this.childOffsets[node + 1] - this.childOffsets[node];
+	}
+	
+	/**
+	 * @param node node number
+	 * @param i index of the subclass, from 0 to {@link #getChildCount(int)} - 1
+	 * @return node number of the subclass
+	 */
+	public int getChild(int node, int i){
+		return this.children[this.childOffsets[node] + i];
+	}
+	
+	/**
+	 * @param node node number
+	 * @return number of pathways directly under the class
+	 */
+	public int getPathwayCount(int node){
+		return this.pathwayOffsets[node + 1] - this.pathwayOffsets[node];
+	}
+	
+	/**
+	 * @param node node number
+	 * @param i index of the pathway, from 0 to {@link #getPathwayCount(int)} - 1
+	 * @return id of the pathway
+	 */
+	public int getPathwayId(int node, int i){
+		return this.pathwayIds[this.pathwayOffsets[node] + i];
+	}
+}
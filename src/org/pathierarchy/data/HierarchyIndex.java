@@ -0,0 +1,473 @@
+package org.pathierarchy.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+import edu.iastate.metnet.Entity;
+
+
+/**
+ * reverse lookups over a built hierarchy: which pathways hold an entity, and which
+ * pathway classes hold a pathway, directly or through any of their subclasses.
+ * The index is built once from the compact tree and the pathway catalog, after which
+ * every lookup is a binary search or a hash lookup followed by reading a slice of
+ * an int array, without MetNetDB.
+ *
+ * Entities, pathways and classes are numbered densely while the index is built, and
+ * every relation is kept as an offsets array and a postings array (i.e. the postings
+ * of number <i>n</i> are found between offsets [n] and [n+1]), sorted within each slice.
+ * @author Divya Mistry
+ *
+ */
+public class HierarchyIndex {
+	private CompactPClassTree tree; //hierarchy the index was built from
+	
+	private int[] pathwayIds; //pathway number -> pathway id, sorted
+	private String[] pathwayNames; //pathway number -> name, null if not in the catalog
+	private int[] ancestorOffsets; //pathway number -> start of its classes in ancestors
+	private int[] ancestors; //tree nodes of the classes holding each pathway, the root excluded
+	
+	private int[] entityIds; //entity number -> entity id, sorted
+	private String[] entityNames; //entity number -> name
+	private int[] entityOffsets; //entity number -> start of its pathways in entityPathways
+	private int[] entityPathways; //pathway numbers of the pathways holding each entity
+	private HashMap<String, int[]> byName; //lower case entity name -> entity numbers
+	
+	private HierarchyIndex(CompactPClassTree ctree){
+		this.tree = ctree;
+	}
+	
+	/**
+	 * build the index of a hierarchy
+	 * @param ctree compact form of the hierarchy tree
+	 * @param cat names and entities of the pathways in the tree
+	 * @return index of the tree's pathways and the entities the catalog holds for them
+	 */
+	public static HierarchyIndex build(CompactPClassTree ctree, PathwayCatalog cat){
+		HierarchyIndex idx = new HierarchyIndex(ctree);
+		idx.indexPathways();
+		idx.indexAncestors();
+		idx.indexEntities(cat);
+		return idx;
+	}
+	
+	/**
+	 * build the index of a hierarchy
+	 * @param root root of the hierarchy tree
+	 * @param cat names and entities of the pathways in the tree
+	 * @return index of the tree's pathways and the entities the catalog holds for them
+	 */
+	public static HierarchyIndex build(PClassNode root, PathwayCatalog cat){
+		return build(CompactPClassTree.from(root, new CompactNameTable()), cat);
+	}
+	
+	/**
+	 * number the distinct pathways of the tree
+	 */
+	private void indexPathways(){
+		int count = 0;
+		for (int n=0; n<this.tree.size(); n++){
+			count += this.tree.getPathwayCount(n);
+		}
+		int[] ids = new int[count];
+		int k = 0;
+		for (int n=0; n<this.tree.size(); n++){
+			for (int i=0; i<this.tree.getPathwayCount(n); i++){
+				ids[k++] = this.tree.getPathwayId(n, i);
+			}
+		}
+		this.pathwayIds = sortedDistinct(ids, k);
+		this.pathwayNames = new String[this.pathwayIds.length];
+	}
+	
+	/**
+	 * find every class holding each pathway by walking up from the classes it is directly in
+	 */
+	private void indexAncestors(){
+		int size = this.tree.size();
+		//parents of every node; a node shared by several classes has several of them
+		int[] parentOffsets = new int[size + 1];
+		for (int n=0; n<size; n++){
+			for (int i=0; i<this.tree.getChildCount(n); i++){
+				parentOffsets[this.tree.getChild(n, i) + 1]++;
+			}
+		}
+		for (int n=0; n<size; n++){
+			parentOffsets[n + 1] += parentOffsets[n];
+		}
+		int[] parents = new int[parentOffsets[size]];
+		int[] fill = Arrays.copyOf(parentOffsets, size);
+		for (int n=0; n<size; n++){
+			for (int i=0; i<this.tree.getChildCount(n); i++){
+				int child = this.tree.getChild(n, i);
+				parents[fill[child]++] = n;
+			}
+		}
+		
+		//nodes directly holding every pathway
+		int pathways = this.pathwayIds.length;
+		int[] directOffsets = new int[pathways + 1];
+		for (int n=0; n<size; n++){
+			for (int i=0; i<this.tree.getPathwayCount(n); i++){
+				directOffsets[pathwayNumber(this.tree.getPathwayId(n, i)) + 1]++;
+			}
+		}
+		for (int p=0; p<pathways; p++){
+			directOffsets[p + 1] += directOffsets[p];
+		}
+		int[] direct = new int[directOffsets[pathways]];
+		fill = Arrays.copyOf(directOffsets, pathways);
+		for (int n=0; n<size; n++){
+			for (int i=0; i<this.tree.getPathwayCount(n); i++){
+				int p = pathwayNumber(this.tree.getPathwayId(n, i));
+				direct[fill[p]++] = n;
+			}
+		}
+		
+		//walk up from those nodes, stamping visited nodes with the pathway number
+		int[] stamp = new int[size];
+		Arrays.fill(stamp, -1);
+		int[] stack = new int[size];
+		IntList found = new IntList(direct.length * 4);
+		this.ancestorOffsets = new int[pathways + 1];
+		for (int p=0; p<pathways; p++){
+			int from = found.size();
+			int top = 0;
+			for (int i=directOffsets[p]; i<directOffsets[p + 1]; i++){
+				if (stamp[direct[i]] != p){
+					stamp[direct[i]] = p;
+					stack[top++] = direct[i];
+				}
+			}
+			while (top > 0){
+				int n = stack[--top];
+				if (n != this.tree.getRoot()){
+					found.add(n);
+				}
+				for (int i=parentOffsets[n]; i<parentOffsets[n + 1]; i++){
+					if (stamp[parents[i]] != p){
+						stamp[parents[i]] = p;
+						stack[top++] = parents[i];
+					}
+				}
+			}
+			found.sortFrom(from);
+			this.ancestorOffsets[p + 1] = found.size();
+		}
+		this.ancestors = found.toArray();
+	}
+	
+	/**
+	 * number the distinct entities of the catalog and post the pathways holding each of them
+	 */
+	private void indexEntities(PathwayCatalog cat){
+		IntList pairEntity = new IntList(1024);
+		IntList pairPathway = new IntList(1024);
+		HashMap<Integer, String> names = new HashMap<Integer, String>();
+		for (PathwayEntry entry:cat.getEntries()){
+			int p = pathwayNumber(entry.getPathwayId());
+			if (p < 0){
+				continue; //pathway is not in this tree
+			}
+			this.pathwayNames[p] = entry.getName();
+			for (String type:entry.getTypes()){
+				for (Entity e:entry.getEntities(type)){
+					pairEntity.add(e.id);
+					pairPathway.add(p);
+					if (!names.containsKey(e.id)){
+						names.put(e.id, e.name);
+					}
+				}
+			}
+		}
+		this.entityIds = sortedDistinct(pairEntity.toArray(), pairEntity.size());
+		int entities = this.entityIds.length;
+		this.entityNames = new String[entities];
+		for (int e=0; e<entities; e++){
+			this.entityNames[e] = names.get(this.entityIds[e]);
+		}
+		
+		//postings of every entity, sorted and without the duplicates of an entity listed under two types
+		int[] numbers = new int[pairEntity.size()];
+		int[] offsets = new int[entities + 1];
+		for (int i=0; i<numbers.length; i++){
+			numbers[i] = entityNumber(pairEntity.get(i));
+			offsets[numbers[i] + 1]++;
+		}
+		for (int e=0; e<entities; e++){
+			offsets[e + 1] += offsets[e];
+		}
+		int[] postings = new int[numbers.length];
+		int[] fill = Arrays.copyOf(offsets, entities);
+		for (int i=0; i<numbers.length; i++){
+			postings[fill[numbers[i]]++] = pairPathway.get(i);
+		}
+		this.entityOffsets = new int[entities + 1];
+		int k = 0;
+		for (int e=0; e<entities; e++){
+			Arrays.sort(postings, offsets[e], offsets[e + 1]);
+			for (int i=offsets[e]; i<offsets[e + 1]; i++){
+				if (i == offsets[e] || postings[i] != postings[i - 1]){
+					postings[k++] = postings[i];
+				}
+			}
+			this.entityOffsets[e + 1] = k;
+		}
+		this.entityPathways = Arrays.copyOf(postings, k);
+		
+		//entity numbers by name
+		HashMap<String, IntList> lists = new HashMap<String, IntList>();
+		for (int e=0; e<entities; e++){
+			if (this.entityNames[e] == null){
+				continue;
+			}
+			String key = this.entityNames[e].toLowerCase(Locale.ENGLISH);
+			IntList l = lists.get(key);
+			if (l == null){
+				l = new IntList(1);
+				lists.put(key, l);
+			}
+			l.add(e);
+		}
+		this.byName = new HashMap<String, int[]>(lists.size() * 2);
+		for (String key:lists.keySet()){
+			this.byName.put(key, lists.get(key).toArray());
+		}
+	}
+	
+	private static int[] sortedDistinct(int[] a, int length){
+		Arrays.sort(a, 0, length);
+		int k = 0;
+		for (int i=0; i<length; i++){
+			if (k == 0 || a[i] != a[k - 1]){
+				a[k++] = a[i];
+			}
+		}
+		return Arrays.copyOf(a, k);
+	}
+	
+	private int pathwayNumber(int pathwayId){
+		int p = Arrays.binarySearch(this.pathwayIds, pathwayId);
+		return p < 0 ? -1 : p;
+	}
+	
+	private int entityNumber(int entityId){
+		int e = Arrays.binarySearch(this.entityIds, entityId);
+		return e < 0 ? -1 : e;
+	}
+	
+	/**
+	 * @return number of distinct pathways in the hierarchy
+	 */
+	public int getPathwayCount(){
+		return this.pathwayIds.length;
+	}
+	
+	/**
+	 * @return number of distinct entities held by the pathways
+	 */
+	public int getEntityCount(){
+		return this.entityIds.length;
+	}
+	
+	/**
+	 * @param pathwayId id of a pathway
+	 * @return name of the pathway, null if it is not in the catalog
+	 */
+	public String getPathwayName(int pathwayId){
+		int p = pathwayNumber(pathwayId);
+		return p < 0 ? null : this.pathwayNames[p];
+	}
+	
+	/**
+	 * @param entityId id of an entity
+	 * @return name of the entity, null if no pathway holds it
+	 */
+	public String getEntityName(int entityId){
+		int e = entityNumber(entityId);
+		return e < 0 ? null : this.entityNames[e];
+	}
+	
+	/**
+	 * @param name name of an entity, e.g. a gene, compared ignoring case
+	 * @return ids of the entities with that name, in ascending order, empty if there are none
+	 */
+	public int[] findEntities(String name){
+		int[] numbers = this.byName.get(name.toLowerCase(Locale.ENGLISH));
+		if (numbers == null){
+			return new int[0];
+		}
+		int[] ids = new int[numbers.length];
+		for (int i=0; i<ids.length; i++){
+			ids[i] = this.entityIds[numbers[i]];
+		}
+		return ids;
+	}
+	
+	/**
+	 * @param entityId id of an entity
+	 * @return ids of the pathways holding the entity, in ascending order, empty if there are none
+	 */
+	public int[] getPathwaysOf(int entityId){
+		int e = entityNumber(entityId);
+		if (e < 0){
+			return new int[0];
+		}
+		int[] ids = new int[this.entityOffsets[e + 1] - this.entityOffsets[e]];
+		for (int i=0; i<ids.length; i++){
+			ids[i] = this.pathwayIds[this.entityPathways[this.entityOffsets[e] + i]];
+		}
+		return ids;
+	}
+	
+	/**
+	 * @param pathwayId id of a pathway
+	 * @param entityId id of an entity
+	 * @return true if the pathway holds the entity
+	 */
+	public boolean contains(int pathwayId, int entityId){
+		int e = entityNumber(entityId);
+		int p = pathwayNumber(pathwayId);
+		return e >= 0 && p >= 0
+				&& Arrays.binarySearch(this.entityPathways, this.entityOffsets[e], this.entityOffsets[e + 1], p) >= 0;
+	}
+	
+	/**
+	 * @param pathwayId id of a pathway
+	 * @return tree nodes of the classes holding the pathway directly or through a subclass,
+	 *         in ascending order, see {@link #getTree()}. Empty if the pathway is not in the tree.
+	 */
+	public int[] getClassNodesOf(int pathwayId){
+		int p = pathwayNumber(pathwayId);
+		return p < 0 ? new int[0] : Arrays.copyOfRange(this.ancestors, this.ancestorOffsets[p], this.ancestorOffsets[p + 1]);
+	}
+	
+	/**
+	 * @param pathwayId id of a pathway
+	 * @return names of the classes holding the pathway directly or through a subclass
+	 */
+	public String[] getClassNamesOf(int pathwayId){
+		int[] nodes = getClassNodesOf(pathwayId);
+		String[] names = new String[nodes.length];
+		for (int i=0; i<nodes.length; i++){
+			names[i] = this.tree.getClassName(nodes[i]);
+		}
+		return names;
+	}
+	
+	/**
+	 * @param pathwayId id of a pathway
+	 * @param classId id of a pathway class
+	 * @return true if the class holds the pathway directly or through any of its subclasses
+	 */
+	public boolean isInClass(int pathwayId, int classId){
+		int p = pathwayNumber(pathwayId);
+		if (p < 0){
+			return false;
+		}
+		for (int i=this.ancestorOffsets[p]; i<this.ancestorOffsets[p + 1]; i++){
+			if (this.tree.getClassId(this.ancestors[i]) == classId){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @param entityId id of an entity
+	 * @return tree nodes of the classes holding any pathway with the entity, in ascending order
+	 */
+	public int[] getClassNodesOfEntity(int entityId){
+		int e = entityNumber(entityId);
+		if (e < 0){
+			return new int[0];
+		}
+		IntList nodes = new IntList(16);
+		for (int i=this.entityOffsets[e]; i<this.entityOffsets[e + 1]; i++){
+			int p = this.entityPathways[i];
+			for (int j=this.ancestorOffsets[p]; j<this.ancestorOffsets[p + 1]; j++){
+				nodes.add(this.ancestors[j]);
+			}
+		}
+		return sortedDistinct(nodes.toArray(), nodes.size());
+	}
+	
+	/**
+	 * @return compact hierarchy tree the node numbers of this index refer to
+	 */
+	public CompactPClassTree getTree(){
+		return this.tree;
+	}
+	
+	/**
+	 * growable list of ints, so that postings are collected without boxing
+	 */
+	private static class IntList {
+		private int[] values;
+		private int size = 0;
+		
+		IntList(int capacity){
+			this.values = new int[Math.max(1, capacity)];
+		}
+		
+		void add(int v){
+			if (this.size == this.values.length){
+				this.values = Arrays.copyOf(this.values, this.size * 2);
+			}
+			this.values[this.size++] = v;
+		}
+		
+		int get(int i){
+			return this.values[i];
+		}
+		
+		int size(){
+			return this.size;
+		}
+		
+		void sortFrom(int from){
+			Arrays.sort(this.values, from, this.size);
+		}
+		
+		int[] toArray(){
+			return Arrays.copyOf(this.values, this.size);
+		}
+	}
+	
+	public static void main(String[] args){
+		if (args.length < 3){
+			System.out.println("Usage: HierarchyIndex <snapshotDir> <orgname> <entityName> [<entityName> ...]\n");
+			System.out.println("\t<snapshotDir> - directory holding the organism's hierarchy snapshot\n" +
+					           "\t<orgname> - name of the organism (e.g. Vitis)\n" +
+					           "\t<entityName> - genes or RNAs whose pathways and pathway classes are listed\n");
+			return;
+		}
+		HierarchySnapshot snap;
+		try {
+			snap = HierarchySnapshot.read(HierarchySnapshot.fileFor(new File(args[0]), args[1]));
+		} catch (IOException e) {
+			System.err.println("No usable snapshot of " + args[1] + " in " + args[0] + ": " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+		long t = System.currentTimeMillis();
+		HierarchyIndex idx = build(snap.getRoot(), snap.getCatalog());
+		System.out.println("Indexed " + idx.getEntityCount() + " entities in " + idx.getPathwayCount() + " pathways in " +
+				(System.currentTimeMillis() - t) + "ms\n");
+		for (int i=2; i<args.length; i++){
+			int[] ents = idx.findEntities(args[i]);
+			if (ents.length == 0){
+				System.out.println(args[i] + ": not in any pathway of " + args[1]);
+			}
+			for (int e:ents){
+				System.out.println(idx.getEntityName(e) + " (" + e + ")");
+				for (int p:idx.getPathwaysOf(e)){
+					System.out.println("\t" + idx.getPathwayName(p) + " <- " + Arrays.toString(idx.getClassNamesOf(p)));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,350 @@
+package org.pathierarchy.data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import edu.iastate.metnet.Entity;
+
+
+/**
+ * persistent snapshot of an organism's pathwayClass->pathway hierarchy, along with
+ * the names and entities of its pathways. Snapshots are stored in a compact binary
+ * file that is read back in one go, so repeated exports do not need MetNetDB.
+ * 
+ * File layout (all numbers big-endian):
+ *  -- header: magic, format version, creation time, organism name
+ *  -- string table: every class, pathway, entity and type name, stored once
+ *  -- hierarchy: nodes in pre-order, with class ids and names as string table indices
+ *  -- catalog: entity types, then every pathway with its entities per type
+ * @author Divya Mistry
+ *
+ */
+public class HierarchySnapshot {
+	public static final int MAGIC = 0x4d4e4853; //"MNHS"
+	public static final int VERSION = 2; //bump whenever the file layout changes
+	public static final String SUFFIX = ".snapshot";
+	
+	private String organism; //organism the hierarchy belongs to
+	private long created; //time the snapshot was taken, in milliseconds
+	private PClassNode root; //root of the hierarchy tree
+	private PathwayCatalog catalog; //names and entities of the pathways in the tree
+	
+	/**
+	 * constructor to take a snapshot of a hierarchy
+	 * @param organism name of the organism
+	 * @param root root of the organism's hierarchy tree
+	 * @param catalog names and entities of the pathways in the tree
+	 */
+	public HierarchySnapshot(String organism, PClassNode root, PathwayCatalog catalog){
+		this(organism, root, catalog, System.currentTimeMillis());
+	}
+	
+	private HierarchySnapshot(String organism, PClassNode root, PathwayCatalog catalog, long created){
+		this.organism = organism;
+		this.root = root;
+		this.catalog = catalog;
+		this.created = created;
+	}
+	
+	/**
+	 * @return name of the organism the hierarchy belongs to
+	 */
+	public String getOrganism(){
+		return this.organism;
+	}
+	
+	/**
+	 * @return time the snapshot was taken, in milliseconds since the epoch
+	 */
+	public long getCreated(){
+		return this.created;
+	}
+	
+	/**
+	 * @return root of the hierarchy tree
+	 */
+	public PClassNode getRoot(){
+		return this.root;
+	}
+	
+	/**
+	 * @return names and entities of the pathways in the hierarchy
+	 */
+	public PathwayCatalog getCatalog(){
+		return this.catalog;
+	}
+	
+	/**
+	 * location of an organism's snapshot
+	 * @param dir directory holding the snapshots
+	 * @param organism name of the organism
+	 * @return snapshot file of the organism, which may not exist yet
+	 */
+	public static File fileFor(File dir, String organism){
+		return new File(dir, organism.replaceAll("[^A-Za-z0-9._-]", "_") + SUFFIX);
+	}
+	
+	/**
+	 * load an organism's snapshot if it is usable
+	 * @param dir directory holding the snapshots
+	 * @param organism name of the organism
+	 * @param ttl maximum age of the snapshot in milliseconds
+	 * @param types entity types the snapshot must hold
+	 * @return the snapshot, or null if it is missing, expired, unreadable or lacks any of the entity types
+	 */
+	public static HierarchySnapshot load(File dir, String organism, long ttl, String[] types){
+		File f = fileFor(dir, organism);
+		if (!f.isFile()){
+			return null;
+		}
+		try {
+			HierarchySnapshot snap = read(f);
+			if (!organism.equals(snap.organism) || snap.created + ttl < System.currentTimeMillis()
+					|| !snap.catalog.hasTypes(types)){
+				return null;
+			}
+			return snap;
+		} catch (IOException e) {
+			System.err.println("Ignoring unreadable snapshot " + f.getPath() + ": " + e.getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * delete the snapshot of an organism so that the next export queries MetNetDB again
+	 * @param dir directory holding the snapshots
+	 * @param organism name of the organism
+	 * @return true if there is no snapshot left for the organism, false otherwise
+	 */
+	public static boolean invalidate(File dir, String organism){
+		File f = fileFor(dir, organism);
+		return !f.exists() || f.delete();
+	}
+	
+	/**
+	 * write the snapshot to the snapshot directory, replacing any older snapshot of the organism.
+	 * the file is written under a temporary name first, so readers never see a partial snapshot.
+	 * @param dir directory holding the snapshots
+	 * @return the snapshot file
+	 * @throws IOException if the snapshot could not be written
+	 */
+	public File write(File dir) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()){
+			throw new IOException("Unable to create snapshot directory " + dir.getPath());
+		}
+		File f = fileFor(dir, this.organism);
+		File tmp = File.createTempFile(f.getName(), ".tmp", dir);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				writeTo(out);
+			} finally {
+				out.close();
+			}
+			//replace the old snapshot in one step where the platform allows it, so that
+			//  a crash never leaves the organism without a snapshot
+			if (!tmp.renameTo(f) && (f.exists() && !f.delete() || !tmp.renameTo(f))){
+				throw new IOException("Unable to rename " + tmp.getPath() + " to " + f.getPath());
+			}
+		} finally {
+			if (tmp.exists()){
+				tmp.delete();
+			}
+		}
+		return f;
+	}
+	
+	private void writeTo(DataOutputStream out) throws IOException {
+		//collect every string once
+		Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+		collectStrings(this.root, strings);
+		for (String t:this.catalog.getTypes()){
+			intern(t, strings);
+		}
+		for (PathwayEntry entry:this.catalog.getEntries()){
+			intern(entry.getName(), strings);
+			for (String t:entry.getTypes()){
+				intern(t, strings);
+				for (Entity e:entry.getEntities(t)){
+					intern(e.name, strings);
+				}
+			}
+		}
+		
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(this.created);
+		writeString(out, this.organism);
+		out.writeInt(strings.size());
+		for (String s:strings.keySet()){
+			writeString(out, s);
+		}
+		writeNode(out, this.root, strings);
+		out.writeInt(this.catalog.getTypes().size());
+		for (String t:this.catalog.getTypes()){
+			out.writeInt(strings.get(t));
+		}
+		out.writeInt(this.catalog.size());
+		for (PathwayEntry entry:this.catalog.getEntries()){
+			out.writeInt(entry.getPathwayId());
+			out.writeInt(index(entry.getName(), strings));
+			out.writeInt(entry.getTypes().size());
+			for (String t:entry.getTypes()){
+				Vector<Entity> ents = entry.getEntities(t);
+				out.writeInt(strings.get(t));
+				out.writeInt(ents.size());
+				for (Entity e:ents){
+					out.writeInt(e.id);
+					out.writeInt(index(e.name, strings));
+				}
+			}
+		}
+	}
+	
+	private void collectStrings(PClassNode node, Map<String, Integer> strings){
+		intern(node.getClassName(), strings);
+		if (node.getChildClasses() != null){
+			for (PClassNode child:node.getChildClasses()){
+				collectStrings(child, strings);
+			}
+		}
+	}
+	
+	private static void intern(String s, Map<String, Integer> strings){
+		if (s != null && !strings.containsKey(s)){
+			strings.put(s, strings.size());
+		}
+	}
+	
+	private static int index(String s, Map<String, Integer> strings){
+		return s == null ? -1 : strings.get(s);
+	}
+	
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] b = s.getBytes("UTF-8");
+		out.writeInt(b.length);
+		out.write(b);
+	}
+	
+	private void writeNode(DataOutputStream out, PClassNode node, Map<String, Integer> strings) throws IOException {
+		out.writeInt(node.getClassId());
+		out.writeInt(index(node.getClassName(), strings));
+		out.writeBoolean(node.getHasPaths());
+		Vector<Integer> pwys = node.getChildPathwayIds();
+		out.writeInt(pwys == null ? 0 : pwys.size());
+		if (pwys != null){
+			for (Integer id:pwys){
+				out.writeInt(id);
+			}
+		}
+		Vector<PClassNode> children = node.getChildClasses();
+		out.writeInt(children == null ? 0 : children.size());
+		if (children != null){
+			for (PClassNode child:children){
+				writeNode(out, child, strings);
+			}
+		}
+	}
+	
+	/**
+	 * read a snapshot file in one go into memory. The file is not mapped, since a mapping
+	 * stays open until it is garbage collected and keeps the file from being replaced or
+	 * deleted on some platforms.
+	 * @param f snapshot file
+	 * @return the snapshot held in the file
+	 * @throws IOException if the file can not be read or is not a snapshot of the current version
+	 */
+	public static HierarchySnapshot read(File f) throws IOException {
+		ByteBuffer buf;
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			FileChannel ch = raf.getChannel();
+			long size = ch.size();
+			if (size > Integer.MAX_VALUE){
+				throw new IOException("Snapshot " + f.getPath() + " is too large");
+			}
+			buf = ByteBuffer.allocate((int) size);
+			while (buf.hasRemaining()){
+				if (ch.read(buf) < 0){
+					throw new IOException("Snapshot " + f.getPath() + " ended early");
+				}
+			}
+			buf.flip();
+		} finally {
+			raf.close();
+		}
+		try {
+			if (buf.getInt() != MAGIC){
+				throw new IOException("Not a hierarchy snapshot");
+			}
+			int version = buf.getInt();
+			if (version != VERSION){
+				throw new IOException("Snapshot version " + version + " is not supported, expected " + VERSION);
+			}
+			long created = buf.getLong();
+			String organism = readString(buf);
+			String[] strings = new String[buf.getInt()];
+			for (int i=0; i<strings.length; i++){
+				strings[i] = readString(buf);
+			}
+			PClassNode root = readNode(buf, strings);
+			String[] types = new String[buf.getInt()];
+			for (int i=0; i<types.length; i++){
+				types[i] = strings[buf.getInt()];
+			}
+			PathwayCatalog catalog = new PathwayCatalog(types);
+			int entries = buf.getInt();
+			for (int i=0; i<entries; i++){
+				PathwayEntry entry = new PathwayEntry(buf.getInt(), string(buf.getInt(), strings));
+				int entryTypes = buf.getInt();
+				for (int j=0; j<entryTypes; j++){
+					String type = strings[buf.getInt()];
+					entry.addType(type);
+					int ents = buf.getInt();
+					for (int k=0; k<ents; k++){
+						entry.addEntity(type, new Entity(buf.getInt(), string(buf.getInt(), strings), type));
+					}
+				}
+				catalog.add(entry);
+			}
+			return new HierarchySnapshot(organism, root, catalog, created);
+		} catch (RuntimeException e) {
+			//buffer underflows and bad indices mean the file is truncated or corrupt
+			throw new IOException("Corrupt snapshot " + f.getPath() + ": " + e);
+		}
+	}
+	
+	private static String readString(ByteBuffer buf) throws IOException {
+		byte[] b = new byte[buf.getInt()];
+		buf.get(b);
+		return new String(b, "UTF-8");
+	}
+	
+	private static String string(int index, String[] strings){
+		return index < 0 ? null : strings[index];
+	}
+	
+	private static PClassNode readNode(ByteBuffer buf, String[] strings){
+		int id = buf.getInt();
+		PClassNode node = new PClassNode(id, string(buf.getInt(), strings));
+		node.setHasPaths(buf.get() != 0);
+		int pwys = buf.getInt();
+		for (int i=0; i<pwys; i++){
+			node.addPathway(buf.getInt());
+		}
+		int children = buf.getInt();
+		for (int i=0; i<children; i++){
+			node.addChildPathwayClass(readNode(buf, strings));
+		}
+		return node;
+	}
+}
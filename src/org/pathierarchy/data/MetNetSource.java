@@ -0,0 +1,131 @@
+package org.pathierarchy.data;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Vector;
+
+import org.pathierarchy.db.MetNetDB;
+import org.pathierarchy.db.PooledConnection;
+import org.pathierarchy.metrics.Metrics;
+
+import edu.iastate.metnet.Organism;
+import edu.iastate.metnet.Pathway;
+import edu.iastate.metnet.PathwayClass;
+
+
+/**
+ * pathway source querying a live MetNetDB, one query per class or pathway.
+ * Subclasses, class pathways and pathway entities are queried on connections
+ * of the shared {@link org.pathierarchy.db.ConnectionPool}, so that a parallel
+ * tree build does not wait on the MetNet API's single connection. The MetNet API
+ * is used if the pool can not be queried.
+ * @author Divya Mistry
+ *
+ */
+public class MetNetSource implements PathwaySource {
+	//subclasses of a class ordered by name, as in PathwayClass.getChildren()
+	private static final String CHILDREN_SQL =
+		"select distinct cn.class_id, cn.name from class_relation cr inner join class_name cn on (cr.child_id = cn.class_id) " +
+		"where cr.parent_id = ? order by cn.name";
+	//pathways of an organism in a class ordered by name, as in PathwayClass.getPathways(Organism)
+	private static final String PATHWAYS_SQL =
+		"select bu.blockid from class_pathway cp inner join blockunit bu on (cp.pathway_id = bu.blockid) " +
+		"where cp.class_id = ? and bu.organism = ? order by bu.name";
+	
+	@Override
+	public Organism findOrganism(String name) {
+		return Organism.identify(name);
+	}
+	
+	@Override
+	public String[] getOrganismNames() {
+		Organism[] all = Organism.search();
+		String[] names = new String[all.length];
+		for (int i=0; i<all.length; i++){
+			names[i] = all[i].name;
+		}
+		return names;
+	}
+	
+	@Override
+	public PathwayClass[] getMainClasses() {
+		long t = Metrics.start();
+		PathwayClass[] classes = PathwayClass.search();
+		Metrics.stop("db.searchClasses", t);
+		return classes;
+	}
+	
+	@Override
+	public PathwayClass[] getChildren(PathwayClass pc) {
+		long t = Metrics.start();
+		try {
+			Vector<PathwayClass> children = new Vector<PathwayClass>();
+			PooledConnection conn = MetNetDB.getPool().borrow();
+			try {
+				PreparedStatement ps = conn.prepare(CHILDREN_SQL);
+				ps.setInt(1, pc.id);
+				ResultSet rs = ps.executeQuery();
+				while (rs.next()){
+					children.add(new PathwayClass(rs.getInt(1), rs.getString(2)));
+				}
+				rs.close();
+			} catch (SQLException e) {
+				conn.invalidate();
+				throw e;
+			} finally {
+				conn.close();
+			}
+			return children.toArray(new PathwayClass[children.size()]);
+		} catch (SQLException e) {
+			System.err.println("Unable to query subclasses of " + pc.name + " on a pooled connection: " + e.getMessage());
+			PathwayClass[] children = pc.getChildren();
+			return children == null ? new PathwayClass[0] : children;
+		} finally {
+			Metrics.stop("db.getChildren", t);
+		}
+	}
+	
+	@Override
+	public Vector<Integer> getPathwayIds(PathwayClass pc, Organism orgm) {
+		long t = Metrics.start();
+		Vector<Integer> ids = new Vector<Integer>();
+		try {
+			PooledConnection conn = MetNetDB.getPool().borrow();
+			try {
+				PreparedStatement ps = conn.prepare(PATHWAYS_SQL);
+				ps.setInt(1, pc.id);
+				ps.setString(2, orgm.name);
+				ResultSet rs = ps.executeQuery();
+				while (rs.next()){
+					ids.add(rs.getInt(1));
+				}
+				rs.close();
+			} catch (SQLException e) {
+				conn.invalidate();
+				throw e;
+			} finally {
+				conn.close();
+			}
+		} catch (SQLException e) {
+			System.err.println("Unable to query pathways of class " + pc.name + " on a pooled connection: " + e.getMessage());
+			ids.clear();
+			for (Pathway p:pc.getPathways(orgm).toArray()){
+				ids.add(p.id);
+			}
+		} finally {
+			Metrics.stop("db.getPathways", t);
+		}
+		return ids;
+	}
+	
+	@Override
+	public PathwayEntry getPathway(int pathwayId, String[] types) {
+		return PathwayEntry.fetch(pathwayId, types);
+	}
+	
+	@Override
+	public boolean isLive() {
+		return true;
+	}
+}
@@ -0,0 +1,121 @@
+package org.pathierarchy.data;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Vector;
+
+import edu.iastate.metnet.Organism;
+
+
+/**
+ * local copy of the names of the organisms in MetNetDB, one name per line,
+ * so that a UI can offer the organisms right away and refresh them from
+ * MetNetDB in the background.
+ * @author Divya Mistry
+ *
+ */
+public class OrganismListCache {
+	private static final String CHARSET = "UTF-8";
+	
+	private File file; //file holding the cached names
+	
+	/**
+	 * constructor for the cache in the user's home directory
+	 */
+	public OrganismListCache(){
+		this(new File(new File(System.getProperty("user.home"), ".mngui"), "organisms.txt"));
+	}
+	
+	/**
+	 * constructor
+	 * @param f file holding the cached names
+	 */
+	public OrganismListCache(File f){
+		this.file = f;
+	}
+	
+	/**
+	 * read the cached organism names
+	 * @return names in the order they were saved, empty if there is no usable cache
+	 */
+	public Vector<String> load(){
+		Vector<String> names = new Vector<String>();
+		if (!this.file.isFile()){
+			return names;
+		}
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(this.file), CHARSET));
+			try {
+				String line;
+				while ((line = in.readLine()) != null){
+					if (line.length() > 0){
+						names.add(line);
+					}
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Ignoring unreadable organism cache " + this.file.getPath() + ": " + e.getMessage());
+			names.clear();
+		}
+		return names;
+	}
+	
+	/**
+	 * replace the cached organism names, through a temporary file so that
+	 * an interrupted write never leaves a partial list behind
+	 * @param names organism names to be cached
+	 * @throws IOException if the cache could not be written
+	 */
+	public void save(List<String> names) throws IOException {
+		File dir = this.file.getAbsoluteFile().getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()){
+			throw new IOException("Unable to create directory " + dir.getPath());
+		}
+		File tmp = new File(dir, this.file.getName() + ".tmp");
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), CHARSET));
+		try {
+			for (String name:names){
+				out.write(name);
+				out.write('\n');
+			}
+		} finally {
+			out.close();
+		}
+		//rename over the old list first, so a crash never leaves no list at all.
+		//  only where renaming can not replace a file is the old one deleted first
+		if (!tmp.renameTo(this.file) && (this.file.exists() && !this.file.delete() || !tmp.renameTo(this.file))){
+			tmp.delete();
+			throw new IOException("Unable to rename " + tmp.getPath() + " to " + this.file.getName());
+		}
+	}
+	
+	/**
+	 * fetch the organism names from MetNetDB and cache them
+	 * @return names of all the organisms in MetNetDB
+	 */
+	public Vector<String> refresh(){
+		Vector<String> names = new Vector<String>();
+		for (Organism o:Organism.search()){
+			names.add(o.name);
+		}
+		//an empty answer is more likely a failed query than an empty MetNetDB
+		if (names.size() > 0){
+			try {
+				save(names);
+			} catch (IOException e) {
+				System.err.println("Unable to save organism cache " + this.file.getPath() + ": " + e.getMessage());
+			}
+		}
+		return names;
+	}
+}
@@ -0,0 +1,170 @@
+package org.pathierarchy.data;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Vector;
+
+import org.pathierarchy.db.MetNetDB;
+import org.pathierarchy.db.PooledConnection;
+import org.pathierarchy.metrics.Metrics;
+
+import edu.iastate.metnet.Organism;
+import edu.iastate.metnet.PathwayClass;
+
+
+/**
+ * loads the whole pathwayClass->pathways hierarchy of an organism with a
+ * handful of set based queries, so that {@link PClassTree} can be built
+ * in memory instead of querying MetNetDB once per pathway class.
+ * Ordering of classes and pathways is the same as the MetNet API's.
+ * @author Divya Mistry
+ *
+ */
+public class PClassLoader {
+	//same main pathway classifications as PathwayClass.search()
+	private static final String ROOTS_SQL =
+		"select class_id, name from class_name inner join class_relation r on (class_id = child_id) " +
+		"where name <> 'TO BE ASSIGNED' and parent_id in (select class_id from class_name n " +
+		"left join class_relation r on n.class_id = r.child_id where r.child_id is null)";
+	//every class->subclass edge, subclasses ordered by name as in PathwayClass.getChildren()
+	private static final String EDGES_SQL =
+		"select distinct cr.parent_id, cn.class_id, cn.name from class_relation cr " +
+		"inner join class_name cn on (cr.child_id = cn.class_id) order by cr.parent_id, cn.name";
+	//every class->pathway membership of an organism, ordered by name as in PathwayClass.getPathways(Organism)
+	private static final String PATHWAYS_SQL =
+		"select cp.class_id, bu.blockid from class_pathway cp inner join blockunit bu on (cp.pathway_id = bu.blockid) " +
+		"where bu.organism = ? order by cp.class_id, bu.name";
+	
+	private Vector<PathwayClass> roots; //main pathway classifications
+	private HashMap<Integer, Vector<PathwayClass>> children; //class id -> subclasses
+	private HashMap<Integer, Vector<Integer>> pathways; //class id -> pathway ids in the organism
+	
+	/**
+	 * constructor to create an empty loader
+	 */
+	public PClassLoader(){
+		this.roots = new Vector<PathwayClass>();
+		this.children = new HashMap<Integer, Vector<PathwayClass>>();
+		this.pathways = new HashMap<Integer, Vector<Integer>>();
+	}
+	
+	/**
+	 * fetch all the class edges and pathway memberships of given organism from MetNetDB
+	 * @param orgm organism whose hierarchy is to be loaded
+	 * @throws SQLException if MetNetDB could not be queried
+	 */
+	public void load(Organism orgm) throws SQLException {
+		long t = Metrics.start();
+		PooledConnection pc = MetNetDB.getPool().borrow();
+		try {
+			Statement st = pc.getConnection().createStatement();
+			try {
+				ResultSet rs = st.executeQuery(ROOTS_SQL);
+				while (rs.next()){
+					addRoot(rs.getInt(1), rs.getString(2));
+				}
+				rs.close();
+				rs = st.executeQuery(EDGES_SQL);
+				while (rs.next()){
+					addChild(rs.getInt(1), rs.getInt(2), rs.getString(3));
+				}
+				rs.close();
+			} finally {
+				st.close();
+			}
+			//prepared once per pooled connection and reused for every organism
+			PreparedStatement ps = pc.prepare(PATHWAYS_SQL);
+			ps.setString(1, orgm.name);
+			ResultSet rs = ps.executeQuery();
+			while (rs.next()){
+				addPathway(rs.getInt(1), rs.getInt(2));
+			}
+			rs.close();
+		} catch (SQLException e) {
+			pc.invalidate();
+			throw e;
+		} finally {
+			pc.close();
+			Metrics.stop("db.loadHierarchy", t);
+		}
+	}
+	
+	/**
+	 * add a main pathway classification
+	 * @param classId id of the pathway class
+	 * @param name name of the pathway class
+	 */
+	public void addRoot(int classId, String name){
+		this.roots.add(new PathwayClass(classId, name));
+	}
+	
+	/**
+	 * add a subclass to a pathway class. Subclasses are kept in the order they are added.
+	 * @param parentId id of the parent pathway class
+	 * @param classId id of the subclass
+	 * @param name name of the subclass
+	 */
+	public void addChild(int parentId, int classId, String name){
+		Vector<PathwayClass> v = this.children.get(parentId);
+		if (v == null){
+			v = new Vector<PathwayClass>();
+			this.children.put(parentId, v);
+		}
+		v.add(new PathwayClass(classId, name));
+	}
+	
+	/**
+	 * add a pathway to a pathway class. Pathways are kept in the order they are added.
+	 * @param classId id of the pathway class
+	 * @param pathwayId id of the pathway
+	 */
+	public void addPathway(int classId, int pathwayId){
+		Vector<Integer> v = this.pathways.get(classId);
+		if (v == null){
+			v = new Vector<Integer>();
+			this.pathways.put(classId, v);
+		}
+		v.add(pathwayId);
+	}
+	
+	/**
+	 * @return main pathway classifications
+	 */
+	public PathwayClass[] getRoots(){
+		return this.roots.toArray(new PathwayClass[this.roots.size()]);
+	}
+	
+	/**
+	 * @param classId id of the pathway class
+	 * @return subclasses of the pathway class, empty if it has none
+	 */
+	public PathwayClass[] getChildren(int classId){
+		Vector<PathwayClass> v = this.children.get(classId);
+		return v == null ? new PathwayClass[0] : v.toArray(new PathwayClass[v.size()]);
+	}
+	
+	/**
+	 * @return ids of all the organism's pathways that belong to any pathway class, without duplicates
+	 */
+	public List<Integer> getAllPathwayIds(){
+		LinkedHashSet<Integer> ids = new LinkedHashSet<Integer>();
+		for (Vector<Integer> v:this.pathways.values()){
+			ids.addAll(v);
+		}
+		return new ArrayList<Integer>(ids);
+	}
+	
+	/**
+	 * @param classId id of the pathway class
+	 * @return ids of the organism's pathways in the pathway class, null if it has none
+	 */
+	public Vector<Integer> getPathwayIds(int classId){
+		return this.pathways.get(classId);
+	}
+}
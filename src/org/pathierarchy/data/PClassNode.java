@@ -9,6 +9,7 @@ import java.util.Vector;
  *
  */
 public class PClassNode {
+	private int pclassId; //pathway class id from db, -1 for the root of a tree
 	private String pclassName; //pathway class name from db
 	private Vector<PClassNode> childClasses; //hold all the subclasses of this class
 	private Vector<Integer> childPathwayIds; //hold ids of pathways under this class
@@ -20,12 +21,21 @@ public class PClassNode {
 	 * @param name name of the pathway class
 	 */
 	public PClassNode(Integer id, String name){
+		pclassId = id;
 		pclassName = name;
 		childClasses = null;
 		childPathwayIds = null;
 		hasPaths = false;
 	}
 	
+	/**
+	 * Accessor method to get the id of the class represented by this node
+	 * @return id of the class, -1 for the root of a tree
+	 */
+	public int getClassId(){
+		return this.pclassId;
+	}
+	
 	/**
 	 * Accessor method to get the class name represented by this node 
 	 * @return name of the class
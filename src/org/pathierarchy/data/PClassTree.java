@@ -1,43 +1,229 @@
 package org.pathierarchy.data;
 
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Vector;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import edu.iastate.metnet.Organism;
-import edu.iastate.metnet.Pathway;
 import edu.iastate.metnet.PathwayClass;
 
+import org.pathierarchy.metrics.Metrics;
+
 
 /**
  * a tree to maintain the pathwayClass->pathways hierarchy
- * based on selected organism
+ * based on selected organism.
+ * A pathway class that belongs to several parent classes is fetched once per build
+ * and its node is shared by all of its parents, so strictly the hierarchy is a DAG.
+ * Walking it from the root still visits the shared subtree under each parent.
  * @author Divya Mistry
  *
  */
 public class PClassTree {
 	private PClassNode root; //root of the tree
 	private Organism orgm; //organism for which the hierarchy is to be built
+	private PathwaySource source; //where the classes and pathways come from
+	private PClassLoader loader = null; //preloaded hierarchy, null to query the source per class
+	private HashMap<Integer, PClassNode> built; //class id -> node of the classes added in the current build
+	private HashMap<Integer, Boolean> subtreeFlags; //class id -> pathway flag the class gave its parent
+	private HashSet<Integer> inProgress; //ids of the classes whose subtrees are being built
+	private Cancellation cancellation = null; //checked before each class is queried, null if the build can not be cancelled
 	
 	/**
 	 * constructor to initialize a tree with given organism
 	 * @param org name of the organism in MetNetDB. e.g. "Vitis"
 	 */
 	public PClassTree(String org){
-		this.orgm = Organism.identify(org);
+		this(org, new MetNetSource());
+	}
+	
+	/**
+	 * constructor to initialize a tree with given organism of a pathway source
+	 * @param org name of the organism. e.g. "Vitis"
+	 * @param src source of the organism's classes and pathways
+	 */
+	public PClassTree(String org, PathwaySource src){
+		this(src.findOrganism(org), src);
+	}
+	
+	/**
+	 * constructor to initialize a tree with an already identified organism
+	 * @param orgm organism in MetNetDB
+	 */
+	public PClassTree(Organism orgm){
+		this(orgm, new MetNetSource());
+	}
+	
+	/**
+	 * constructor to initialize a tree with an already identified organism of a pathway source
+	 * @param orgm organism in the source
+	 * @param src source of the organism's classes and pathways
+	 */
+	public PClassTree(Organism orgm, PathwaySource src){
+		this.orgm = orgm;
+		this.source = src;
 		//make the root node with a default node from which all the major 
 		//   pathway classes will branch
 		this.root = new PClassNode(-1,null);
 	}
 	
+	/**
+	 * Let the build be stopped between two pathway classes
+	 * @param c checked before each class is queried, null to build without checks
+	 */
+	public void setCancellation(Cancellation c){
+		this.cancellation = c;
+	}
+	
+	/**
+	 * @return organism for which the hierarchy is built, null if the source does not know it
+	 */
+	public Organism getOrganism(){
+		return this.orgm;
+	}
+	
 	/**
 	 * build the initialized tree for given organism
 	 * @return root of the tree that was built to represent the pathwayclass->pathway hierarchy
+	 * @throws CancellationException if the build was cancelled
 	 */
 	public PClassNode buildTree(){
 		//Do there exist pathways that have not been classified in any of the pathway classes yet?
 		//  if so, they need to be added to the root of the tree right here. 
 		
 		//build tree with all the main pathway classifications
-		buildTree(PathwayClass.search(),this.root);
+		startBuild();
+		buildTree(mainClasses(),this.root);
+		return this.root;
+	}
+	
+	/**
+	 * compact form of the tree built so far, see {@link CompactPClassTree}
+	 * @param names table the class names are added to, may be shared with other trees
+	 * @return compact tree with the same classes, pathways and flags
+	 */
+	public CompactPClassTree compact(CompactNameTable names){
+		return CompactPClassTree.from(this.root, names);
+	}
+	
+	/**
+	 * build the initialized tree for given organism, fetching the pathway classes
+	 * from the source concurrently. The classes are fetched in any order, then the
+	 * tree is put together from them the way {@link #buildTree()} does it, so its
+	 * child order, hasPaths flags, shared classes and skipped cycles are the same.
+	 * @param parallelism maximum number of pathway classes fetched at the same time.
+	 *        values less than 2 fall back to the sequential build.
+	 * @return root of the tree that was built to represent the pathwayclass->pathway hierarchy
+	 * @throws CancellationException if the build was cancelled
+	 */
+	public PClassNode buildTree(int parallelism){
+		if (parallelism < 2){
+			return buildTree();
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+		PClassLoader pcl;
+		try {
+			SubtreeBuild build = new SubtreeBuild(pool);
+			//fork the main pathway classifications and wait for all of their subclasses
+			PathwayClass[] mains = mainClasses();
+			build.fork(mains);
+			build.join();
+			pcl = build.toLoader(mains);
+		} finally {
+			pool.shutdownNow();
+		}
+		//every class is fetched now, so the tree is put together in memory
+		return buildTree(pcl);
+	}
+	
+	/**
+	 * forget the classes of an earlier build, so every class is fetched once per build
+	 */
+	private void startBuild(){
+		this.built = new HashMap<Integer, PClassNode>();
+		this.subtreeFlags = new HashMap<Integer, Boolean>();
+		this.inProgress = new HashSet<Integer>();
+	}
+	
+	/**
+	 * build the initialized tree for given organism from a bulk load of its whole
+	 * hierarchy, i.e. with a few queries instead of two queries per pathway class.
+	 * Falls back to {@link #buildTree()} if the bulk load fails or the tree's source
+	 * is not a live MetNetDB.
+	 * @return root of the tree that was built to represent the pathwayclass->pathway hierarchy
+	 * @throws CancellationException if the build was cancelled
+	 */
+	public PClassNode buildTreeBulk(){
+		if (!this.source.isLive()){
+			return buildTree();
+		}
+		PClassLoader pcl = new PClassLoader();
+		try {
+			pcl.load(this.orgm);
+		} catch (SQLException e) {
+			System.err.println("Bulk load of pathway classes failed, querying them one by one instead: " + e.getMessage());
+			return buildTree();
+		}
+		if (this.cancellation != null){
+			this.cancellation.checkCancelled();
+		}
+		return buildTree(pcl);
+	}
+	
+	/**
+	 * build the initialized tree in memory from an already loaded hierarchy
+	 * @param pcl loader holding the classes and pathways of this tree's organism
+	 * @return root of the tree that was built to represent the pathwayclass->pathway hierarchy
+	 */
+	public PClassNode buildTree(PClassLoader pcl){
+		this.loader = pcl;
+		startBuild();
+		try {
+			buildTree(pcl.getRoots(),this.root);
+		} finally {
+			this.loader = null;
+		}
 		return this.root;
 	}
+	
+	/**
+	 * find the ids of the organism's pathways that belong to a pathway class
+	 * @param pc pathway class to be looked at
+	 * @return Vector of pathway ids, null or empty if the class has no pathways
+	 */
+	private Vector<Integer> pathwaysOf(PathwayClass pc){
+		if (this.loader != null){
+			return this.loader.getPathwayIds(pc.id);
+		}
+		return this.source.getPathwayIds(pc, this.orgm);
+	}
+	
+	/**
+	 * @return main pathway classifications, the children of the tree's root
+	 */
+	private PathwayClass[] mainClasses(){
+		return this.source.getMainClasses();
+	}
+	
+	/**
+	 * find the subclasses of a pathway class
+	 * @param pc pathway class to be looked at
+	 * @return subclasses of the pathway class, null or empty if it has none
+	 */
+	private PathwayClass[] childrenOf(PathwayClass pc){
+		if (this.loader != null){
+			return this.loader.getChildren(pc.id);
+		}
+		return this.source.getChildren(pc);
+	}
+	
 	/**
 	 * build the subtree of node (i.e. pathway class) represented by given node <i>root</i>
 	 * @param allRoots subclasses of the pathway class being looked at
@@ -52,27 +238,51 @@ public class PClassTree {
 		
 		//iterate through all the subclasses to find pathways in their subtrees
 		for (int i=0; i<allRoots.length; i++){
+			if (this.cancellation != null){
+				this.cancellation.checkCancelled();
+			}
 			//flag to indicate if there are pathways that belong to current subclass
 			boolean subtreeFlag = false;
+			int classId = allRoots[i].id;
+			if (this.inProgress.contains(classId)){
+				//the class is its own ancestor, adding it again would never end
+				System.err.println("Pathway class " + allRoots[i].name + " is a subclass of itself, skipping it");
+				continue;
+			}
+			PClassNode shared = this.built.get(classId);
+			if (shared != null){
+				//class was already reached through another parent, share its subtree
+				currNode = shared;
+				root.addChildPathwayClass(currNode);
+				Metrics.add("hierarchy.sharedClasses", 1);
+				if (this.subtreeFlags.get(classId)){ treeFlag = true; }
+				continue;
+			}
 			//add the subclass to the tree as a child of given root node
-			currNode = new PClassNode(allRoots[i].id,allRoots[i].name);
+			currNode = new PClassNode(classId,allRoots[i].name);
 			root.addChildPathwayClass(currNode);
+			this.built.put(classId, currNode);
 			//look for all the pathways that belong to current subclass 
-			Pathway[] pwys = allRoots[i].getPathways(this.orgm).toArray();
+			Vector<Integer> pwyIds = pathwaysOf(allRoots[i]);
 			//if current node (i.e. pathway class) has pathways, indicate that in the node
-			if (pwys.length > 0){
-				for (Pathway p:pwys){
-					currNode.addPathway(p.id);
+			if (pwyIds != null && pwyIds.size() > 0){
+				for (Integer id:pwyIds){
+					currNode.addPathway(id);
 				}
 				//mark the node for having pathways
 				currNode.setHasPaths(true);
 				subtreeFlag = true;
 			}
 			//get all the subclasses of current class
-			PathwayClass[] children = allRoots[i].getChildren();
+			PathwayClass[] children = childrenOf(allRoots[i]);
 			if (children != null && children.length>0){
 				//build hierarchy for each of the subclasses
-				subtreeFlag = buildTree(children, currNode);
+				this.inProgress.add(classId);
+				try {
+					subtreeFlag = buildTree(children, currNode);
+				} finally {
+					this.inProgress.remove(classId);
+				}
 				//if current subclass doesn't have pathways, 
 				//  set the pathway status based on subclasses of 
 				//  current subclass. So, if any of the subclasses in
@@ -82,10 +292,127 @@ public class PClassTree {
 					currNode.setHasPaths(subtreeFlag);
 				}
 			}
+			this.subtreeFlags.put(classId, subtreeFlag);
 			//if any of the subclasses of current class have pathways
 			//  indicate the existence of pathways in subtree for current class
 			if (subtreeFlag){ treeFlag = true; }
 		}
 		return currNode==null ? false : treeFlag;
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * book keeping for a parallel build. Every pathway class is fetched by its own task,
+	 * which forks a task for each of its subclasses. Only the first task to reach a
+	 * class fetches it, so every class is fetched once and a class that is its own
+	 * ancestor does not make the fetch go round in circles.
+	 * Tasks never wait on each other, so a bounded pool cannot deadlock.
+	 */
+	private class SubtreeBuild {
+		private final ExecutorService pool;
+		private final AtomicInteger pending = new AtomicInteger(0); //tasks forked but not finished yet
+		private final CountDownLatch finished = new CountDownLatch(1);
+		private volatile RuntimeException failure = null; //first error raised by any of the tasks
+		private final ConcurrentHashMap<Integer, Boolean> claimed = new ConcurrentHashMap<Integer, Boolean>(); //ids of the classes reached so far
+		private final ConcurrentHashMap<Integer, PathwayClass[]> children = new ConcurrentHashMap<Integer, PathwayClass[]>(); //class id -> subclasses
+		private final ConcurrentHashMap<Integer, Vector<Integer>> pathways = new ConcurrentHashMap<Integer, Vector<Integer>>(); //class id -> pathway ids
+		
+		SubtreeBuild(ExecutorService pool){
+			this.pool = pool;
+		}
+		
+		/**
+		 * fork a task to fetch each of given classes that no other task reached yet
+		 * @param classes pathway classes to be fetched
+		 */
+		void fork(PathwayClass[] classes){
+			for (final PathwayClass pc:classes){
+				if (this.claimed.putIfAbsent(pc.id, Boolean.TRUE) != null){
+					//reached through another parent already
+					continue;
+				}
+				this.pending.incrementAndGet();
+				this.pool.execute(new Runnable(){
+					@Override
+					public void run() {
+						try {
+							fetch(pc);
+						} catch (RuntimeException e) {
+							if (SubtreeBuild.this.failure == null){
+								SubtreeBuild.this.failure = e;
+							}
+						} finally {
+							if (SubtreeBuild.this.pending.decrementAndGet() == 0){
+								SubtreeBuild.this.finished.countDown();
+							}
+						}
+					}
+				});
+			}
+		}
+		
+		/**
+		 * fetch the pathways and subclasses of a single pathway class
+		 * @param pc pathway class to be fetched from the source
+		 */
+		private void fetch(PathwayClass pc){
+			if (PClassTree.this.cancellation != null){
+				PClassTree.this.cancellation.checkCancelled();
+			}
+			Vector<Integer> pwyIds = pathwaysOf(pc);
+			if (pwyIds != null && pwyIds.size() > 0){
+				this.pathways.put(pc.id, pwyIds);
+			}
+			PathwayClass[] subs = childrenOf(pc);
+			if (subs != null && subs.length>0){
+				this.children.put(pc.id, subs);
+				if (this.failure == null){
+					fork(subs);
+				}
+			}
+		}
+		
+		/**
+		 * wait until every forked task has finished
+		 * @throws CancellationException if the build was cancelled
+		 * @throws IllegalStateException if any of the tasks failed or the wait was interrupted
+		 */
+		void join(){
+			try {
+				if (this.pending.get() > 0){
+					this.finished.await();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while building the pathway class hierarchy", e);
+			}
+			if (this.failure instanceof CancellationException){
+				throw (CancellationException) this.failure;
+			}
+			if (this.failure != null){
+				throw new IllegalStateException("Unable to build the pathway class hierarchy", this.failure);
+			}
+		}
+		
+		/**
+		 * @param mains main pathway classifications the fetch started from
+		 * @return loader holding every fetched class, its subclasses and pathways in the order the source gave them
+		 */
+		PClassLoader toLoader(PathwayClass[] mains){
+			PClassLoader pcl = new PClassLoader();
+			for (PathwayClass pc:mains){
+				pcl.addRoot(pc.id, pc.name);
+			}
+			for (Integer id:this.children.keySet()){
+				for (PathwayClass pc:this.children.get(id)){
+					pcl.addChild(id, pc.id, pc.name);
+				}
+			}
+			for (Integer id:this.pathways.keySet()){
+				for (Integer pwy:this.pathways.get(id)){
+					pcl.addPathway(id, pwy);
+				}
+			}
+			return pcl;
+		}
+	}
+}
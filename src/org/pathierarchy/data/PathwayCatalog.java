@@ -0,0 +1,139 @@
+package org.pathierarchy.data;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+
+/**
+ * names and entities of all the pathways in a hierarchy tree, kept in memory
+ * so that the tree can be printed without querying MetNetDB
+ * @author Divya Mistry
+ *
+ */
+public class PathwayCatalog {
+	private LinkedHashMap<Integer, PathwayEntry> entries; //pathway id -> pathway entry
+	private LinkedHashSet<String> types; //entity types held for every pathway
+	
+	/**
+	 * constructor to create an empty catalog
+	 * @param types entity types held for every pathway in the catalog
+	 */
+	public PathwayCatalog(String[] types){
+		this.entries = new LinkedHashMap<Integer, PathwayEntry>();
+		this.types = new LinkedHashSet<String>();
+		for (String t:types){
+			this.types.add(t);
+		}
+	}
+	
+	/**
+	 * fetch the entries of every pathway in the subtree of given node from MetNetDB
+	 * @param root node of the hierarchy tree whose pathways are to be fetched
+	 * @param types entity types to be fetched for each pathway
+	 * @return catalog holding every pathway of the subtree
+	 */
+	public static PathwayCatalog fetch(PClassNode root, String[] types){
+		return fetch(root, types, new MetNetSource());
+	}
+	
+	/**
+	 * fetch the entries of every pathway in the subtree of given node from a pathway source
+	 * @param root node of the hierarchy tree whose pathways are to be fetched
+	 * @param types entity types to be fetched for each pathway
+	 * @param src source of the pathways
+	 * @return catalog holding every pathway of the subtree that the source knows
+	 */
+	public static PathwayCatalog fetch(PClassNode root, String[] types, PathwaySource src){
+		return fetch(root, types, src, null);
+	}
+	
+	/**
+	 * fetch the entries of every pathway in the subtree of given node from a pathway source,
+	 * checking for cancellation before each pathway is fetched
+	 * @param root node of the hierarchy tree whose pathways are to be fetched
+	 * @param types entity types to be fetched for each pathway
+	 * @param src source of the pathways
+	 * @param c checked before each pathway is fetched, null to fetch without checks
+	 * @return catalog holding every pathway of the subtree that the source knows
+	 * @throws java.util.concurrent.CancellationException if the fetch was cancelled
+	 */
+	public static PathwayCatalog fetch(PClassNode root, String[] types, PathwaySource src, Cancellation c){
+		PathwayCatalog cat = new PathwayCatalog(types);
+		cat.fetchSubtree(root, types, src, c);
+		return cat;
+	}
+	
+	private void fetchSubtree(PClassNode node, String[] types, PathwaySource src, Cancellation c){
+		if (node.getChildPathwayIds() != null){
+			for (Integer pId:node.getChildPathwayIds()){
+				if (!this.entries.containsKey(pId)){
+					if (c != null){
+						c.checkCancelled();
+					}
+					PathwayEntry entry = src.getPathway(pId, types);
+					if (entry != null){
+						add(entry);
+					}
+				}
+			}
+		}
+		if (node.getChildClasses() != null){
+			for (PClassNode child:node.getChildClasses()){
+				fetchSubtree(child, types, src, c);
+			}
+		}
+	}
+	
+	/**
+	 * add a pathway entry to the catalog, replacing any entry with the same pathway id
+	 * @param entry entry to be added
+	 */
+	public void add(PathwayEntry entry){
+		this.entries.put(entry.getPathwayId(), entry);
+	}
+	
+	/**
+	 * @param pathwayId id of the pathway
+	 * @return entry of the pathway, null if it is not in the catalog
+	 */
+	public PathwayEntry get(int pathwayId){
+		return this.entries.get(pathwayId);
+	}
+	
+	/**
+	 * @return every entry of the catalog, in the order they were added
+	 */
+	public Collection<PathwayEntry> getEntries(){
+		return this.entries.values();
+	}
+	
+	/**
+	 * @return entity types held for every pathway in the catalog
+	 */
+	public Set<String> getTypes(){
+		return this.types;
+	}
+	
+	/**
+	 * check if the catalog holds the entities of all the given types
+	 * @param required entity types that are needed
+	 * @return true if every required type is held, false otherwise
+	 */
+	public boolean hasTypes(String[] required){
+		for (String t:required){
+			if (!this.types.contains(t)){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @return number of pathways in the catalog
+	 */
+	public int size(){
+		return this.entries.size();
+	}
+}
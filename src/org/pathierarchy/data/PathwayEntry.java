@@ -0,0 +1,123 @@
+package org.pathierarchy.data;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.Vector;
+
+import org.pathierarchy.metrics.Metrics;
+
+import edu.iastate.metnet.Entity;
+import edu.iastate.metnet.Pathway;
+
+
+/**
+ * name and entities of a single pathway, grouped by entity type,
+ * so that a pathway can be printed without going back to MetNetDB
+ * @author Divya Mistry
+ *
+ */
+public class PathwayEntry {
+	private int pathwayId; //id of the pathway in MetNetDB
+	private String name; //name of the pathway
+	private LinkedHashMap<String, Vector<Entity>> entities; //entity type -> entities of that type, ordered by name
+	
+	/**
+	 * constructor to create an entry without entities
+	 * @param id id of the pathway
+	 * @param name name of the pathway
+	 */
+	public PathwayEntry(int id, String name){
+		this.pathwayId = id;
+		this.name = name;
+		this.entities = new LinkedHashMap<String, Vector<Entity>>();
+	}
+	
+	/**
+	 * fetch name and entities of a pathway from MetNetDB on a pooled connection.
+	 * Entities of several types are fetched with a single query and split by type
+	 * in memory, so the number of queries per pathway does not grow with the number
+	 * of types. Falls back to the MetNet API, one query per type, if that fails.
+	 * @param id id of the pathway
+	 * @param types entity types to be fetched (e.g. EntityType.GENE)
+	 * @return entry holding the pathway name and its entities of the given types
+	 */
+	public static PathwayEntry fetch(int id, String[] types){
+		try {
+			long t = Metrics.start();
+			PathwayEntry entry = PathwayPrefetcher.prefetch(Collections.singletonList(id), types).get(id);
+			Metrics.stop("db.getEntities", t);
+			if (entry != null){
+				return entry;
+			}
+		} catch (SQLException e) {
+			System.err.println("Unable to fetch pathway " + id + " on a pooled connection, querying it per type instead: " + e.getMessage());
+		}
+		long t = Metrics.start();
+		Pathway path = new Pathway(id);
+		Metrics.stop("db.getPathway", t);
+		PathwayEntry entry = new PathwayEntry(id, path.name);
+		for (String type:types){
+			entry.addType(type);
+			t = Metrics.start();
+			Entity[] ents = path.getEntities(type).toArray();
+			Metrics.stop("db.getEntities", t);
+			for (Entity e:ents){
+				entry.addEntity(type, e);
+			}
+		}
+		return entry;
+	}
+	
+	/**
+	 * @return id of the pathway
+	 */
+	public int getPathwayId(){
+		return this.pathwayId;
+	}
+	
+	/**
+	 * @return name of the pathway
+	 */
+	public String getName(){
+		return this.name;
+	}
+	
+	/**
+	 * indicate that entities of given type were fetched for this pathway, even if there are none
+	 * @param type entity type
+	 */
+	public void addType(String type){
+		if (!this.entities.containsKey(type)){
+			this.entities.put(type, new Vector<Entity>());
+		}
+	}
+	
+	/**
+	 * add an entity to the pathway
+	 * @param type entity type the entity was fetched as. MetNetDB matches types
+	 *        case-insensitively, so this may differ from the entity's own type field
+	 * @param e entity to be added
+	 */
+	public void addEntity(String type, Entity e){
+		addType(type);
+		this.entities.get(type).add(e);
+	}
+	
+	/**
+	 * @param type entity type (e.g. EntityType.RNA)
+	 * @return entities of the given type, empty if there are none or the type was not fetched
+	 */
+	public Vector<Entity> getEntities(String type){
+		Vector<Entity> v = this.entities.get(type);
+		return v == null ? new Vector<Entity>() : v;
+	}
+	
+	/**
+	 * @return entity types fetched for this pathway
+	 */
+	public Set<String> getTypes(){
+		return this.entities.keySet();
+	}
+}
@@ -0,0 +1,208 @@
+package org.pathierarchy.data;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+
+
+/**
+ * case-insensitive index over a fixed list of pathway names, for type-ahead
+ * filtering of large pathway lists. Names are found by prefix through a sorted
+ * permutation of the names, and by substring through postings of the name
+ * trigrams, so a query only looks at the names that can contain it.
+ * Results are positions in the original list.
+ * @author Divya Mistry
+ *
+ */
+public class PathwayNameIndex {
+	private String[] lower; //lower case names, in list order
+	private int[] sorted; //positions of the names, ordered by lower case name
+	private HashMap<Long, Integer> trigrams; //three characters -> trigram number
+	private int[] postingOffsets; //postings of trigram t are postings[postingOffsets[t]..postingOffsets[t+1])
+	private int[] postings; //positions of the names containing each trigram, ascending
+	
+	/**
+	 * constructor to index given names
+	 * @param names names in list order
+	 */
+	public PathwayNameIndex(String[] names){
+		this.lower = new String[names.length];
+		for (int i=0; i<names.length; i++){
+			this.lower[i] = names[i] == null ? "" : names[i].toLowerCase(Locale.ENGLISH);
+		}
+		
+		//sorted permutation for prefix lookups
+		Integer[] order = new Integer[names.length];
+		for (int i=0; i<order.length; i++){
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>(){
+			@Override
+			public int compare(Integer a, Integer b) {
+				return PathwayNameIndex.this.lower[a].compareTo(PathwayNameIndex.this.lower[b]);
+			}
+		});
+		this.sorted = new int[order.length];
+		for (int i=0; i<order.length; i++){
+			this.sorted[i] = order[i];
+		}
+		
+		//trigram postings for substring lookups: number the trigrams of every name,
+		//  then lay the (trigram, name) pairs out by trigram as in CompactPClassTree
+		this.trigrams = new HashMap<Long, Integer>();
+		int[] pairTrigram = new int[Math.max(16, names.length * 8)];
+		int[] pairName = new int[pairTrigram.length];
+		int pairs = 0;
+		for (int i=0; i<this.lower.length; i++){
+			for (long key:distinctTrigrams(this.lower[i])){
+				Integer t = this.trigrams.get(key);
+				if (t == null){
+					t = this.trigrams.size();
+					this.trigrams.put(key, t);
+				}
+				if (pairs == pairTrigram.length){
+					pairTrigram = Arrays.copyOf(pairTrigram, pairs * 2);
+					pairName = Arrays.copyOf(pairName, pairs * 2);
+				}
+				pairTrigram[pairs] = t;
+				pairName[pairs] = i;
+				pairs++;
+			}
+		}
+		this.postingOffsets = new int[this.trigrams.size() + 1];
+		for (int p=0; p<pairs; p++){
+			this.postingOffsets[pairTrigram[p] + 1]++;
+		}
+		for (int t=0; t<this.trigrams.size(); t++){
+			this.postingOffsets[t + 1] += this.postingOffsets[t];
+		}
+		//names were visited in order, so every postings list comes out ascending
+		int[] fill = Arrays.copyOf(this.postingOffsets, this.trigrams.size());
+		this.postings = new int[pairs];
+		for (int p=0; p<pairs; p++){
+			this.postings[fill[pairTrigram[p]]++] = pairName[p];
+		}
+	}
+	
+	/**
+	 * @return number of indexed names
+	 */
+	public int size(){
+		return this.lower.length;
+	}
+	
+	/**
+	 * find the names containing a query, ignoring case
+	 * @param query text to look for, everything matches an empty query
+	 * @return positions of the names starting with the query, in name order, followed by
+	 *         positions of the names containing it elsewhere, in list order
+	 */
+	public int[] search(String query){
+		String q = query.toLowerCase(Locale.ENGLISH);
+		if (q.length() == 0){
+			int[] all = new int[this.lower.length];
+			for (int i=0; i<all.length; i++){
+				all[i] = i;
+			}
+			return all;
+		}
+		
+		//names starting with the query are a contiguous range of the sorted names
+		int from = lowerBound(q);
+		int to = from;
+		while (to < this.sorted.length && this.lower[this.sorted[to]].startsWith(q)){
+			to++;
+		}
+		BitSet prefixed = new BitSet(this.lower.length);
+		for (int i=from; i<to; i++){
+			prefixed.set(this.sorted[i]);
+		}
+		
+		//names containing the query elsewhere
+		int[] candidates = candidates(q);
+		int[] found = new int[(to - from) + candidates.length];
+		int n = 0;
+		for (int i=from; i<to; i++){
+			found[n++] = this.sorted[i];
+		}
+		for (int c:candidates){
+			if (!prefixed.get(c) && this.lower[c].indexOf(q) > 0){
+				found[n++] = c;
+			}
+		}
+		return n == found.length ? found : Arrays.copyOf(found, n);
+	}
+	
+	/**
+	 * @param q lower case query
+	 * @return positions of the names that may contain the query, ascending
+	 */
+	private int[] candidates(String q){
+		if (q.length() < 3){
+			//too short for a trigram, every name is a candidate
+			return search("");
+		}
+		//the rarest trigram of the query gives the fewest names to check
+		int best = -1;
+		for (long key:distinctTrigrams(q)){
+			Integer t = this.trigrams.get(key);
+			if (t == null){
+				return new int[0];
+			}
+			if (best < 0 || postingCount(t) < postingCount(best)){
+				best = t;
+			}
+		}
+		return Arrays.copyOfRange(this.postings, this.postingOffsets[best], this.postingOffsets[best + 1]);
+	}
+	
+	/**
+	 * @param t trigram number
+	 * @return number of names containing the trigram
+	 */
+	private int postingCount(int t){
+		return this.postingOffsets[t + 1] - this.postingOffsets[t];
+	}
+	
+	/**
+	 * @param q lower case query
+	 * @return first position in the sorted names whose name is not less than the query
+	 */
+	private int lowerBound(String q){
+		int lo = 0;
+		int hi = this.sorted.length;
+		while (lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if (this.lower[this.sorted[mid]].compareTo(q) < 0){
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+	
+	/**
+	 * @param s lower case text
+	 * @return every distinct run of three characters in the text, packed into a long
+	 */
+	private static long[] distinctTrigrams(String s){
+		if (s.length() < 3){
+			return new long[0];
+		}
+		long[] keys = new long[s.length() - 2];
+		for (int i=0; i<keys.length; i++){
+			keys[i] = ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+		}
+		Arrays.sort(keys);
+		int n = 0;
+		for (int i=0; i<keys.length; i++){
+			if (n == 0 || keys[n - 1] != keys[i]){
+				keys[n++] = keys[i];
+			}
+		}
+		return n == keys.length ? keys : Arrays.copyOf(keys, n);
+	}
+}
@@ -0,0 +1,177 @@
+package org.pathierarchy.data;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.pathierarchy.db.MetNetDB;
+import org.pathierarchy.db.PooledConnection;
+import org.pathierarchy.metrics.Metrics;
+
+import edu.iastate.metnet.Entity;
+
+
+/**
+ * fills a {@link PathwayCatalog} for every pathway of a hierarchy tree with a few
+ * batched queries, instead of one name query and one entity query per pathway
+ * and entity type. Entities of each pathway keep the MetNet API's order (by name).
+ * @author Divya Mistry
+ *
+ */
+public class PathwayPrefetcher {
+	public static final int BATCH_SIZE = 500; //pathway ids per query
+	
+	private static final String NAMES_SQL = "select blockid, name from blockunit where blockid in ";
+	//same joins as Pathway.getEntities(String), for many pathways and types at once
+	private static final String ENTITIES_SQL =
+		"select distinct pw.BlockID, e.EntityID, e.Name, e.type from pathwayparts pw " +
+		"inner join blockunit bu1 on (bu1.blockid = pw.part) " +
+		"inner join interactionparts ip on (bu1.BlockID = ip.BlockID) " +
+		"inner join blockunit bu2 on (ip.part = bu2.blockid) " +
+		"inner join entitywithcontext ec on (bu2.BlockID = ec.BlockID) " +
+		"inner join entity e on (e.entityID = ec.entityID) " +
+		"where pw.BlockID in ";
+	
+	/**
+	 * fetch the names and entities of every pathway in the subtree of given node
+	 * @param root node of the hierarchy tree whose pathways are to be fetched
+	 * @param types entity types to be fetched for each pathway
+	 * @return catalog holding every pathway of the subtree
+	 * @throws SQLException if MetNetDB could not be queried
+	 */
+	public static PathwayCatalog prefetch(PClassNode root, String[] types) throws SQLException {
+		return prefetch(root, types, null);
+	}
+	
+	/**
+	 * fetch the names and entities of every pathway in the subtree of given node,
+	 * checking for cancellation before each batch
+	 * @param root node of the hierarchy tree whose pathways are to be fetched
+	 * @param types entity types to be fetched for each pathway
+	 * @param c checked before each batch is queried, null to fetch without checks
+	 * @return catalog holding every pathway of the subtree
+	 * @throws SQLException if MetNetDB could not be queried
+	 * @throws java.util.concurrent.CancellationException if the fetch was cancelled
+	 */
+	public static PathwayCatalog prefetch(PClassNode root, String[] types, Cancellation c) throws SQLException {
+		LinkedHashSet<Integer> ids = new LinkedHashSet<Integer>();
+		collectIds(root, ids);
+		return prefetch(new ArrayList<Integer>(ids), types, c);
+	}
+	
+	/**
+	 * fetch the names and entities of the given pathways
+	 * @param ids ids of the pathways to be fetched
+	 * @param types entity types to be fetched for each pathway
+	 * @return catalog holding every pathway
+	 * @throws SQLException if MetNetDB could not be queried
+	 */
+	public static PathwayCatalog prefetch(List<Integer> ids, String[] types) throws SQLException {
+		return prefetch(ids, types, null);
+	}
+	
+	/**
+	 * fetch the names and entities of the given pathways, checking for cancellation before each batch
+	 * @param ids ids of the pathways to be fetched
+	 * @param types entity types to be fetched for each pathway
+	 * @param c checked before each batch is queried, null to fetch without checks
+	 * @return catalog holding every pathway
+	 * @throws SQLException if MetNetDB could not be queried
+	 * @throws java.util.concurrent.CancellationException if the fetch was cancelled
+	 */
+	public static PathwayCatalog prefetch(List<Integer> ids, String[] types, Cancellation c) throws SQLException {
+		PathwayCatalog cat = new PathwayCatalog(types);
+		PooledConnection pc = MetNetDB.getPool().borrow();
+		try {
+			Statement st = pc.getConnection().createStatement();
+			try {
+				for (int from=0; from<ids.size(); from+=BATCH_SIZE){
+					if (c != null){
+						c.checkCancelled();
+					}
+					List<Integer> batch = ids.subList(from, Math.min(from + BATCH_SIZE, ids.size()));
+					long t = Metrics.start();
+					fetchBatch(st, batch, types, cat);
+					Metrics.stop("db.prefetchBatch", t);
+				}
+			} finally {
+				st.close();
+			}
+		} catch (SQLException e) {
+			pc.invalidate();
+			throw e;
+		} finally {
+			pc.close();
+		}
+		return cat;
+	}
+	
+	private static void fetchBatch(Statement st, List<Integer> batch, String[] types, PathwayCatalog cat) throws SQLException {
+		String idList = inList(batch);
+		ResultSet rs = st.executeQuery(NAMES_SQL + idList);
+		while (rs.next()){
+			PathwayEntry entry = new PathwayEntry(rs.getInt(1), rs.getString(2));
+			for (String t:types){
+				entry.addType(t);
+			}
+			cat.add(entry);
+		}
+		rs.close();
+		if (types.length == 0){
+			return;
+		}
+		
+		StringBuilder typeList = new StringBuilder("(");
+		for (int i=0; i<types.length; i++){
+			typeList.append(i == 0 ? "'" : ",'").append(types[i].replace("'", "''")).append("'");
+		}
+		typeList.append(")");
+		rs = st.executeQuery(ENTITIES_SQL + idList + " and e.type in " + typeList + " order by pw.BlockID, bu2.Name");
+		while (rs.next()){
+			PathwayEntry entry = cat.get(rs.getInt(1));
+			String type = matchType(rs.getString(4), types);
+			if (entry != null && type != null){
+				entry.addEntity(type, new Entity(rs.getInt(2), rs.getString(3), rs.getString(4)));
+			}
+		}
+		rs.close();
+	}
+	
+	/**
+	 * MetNetDB compares entity types case-insensitively, so map a type
+	 * from the database back to the requested spelling
+	 */
+	private static String matchType(String dbType, String[] types){
+		for (String t:types){
+			if (t.equalsIgnoreCase(dbType)){
+				return t;
+			}
+		}
+		return null;
+	}
+	
+	private static String inList(List<Integer> ids){
+		StringBuilder sb = new StringBuilder("(");
+		for (int i=0; i<ids.size(); i++){
+			if (i > 0){
+				sb.append(',');
+			}
+			sb.append(ids.get(i).intValue());
+		}
+		return sb.append(')').toString();
+	}
+	
+	private static void collectIds(PClassNode node, LinkedHashSet<Integer> ids){
+		if (node.getChildPathwayIds() != null){
+			ids.addAll(node.getChildPathwayIds());
+		}
+		if (node.getChildClasses() != null){
+			for (PClassNode child:node.getChildClasses()){
+				collectIds(child, ids);
+			}
+		}
+	}
+}
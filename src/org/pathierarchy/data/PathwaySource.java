@@ -0,0 +1,60 @@
+package org.pathierarchy.data;
+
+import java.util.Vector;
+
+import edu.iastate.metnet.Organism;
+import edu.iastate.metnet.PathwayClass;
+
+
+/**
+ * where the organisms, pathway classes, pathways and entities of an export come from.
+ * {@link MetNetSource} queries MetNetDB through the MetNet API, {@link SnapshotSource}
+ * reads hierarchy snapshots from local disk so that exports run without MetNetDB.
+ * Implementations must be safe to use from several threads at the same time,
+ * since hierarchy trees may be built in parallel.
+ * @author Divya Mistry
+ *
+ */
+public interface PathwaySource {
+	/**
+	 * @param name name of the organism, e.g. "Vitis"
+	 * @return the organism, null if the source does not know it
+	 */
+	Organism findOrganism(String name);
+	
+	/**
+	 * @return names of all the organisms the source knows
+	 */
+	String[] getOrganismNames();
+	
+	/**
+	 * @return main pathway classifications, i.e. the classes at the top of every hierarchy
+	 */
+	PathwayClass[] getMainClasses();
+	
+	/**
+	 * @param pc pathway class to be looked at
+	 * @return subclasses of the pathway class, ordered by name, empty if it has none
+	 */
+	PathwayClass[] getChildren(PathwayClass pc);
+	
+	/**
+	 * @param pc pathway class to be looked at
+	 * @param orgm organism whose pathways are wanted
+	 * @return ids of the organism's pathways in the class, ordered by name, empty if it has none
+	 */
+	Vector<Integer> getPathwayIds(PathwayClass pc, Organism orgm);
+	
+	/**
+	 * @param pathwayId id of the pathway
+	 * @param types entity types to be included (e.g. EntityType.GENE)
+	 * @return name and entities of the pathway, null if the source does not know it
+	 */
+	PathwayEntry getPathway(int pathwayId, String[] types);
+	
+	/**
+	 * @return true if the source is a live MetNetDB, so that the set based queries of
+	 *         {@link PClassLoader} and {@link PathwayPrefetcher} can be used instead
+	 */
+	boolean isLive();
+}
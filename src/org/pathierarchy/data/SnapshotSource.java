@@ -0,0 +1,221 @@
+package org.pathierarchy.data;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Vector;
+
+import edu.iastate.metnet.Organism;
+import edu.iastate.metnet.PathwayClass;
+
+
+/**
+ * pathway source reading the {@link HierarchySnapshot}s kept in a directory,
+ * so that exports run at disk speed without MetNetDB. Snapshots are read
+ * when their organism is first asked for and kept in memory afterwards.
+ * 
+ * The class hierarchy is the same for every organism in MetNetDB, so classes
+ * are looked up in whichever snapshot holds them. Snapshots do not record the
+ * MetNetDB id of their organism, so organisms found here have the id 0.
+ * Snapshots are used whatever their age; refresh them from a live source.
+ * @author Divya Mistry
+ *
+ */
+public class SnapshotSource implements PathwaySource {
+	private File dir; //directory holding the snapshots
+	private LinkedHashMap<String, Loaded> loaded; //organism name -> snapshot read from dir
+	
+	/**
+	 * a snapshot along with its classes indexed by id
+	 */
+	private static class Loaded {
+		HierarchySnapshot snapshot;
+		HashMap<Integer, PClassNode> classes = new HashMap<Integer, PClassNode>(); //class id -> node
+		
+		Loaded(HierarchySnapshot snap){
+			this.snapshot = snap;
+			index(snap.getRoot());
+		}
+		
+		private void index(PClassNode node){
+			if (node.getChildClasses() != null){
+				for (PClassNode child:node.getChildClasses()){
+					//a class with several parents has the same subtree under each of them
+					if (!this.classes.containsKey(child.getClassId())){
+						this.classes.put(child.getClassId(), child);
+					}
+					index(child);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * constructor
+	 * @param dir directory holding the snapshots, see {@link HierarchySnapshot#write(File)}
+	 */
+	public SnapshotSource(File dir){
+		this.dir = dir;
+		this.loaded = new LinkedHashMap<String, Loaded>();
+	}
+	
+	/**
+	 * make a snapshot available without reading it from the directory
+	 * @param snap snapshot of an organism, replacing any snapshot of the same organism
+	 */
+	public synchronized void add(HierarchySnapshot snap){
+		this.loaded.put(snap.getOrganism(), new Loaded(snap));
+	}
+	
+	/**
+	 * @param organism name of the organism
+	 * @return the organism's snapshot, null if there is no readable one
+	 */
+	private synchronized Loaded snapshotOf(String organism){
+		Loaded l = this.loaded.get(organism);
+		if (l == null){
+			File f = HierarchySnapshot.fileFor(this.dir, organism);
+			if (!f.isFile()){
+				return null;
+			}
+			try {
+				HierarchySnapshot snap = HierarchySnapshot.read(f);
+				if (!organism.equals(snap.getOrganism())){
+					return null;
+				}
+				l = new Loaded(snap);
+				this.loaded.put(organism, l);
+			} catch (IOException e) {
+				System.err.println("Ignoring unreadable snapshot " + f.getPath() + ": " + e.getMessage());
+				return null;
+			}
+		}
+		return l;
+	}
+	
+	/**
+	 * @return every snapshot in the directory, read if they were not yet
+	 */
+	private synchronized List<Loaded> allSnapshots(){
+		File[] files = this.dir.listFiles(new FileFilter(){
+			@Override
+			public boolean accept(File f) {
+				return f.isFile() && f.getName().endsWith(HierarchySnapshot.SUFFIX);
+			}
+		});
+		if (files != null){
+			for (File f:files){
+				if (this.loaded.containsKey(organismOf(f))){
+					continue;
+				}
+				try {
+					add(HierarchySnapshot.read(f));
+				} catch (IOException e) {
+					System.err.println("Ignoring unreadable snapshot " + f.getPath() + ": " + e.getMessage());
+				}
+			}
+		}
+		return new ArrayList<Loaded>(this.loaded.values());
+	}
+	
+	/**
+	 * @return name of the organism whose snapshot was read from given file, null if none was
+	 */
+	private String organismOf(File f){
+		for (String organism:this.loaded.keySet()){
+			if (HierarchySnapshot.fileFor(this.dir, organism).getName().equals(f.getName())){
+				return organism;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * @param classId id of a pathway class
+	 * @return node of the class in any of the snapshots read so far, null if none holds it
+	 */
+	private synchronized PClassNode anyClass(int classId){
+		for (Loaded l:this.loaded.values()){
+			PClassNode node = l.classes.get(classId);
+			if (node != null){
+				return node;
+			}
+		}
+		return null;
+	}
+	
+	private static PathwayClass[] classesOf(Vector<PClassNode> nodes){
+		if (nodes == null){
+			return new PathwayClass[0];
+		}
+		PathwayClass[] classes = new PathwayClass[nodes.size()];
+		for (int i=0; i<classes.length; i++){
+			classes[i] = new PathwayClass(nodes.get(i).getClassId(), nodes.get(i).getClassName());
+		}
+		return classes;
+	}
+	
+	@Override
+	public Organism findOrganism(String name) {
+		return snapshotOf(name) == null ? null : new Organism(0, name);
+	}
+	
+	@Override
+	public String[] getOrganismNames() {
+		List<Loaded> all = allSnapshots();
+		String[] names = new String[all.size()];
+		for (int i=0; i<names.length; i++){
+			names[i] = all.get(i).snapshot.getOrganism();
+		}
+		return names;
+	}
+	
+	@Override
+	public synchronized PathwayClass[] getMainClasses() {
+		if (this.loaded.isEmpty()){
+			allSnapshots();
+		}
+		if (this.loaded.isEmpty()){
+			return new PathwayClass[0];
+		}
+		return classesOf(this.loaded.values().iterator().next().snapshot.getRoot().getChildClasses());
+	}
+	
+	@Override
+	public PathwayClass[] getChildren(PathwayClass pc) {
+		PClassNode node = anyClass(pc.id);
+		return node == null ? new PathwayClass[0] : classesOf(node.getChildClasses());
+	}
+	
+	@Override
+	public Vector<Integer> getPathwayIds(PathwayClass pc, Organism orgm) {
+		Loaded l = snapshotOf(orgm.name);
+		PClassNode node = l == null ? null : l.classes.get(pc.id);
+		Vector<Integer> ids = new Vector<Integer>();
+		if (node != null && node.getChildPathwayIds() != null){
+			ids.addAll(node.getChildPathwayIds());
+		}
+		return ids;
+	}
+	
+	//entries hold whatever types the snapshot was taken with
+	@Override
+	public synchronized PathwayEntry getPathway(int pathwayId, String[] types) {
+		for (Loaded l:this.loaded.values()){
+			PathwayEntry entry = l.snapshot.getCatalog().get(pathwayId);
+			if (entry != null){
+				return entry;
+			}
+		}
+		return null;
+	}
+	
+	@Override
+	public boolean isLive() {
+		return false;
+	}
+}
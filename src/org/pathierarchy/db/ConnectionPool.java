@@ -0,0 +1,236 @@
+package org.pathierarchy.db;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.pathierarchy.metrics.Metrics;
+
+
+/**
+ * bounded pool of MetNetDB connections, so that several threads can query
+ * MetNetDB at the same time without each of them paying for a new connection.
+ * At most maxSize connections are handed out at once; borrowers beyond that
+ * wait for a connection to be returned. A connection that sat idle for longer
+ * than the validation interval is checked with a trivial query before it is
+ * handed out again, and replaced if the check fails.
+ *
+ * Connections are opened with {@link MetNetDB#newConnection()}, so the pool
+ * follows MetNetDB's connection settings (e.g. a local copy of MetNetDB).
+ * The hierarchy loads, the per-class queries of {@link org.pathierarchy.data.MetNetSource}
+ * and the pathway fetches go through the shared pool; objects loaded by the MetNet API
+ * itself, e.g. the pathways written to XGMML, still use the API's single connection.
+ * @author Divya Mistry
+ *
+ */
+public class ConnectionPool {
+	private static final String VALIDATION_SQL = "select 1";
+	
+	private int maxSize; //connections handed out at most at the same time
+	private Semaphore permits; //one permit per connection that may be handed out
+	private LinkedList<PooledConnection> idle; //returned connections, most recently used first
+	private long validateAfter = 30000; //idle millis after which a connection is checked before reuse
+	private boolean closed = false;
+	
+	/**
+	 * constructor
+	 * @param maxSize maximum number of connections open at the same time
+	 */
+	public ConnectionPool(int maxSize){
+		if (maxSize < 1){
+			throw new IllegalArgumentException("Pool size must be at least 1: " + maxSize);
+		}
+		this.maxSize = maxSize;
+		this.permits = new Semaphore(maxSize, true);
+		this.idle = new LinkedList<PooledConnection>();
+	}
+	
+	/**
+	 * Choose how long a connection may stay idle before it is checked on reuse
+	 * @param millis idle time in milliseconds, 0 to check every connection on reuse
+	 */
+	public void setValidateAfter(long millis){
+		this.validateAfter = millis;
+	}
+	
+	/**
+	 * @return maximum number of connections open at the same time
+	 */
+	public int getMaxSize(){
+		return this.maxSize;
+	}
+	
+	/**
+	 * @return number of connections currently handed out
+	 */
+	public int getActiveCount(){
+		return this.maxSize - this.permits.availablePermits();
+	}
+	
+	/**
+	 * @return number of open connections waiting to be reused
+	 */
+	public synchronized int getIdleCount(){
+		return this.idle.size();
+	}
+	
+	/**
+	 * borrow a connection, waiting as long as needed for one to be returned
+	 * @return healthy connection that must be given back with {@link PooledConnection#close()}
+	 * @throws SQLException if the pool is closed, MetNetDB can not be reached or the wait was interrupted
+	 */
+	public PooledConnection borrow() throws SQLException {
+		long t = Metrics.start();
+		try {
+			this.permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a MetNetDB connection");
+		}
+		Metrics.stop("db.poolWait", t);
+		return borrowPermitted();
+	}
+	
+	/**
+	 * borrow a connection, waiting at most the given time for one to be returned
+	 * @param timeoutMillis longest time to wait in milliseconds
+	 * @return healthy connection that must be given back with {@link PooledConnection#close()}
+	 * @throws SQLException if no connection was returned in time, the pool is closed,
+	 *         MetNetDB can not be reached or the wait was interrupted
+	 */
+	public PooledConnection borrow(long timeoutMillis) throws SQLException {
+		try {
+			long t = Metrics.start();
+			if (!this.permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)){
+				throw new SQLException("No MetNetDB connection became free within " + timeoutMillis + "ms");
+			}
+			Metrics.stop("db.poolWait", t);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a MetNetDB connection");
+		}
+		return borrowPermitted();
+	}
+	
+	/**
+	 * hand out an idle connection that passes the health check, or a new one.
+	 * Caller must already hold a permit, which is given back if this fails.
+	 */
+	private PooledConnection borrowPermitted() throws SQLException {
+		boolean handedOut = false;
+		try {
+			PooledConnection pc;
+			while ((pc = nextIdle()) != null){
+				if (isHealthy(pc)){
+					pc.checkOut();
+					handedOut = true;
+					return pc;
+				}
+				pc.destroy();
+			}
+			long t = Metrics.start();
+			pc = new PooledConnection(this, openConnection());
+			Metrics.stop("db.connect", t);
+			pc.checkOut();
+			handedOut = true;
+			return pc;
+		} finally {
+			if (!handedOut){
+				this.permits.release();
+			}
+		}
+	}
+	
+	/**
+	 * open a new connection for the pool
+	 * @return connection to MetNetDB
+	 * @throws SQLException if MetNetDB can not be reached
+	 */
+	protected Connection openConnection() throws SQLException {
+		return MetNetDB.newConnection();
+	}
+	
+	private synchronized PooledConnection nextIdle() throws SQLException {
+		if (this.closed){
+			throw new SQLException("MetNetDB connection pool is closed");
+		}
+		return this.idle.poll();
+	}
+	
+	/**
+	 * check a connection that was idle for longer than the validation interval
+	 */
+	private boolean isHealthy(PooledConnection pc){
+		if (System.currentTimeMillis() - pc.getLastUsed() < this.validateAfter){
+			return true;
+		}
+		try {
+			Statement st = pc.getConnection().createStatement();
+			try {
+				ResultSet rs = st.executeQuery(VALIDATION_SQL);
+				rs.close();
+			} finally {
+				st.close();
+			}
+			return true;
+		} catch (SQLException e) {
+			System.err.println("Dropping stale MetNetDB connection: " + e.getMessage());
+			return false;
+		}
+	}
+	
+	/**
+	 * take back a connection handed out by this pool
+	 * @param pc connection that is no longer used by the borrower
+	 * @param broken true if the connection should be closed instead of reused
+	 */
+	void release(PooledConnection pc, boolean broken){
+		try {
+			boolean reuse = !broken;
+			synchronized (this){
+				reuse = reuse && !this.closed;
+				if (reuse){
+					this.idle.addFirst(pc);
+				}
+			}
+			if (!reuse){
+				pc.destroy();
+			}
+		} finally {
+			this.permits.release();
+		}
+	}
+	
+	/**
+	 * close the idle connections and refuse further borrowing. Connections
+	 * still handed out are closed as soon as they are returned.
+	 */
+	public void close(){
+		LinkedList<PooledConnection> toClose;
+		synchronized (this){
+			this.closed = true;
+			toClose = new LinkedList<PooledConnection>(this.idle);
+			this.idle.clear();
+		}
+		for (PooledConnection pc:toClose){
+			pc.destroy();
+		}
+	}
+	
+	/**
+	 * check whether the underlying connection of a borrowed connection is still open
+	 * @param conn connection to be checked
+	 * @return true if the connection is closed or its state can not be read
+	 */
+	static boolean isClosed(Connection conn){
+		try {
+			return conn.isClosed();
+		} catch (SQLException e) {
+			return true;
+		}
+	}
+}
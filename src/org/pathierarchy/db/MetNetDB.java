@@ -0,0 +1,75 @@
+package org.pathierarchy.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+
+/**
+ * direct JDBC access to MetNetDB for queries that the MetNet API
+ * can only answer one object at a time. Connection settings default
+ * to the ones used by the MetNet API.
+ * @author Divya Mistry
+ *
+ */
+public class MetNetDB {
+	public static String server = "www.metnetdb.org"; //host running MetNetDB
+	public static String database = "metnet2"; //name of the MetNetDB schema
+	public static String username = ""; //MetNetDB user, empty for public access
+	public static String password = ""; //password of the MetNetDB user
+	public static int poolSize = 4; //connections of the shared pool open at the same time
+	
+	private static final String DRIVER = "com.mysql.jdbc.Driver"; //bundled mysql connector
+	private static ConnectionPool pool = null; //shared pool, created on first use
+	
+	/**
+	 * get the pool of connections shared by everything that queries MetNetDB directly.
+	 * The pool is created with the connection settings and size at the time of the first call.
+	 * @return shared connection pool
+	 */
+	public static synchronized ConnectionPool getPool(){
+		if (pool == null){
+			pool = new ConnectionPool(poolSize);
+		}
+		return pool;
+	}
+	
+	/**
+	 * close the shared pool, e.g. after the connection settings were changed.
+	 * The next call to {@link #getPool()} creates a new pool.
+	 */
+	public static synchronized void closePool(){
+		if (pool != null){
+			pool.close();
+			pool = null;
+		}
+	}
+	
+	/**
+	 * open a new connection to MetNetDB
+	 * @return connection that the caller is responsible for closing
+	 * @throws SQLException if the driver is missing or the database can not be reached
+	 */
+	public static Connection newConnection() throws SQLException {
+		try {
+			Class.forName(DRIVER);
+		} catch (ClassNotFoundException e) {
+			throw new SQLException("MySQL driver " + DRIVER + " is not on the classpath", e);
+		}
+		return DriverManager.getConnection("jdbc:mysql://" + server + "/" + database, username, password);
+	}
+	
+	/**
+	 * close a connection without letting a failure mask the work done on it
+	 * @param conn connection to be closed, may be null
+	 */
+	public static void close(Connection conn){
+		if (conn != null){
+			try {
+				conn.close();
+			} catch (SQLException e) {
+				System.err.println("Unable to close MetNetDB connection: " + e.getMessage());
+			}
+		}
+	}
+}
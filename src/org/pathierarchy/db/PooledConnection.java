@@ -0,0 +1,135 @@
+package org.pathierarchy.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * MetNetDB connection borrowed from a {@link ConnectionPool}. Prepared statements
+ * are kept with the connection and reused by every later borrower that prepares
+ * the same SQL, so statements like the per-organism queries are only parsed once
+ * per connection. A borrower must not close the statements it gets from
+ * {@link #prepare(String)}, only their result sets, and must give the connection
+ * back with {@link #close()} when done with it.
+ * @author Divya Mistry
+ *
+ */
+public class PooledConnection {
+	public static final int STATEMENT_CACHE_SIZE = 32; //prepared statements kept per connection
+	
+	private ConnectionPool pool; //pool that the connection is returned to
+	private Connection conn; //underlying MetNetDB connection
+	private LinkedHashMap<String, PreparedStatement> statements; //sql -> prepared statement, least recently used first
+	private long lastUsed; //time in millis when the connection was last handed out or returned
+	private boolean checkedOut = false;
+	private boolean broken = false;
+	
+	/**
+	 * constructor
+	 * @param pool pool that the connection is returned to
+	 * @param conn newly opened MetNetDB connection
+	 */
+	PooledConnection(ConnectionPool pool, Connection conn){
+		this.pool = pool;
+		this.conn = conn;
+		this.lastUsed = System.currentTimeMillis();
+		this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest){
+				if (size() > STATEMENT_CACHE_SIZE){
+					closeStatement(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+	
+	/**
+	 * @return underlying connection, for statements that are not worth caching.
+	 *         It must not be closed by the borrower.
+	 */
+	public Connection getConnection(){
+		return this.conn;
+	}
+	
+	/**
+	 * get a prepared statement for given SQL, reusing the one prepared by an
+	 * earlier borrower of this connection if there is one
+	 * @param sql SQL of the statement
+	 * @return prepared statement with its parameters cleared
+	 * @throws SQLException if the statement could not be prepared
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement ps = this.statements.get(sql);
+		if (ps == null){
+			ps = this.conn.prepareStatement(sql);
+			this.statements.put(sql, ps);
+		} else {
+			ps.clearParameters();
+		}
+		return ps;
+	}
+	
+	/**
+	 * mark the connection as unusable, so that it is closed instead of reused
+	 * once it is given back. To be called after a failure that may have left
+	 * the connection in a bad state.
+	 */
+	public void invalidate(){
+		this.broken = true;
+	}
+	
+	/**
+	 * give the connection back to its pool. Calling this more than once has no effect.
+	 */
+	public void close(){
+		if (!this.checkedOut){
+			return;
+		}
+		this.checkedOut = false;
+		this.lastUsed = System.currentTimeMillis();
+		this.pool.release(this, this.broken || ConnectionPool.isClosed(this.conn));
+	}
+	
+	/**
+	 * @return time in millis when the connection was last handed out or returned
+	 */
+	long getLastUsed(){
+		return this.lastUsed;
+	}
+	
+	/**
+	 * mark the connection as handed out by the pool
+	 */
+	void checkOut(){
+		this.checkedOut = true;
+		this.lastUsed = System.currentTimeMillis();
+	}
+	
+	/**
+	 * close the cached statements and the underlying connection
+	 */
+	void destroy(){
+		Iterator<PreparedStatement> it = this.statements.values().iterator();
+		while (it.hasNext()){
+			closeStatement(it.next());
+			it.remove();
+		}
+		MetNetDB.close(this.conn);
+	}
+	
+	private static void closeStatement(PreparedStatement ps){
+		try {
+			ps.close();
+		} catch (SQLException e) {
+			System.err.println("Unable to close MetNetDB statement: " + e.getMessage());
+		}
+	}
+}
@@ -9,30 +9,32 @@ import java.awt.Dimension;
 import java.awt.GridLayout;
 import java.awt.Panel;
 import java.awt.Toolkit;
-import java.awt.Dialog.ModalityType;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
 
-import javax.swing.DefaultListModel;
+import javax.swing.DefaultComboBoxModel;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
-import javax.swing.JDialog;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
-import javax.swing.JList;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
-import javax.swing.JScrollPane;
-import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 
+import org.pathierarchy.data.OrganismListCache;
+import org.pathierarchy.metrics.Metrics;
+import org.pathierarchy.xml.ExportMonitor;
 import org.pathierarchy.xml.PathwaysToXML;
+import org.pathierarchy.xml.XGMMLExporter;
 
-import edu.iastate.metnet.ExportHelper;
-import edu.iastate.metnet.Network;
 import edu.iastate.metnet.Organism;
 import edu.iastate.metnet.Pathway;
 
@@ -53,33 +55,37 @@ public class MNgui extends JFrame{
 	private JComboBox listOfOrgs; //combobox showing list of available organismss
 	private JCheckBox rnaCheckbox; //checkbox to select whether rna entities should be included in xml
 	private JCheckBox geneCheckbox; //checkbox to select whether gene entities should be included in xml
+	private JCheckBox mergeCheckbox; //checkbox to select whether the picked pathways are merged into one xgmml network
+	private JCheckBox resumeCheckbox; //checkbox to select whether an unfinished xgmml export to the directory is resumed
 	private JFileChooser fc; //file chooser to select the destination directory where xml will be stored
 	private Vector<String> orgNames = new Vector<String>(); //vector to save the available organisms
+	private DefaultComboBoxModel orgModel; //organisms shown in the combobox
+	private OrganismListCache orgCache = new OrganismListCache(); //organisms seen when MetNetDB was last asked
 	private String selectedOrg = null; //string to hold the name of organism chosen by user from combobox 
 	private String genxmlbtnText = "Generate XML";
 	private String genxgmmlbtnText = "Generate XGMML";
 	private String dirloc = ".";
+	private int xgmmlWorkers = 4; //number of pathways exported to xgmml at the same time
+	
 	/**
 	 * constructor to display the UI
 	 */
 	public MNgui(){
-		//populate the organism names
-		for (Organism o:Organism.search()){
-			this.orgNames.add(o.name);
-		}
+		//start from the organisms cached by the last run, MetNetDB is asked in the background
+		this.orgNames = this.orgCache.load();
 		
 		//prepare the app window
 		this.setTitle("MNgui");
-		this.setSize(300, 132);
+		this.setSize(300, 160);
 		this.setDefaultCloseOperation(EXIT_ON_CLOSE);
 		this.setResizable(false);
 		Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
-		this.setBounds((screen.width - 300)/2, (screen.height - 100)/2, 300, 132);
+		this.setBounds((screen.width - 300)/2, (screen.height - 100)/2, 300, 160);
 		//prepare the panel that will hold all the ui elements
 		main_panel = new JPanel();
 		main_panel.setLayout(new BorderLayout());
 		top_panel = new JPanel();
-		top_panel.setLayout(new GridLayout(4,2));
+		top_panel.setLayout(new GridLayout(5,2));
 		bot_panel = new JPanel();
 		bot_panel.setLayout(new GridLayout(1,2));
 		
@@ -96,7 +102,7 @@ public class MNgui extends JFrame{
 			/*
 			 * upon clicking the generate xml button:
 			 *   - ask user to choose a directory where xml will be saved
-			 *   - create the xml file
+			 *   - create the xml file in the background, showing its progress
 			 *   - show a confirmation dialogue that the file was created
 			 */
 			@Override
@@ -116,11 +122,36 @@ public class MNgui extends JFrame{
 							MNgui.this.dirloc = fc.getSelectedFile().getCanonicalPath();
 							
 							//prepare the necessary file, and the tree that will hold PathwayClass -> Pathway -> gene hierarchy
-							PathwaysToXML ptx = new PathwaysToXML(MNgui.this.dirloc, MNgui.this.selectedOrg,MNgui.this.rnaCheckbox.isSelected(),MNgui.this.geneCheckbox.isSelected(),false);
-							//generate the tree that will hold PathwayClass -> Pathway -> gene hierarchy, and save that tree to the file
-							ptx.generateXML();
-							//show the confirmation that file was generated
-							JOptionPane.showMessageDialog(MNgui.this, "XML files generated for " + MNgui.this.selectedOrg + " in\n" + MNgui.this.dirloc);
+							final String org = MNgui.this.selectedOrg;
+							final String dir = MNgui.this.dirloc;
+							final PathwaysToXML ptx = new PathwaysToXML(dir, org,MNgui.this.rnaCheckbox.isSelected(),MNgui.this.geneCheckbox.isSelected(),false);
+							final ExportMonitor mon = new ExportMonitor();
+							ptx.setMonitor(mon);
+							final ProgressDialog progress = new ProgressDialog(MNgui.this, "Generating XML for " + org, mon);
+							//generate the tree and save it to the file away from the event dispatch thread
+							new SwingWorker<Boolean, Void>(){
+								@Override
+								protected Boolean doInBackground() {
+									return ptx.generateXML();
+								}
+								
+								@Override
+								protected void done() {
+									progress.finish();
+									MNgui.this.exportFinished();
+									//show the outcome of the export
+									if (mon.isCancelled()){
+										JOptionPane.showMessageDialog(MNgui.this, "XML export of " + org + " was cancelled, no file was written.");
+									} else if (MNgui.this.succeeded(this)){
+										JOptionPane.showMessageDialog(MNgui.this, "XML files generated for " + org + " in\n" + dir);
+									} else {
+										JOptionPane.showMessageDialog(MNgui.this, "XML file for " + org + " could not be generated in\n" + dir, "Error", JOptionPane.ERROR_MESSAGE);
+									}
+								}
+							}.execute();
+							MNgui.this.exportStarted();
+							progress.start();
+							return;
 						} catch (IOException e) {
 							System.err.println("Unable to access the directory location to retrieve CanonicalPath");
 						}
@@ -148,7 +179,10 @@ public class MNgui extends JFrame{
 					MNgui.this.disableButtons();
 					
 					//allow user to pick which pathways to export as xgmml
-					Vector<String> selPaths = invokePathwayPicker();
+					PathwayPicker picker = new PathwayPicker(MNgui.this, MNgui.this.selectedOrg);
+					Vector<Integer> selPaths = picker.pick();
+					//the organism keeps its pathway list, so it is fetched once for picking and exporting
+					Organism orgm = picker.getOrganism();
 					if (selPaths.size()>0) { //user selected at least one pathway
 						//prompt to choose a destination directory to store xml file
 						int dirchosen = MNgui.this.fc.showOpenDialog(MNgui.this);
@@ -156,10 +190,56 @@ public class MNgui extends JFrame{
 							try {
 								//get the OS specific directory path
 								MNgui.this.dirloc = fc.getSelectedFile().getCanonicalPath();
-								//once the API starts giving correct output of toCytoscape() method, uncomment the following line
-								this.prepXGMML(selPaths, dirloc + System.getProperty("file.separator"));
-								//show the confirmation that file was generated
-								JOptionPane.showMessageDialog(MNgui.this, "XGMML files generated for " + MNgui.this.selectedOrg + " in\n" + MNgui.this.dirloc);
+								final String org = MNgui.this.selectedOrg;
+								final String dir = MNgui.this.dirloc;
+								final Organism exportOrgm = orgm;
+								final Vector<Integer> exportPaths = selPaths;
+								final boolean merge = MNgui.this.mergeCheckbox.isSelected();
+								final boolean resume = MNgui.this.resumeCheckbox.isSelected();
+								final ExportMonitor mon = new ExportMonitor();
+								final ProgressDialog progress = new ProgressDialog(MNgui.this, "Generating XGMML for " + org, mon);
+								//build and write the networks away from the event dispatch thread
+								new SwingWorker<Map<String, Exception>, Void>(){
+									@Override
+									protected Map<String, Exception> doInBackground() {
+										return prepXGMML(exportOrgm, exportPaths, dir, merge, resume, mon);
+									}
+									
+									@Override
+									protected void done() {
+										progress.finish();
+										MNgui.this.exportFinished();
+										Map<String, Exception> failures;
+										try {
+											failures = get();
+										} catch (Exception e) {
+											System.err.println("XGMML export failed: " + e);
+											JOptionPane.showMessageDialog(MNgui.this, "XGMML files for " + org + " could not be generated in\n" + dir, "Error", JOptionPane.ERROR_MESSAGE);
+											return;
+										}
+										//show the confirmation that files were generated
+										String msg = "XGMML files generated for " + org + " in\n" + dir;
+										if (merge){
+											msg = "XGMML network of " + org + " generated in\n" + dir;
+										}
+										if (mon.isCancelled() && merge){
+											msg = "XGMML export of " + org + " was cancelled, no network was written.";
+										} else if (mon.isCancelled()){
+											msg = "XGMML export of " + org + " was cancelled after " + mon.getDone() + " of " +
+												exportPaths.size() + " pathways.\nFiles already written were kept in\n" + dir;
+										}
+										if (failures.size() > 0){
+											msg += "\n\n" + failures.size() + " of " + exportPaths.size() + " pathways could not be exported:";
+											for (String name:failures.keySet()){
+												msg += "\n" + name;
+											}
+										}
+										JOptionPane.showMessageDialog(MNgui.this, msg);
+									}
+								}.execute();
+								MNgui.this.exportStarted();
+								progress.start();
+								return;
 							} catch (IOException e) {
 								System.err.println("Unable to access the directory location to retrieve CanonicalPath");
 							}
@@ -174,73 +254,49 @@ public class MNgui extends JFrame{
 			
 			/**
 			 * method to create XGMML files for individual pathways
-			 * @param pathwayNames names of pathways for which the xgmmls are to be created
-			 * @param fname absolute path of the file where the xgmml is to be stored
-			 */
-			private void prepXGMML(Vector<String> pathwayNames, String fname) {
-				Organism orgm = Organism.identify(MNgui.this.selectedOrg);
-				for (int i=0; i<pathwayNames.size(); i++){
-					ExportHelper.toCytoscape(new Network(Pathway.identify(pathwayNames.get(i), orgm)), 
-											fname + pathwayNames.get(i) + ".xgmml.xml");
-				}
-			}
-			
-			/**
-			 * Provide a UI to select the pathways a user would like to export to xgmml
-			 * @return Vector of String containing the names of pathways chosen by the user
+			 * @param orgm organism the pathways belong to
+			 * @param pathwayIds ids of pathways for which the xgmmls are to be created
+			 * @param dir absolute path of the directory where the xgmmls are to be stored
+			 * @param merge true to write the pathways as one network, false for a file per pathway
+			 * @param resume true to skip the files an unfinished export of the same pathways already wrote
+			 * @param mon monitor following the progress of the export
+			 * @return pathways that could not be exported, keyed by "<name> (<id>)" of the pathway
 			 */
-			private Vector<String> invokePathwayPicker(){
-				//to store all the selected pathway names
-				final Vector<String> chosenPaths = new Vector<String>();
-				
-				//prep the data model to show patway list
-				final DefaultListModel listmod = new DefaultListModel();
-				final JList list = new JList(listmod);
-				final JScrollPane scroller = new JScrollPane(list);
-				scroller.setMinimumSize(new Dimension(500, 100));
-				list.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
-				//populate the list of pathways
-				for (Pathway p: Organism.identify(MNgui.this.selectedOrg).getPathways().toArray()){
-					listmod.addElement(p.name);
-				}
-				
-				//prep the window
-				final JDialog pathwayPicker = new JDialog();
-				pathwayPicker.setModalityType(ModalityType.APPLICATION_MODAL);
-				pathwayPicker.setResizable(false);
-				JPanel panel = new JPanel(new BorderLayout());
-				pathwayPicker.setContentPane(panel);
-				pathwayPicker.setDefaultCloseOperation(HIDE_ON_CLOSE);
-				pathwayPicker.setTitle("Choose which pathways to export as XGMML...");
-				pathwayPicker.setSize(500,200);
-				
-				//when user clicks "OK", prepare the list of pathway names and close the window
-				JButton accept = new JButton("OK");
-				accept.addActionListener(new ActionListener() {
-					@Override
-					public void actionPerformed(ActionEvent e) {
-						for (Integer i:list.getSelectedIndices()){
-							chosenPaths.add((String) listmod.get(i));
+			private Map<String, Exception> prepXGMML(Organism orgm, Vector<Integer> pathwayIds, String dir, boolean merge, boolean resume, ExportMonitor mon) {
+				if (merge){
+					//the organism's pathways were fetched for the picker already
+					HashSet<Integer> picked = new HashSet<Integer>(pathwayIds);
+					Vector<Pathway> paths = new Vector<Pathway>();
+					for (Pathway p:orgm.getPathways().toArray()){
+						if (picked.contains(p.id)){
+							paths.add(p);
 						}
-						pathwayPicker.setVisible(false); //close the window
 					}
-				});
-
-				//add apropriate elements to the dialog window
-				pathwayPicker.add(new JLabel("Select pathways to export..."));
-				pathwayPicker.add(scroller, BorderLayout.NORTH);
-				pathwayPicker.add(accept, BorderLayout.SOUTH);
-				pathwayPicker.setVisible(true);
-				
-				return chosenPaths;
+					PathwaysToXML ptx = new PathwaysToXML(dir, orgm.name, false, false, false);
+					ptx.setXGMMLWorkers(MNgui.this.xgmmlWorkers);
+					ptx.setMonitor(mon);
+					return ptx.generateMergedXGMMLs(paths.toArray(new Pathway[paths.size()]));
+				}
+				int[] ids = new int[pathwayIds.size()];
+				for (int i=0; i<ids.length; i++){
+					ids[i] = pathwayIds.get(i);
+				}
+				XGMMLExporter exporter = new XGMMLExporter(dir, MNgui.this.xgmmlWorkers);
+				exporter.setMonitor(mon);
+				exporter.setResume(resume);
+				return exporter.export(orgm, ids);
 			}
+			
 		});
 		//add the checkboxes to get user's choice on rna and/or gene entities
 		this.rnaCheckbox = new JCheckBox("RNA", false);
 		this.geneCheckbox = new JCheckBox("Gene", false);
+		this.mergeCheckbox = new JCheckBox("One network", false);
+		this.resumeCheckbox = new JCheckBox("Resume", true);
 		
 		//add combobox with list of organisms
-		listOfOrgs = new JComboBox(orgNames);
+		orgModel = new DefaultComboBoxModel(orgNames);
+		listOfOrgs = new JComboBox(orgModel);
 		listOfOrgs.setSelectedIndex(-1);
 		listOfOrgs.addActionListener(new ActionListener() {
 			//when user chooses an organism from the list, save the latest chosen organism
@@ -270,10 +326,17 @@ public class MNgui extends JFrame{
 						"1. If not done so already, choose an organism from the list of available ones.\n" +
 						"2. Click on \"Generate XGMML\" button. A new window should appear.\n" +
 						"3. You can multi-select pathways from available pathways list.\n" +
+						"   Type in the filter field to list only pathways whose names contain the text.\n" +
 						"4. Click \"OK\" to confirm the selection.\n" +
 						"5. When prompted, select a folder to use for storing the generated XGMML file\n" +
+						"Check \"One network\" to write the selected pathways as a single network,\n" +
+						"with the entities and interactions they share listed once.\n" +
+						"Uncheck \"Resume\" to rebuild the files an unfinished export of the\n" +
+						"same pathways to the folder already wrote.\n" +
 						"If you wish to select all the pathways, press \n" +
-						"Ctrl+A (on non-Mac) or Cmd+A (on Mac).";
+						"Ctrl+A (on non-Mac) or Cmd+A (on Mac).\n\n" +
+						"While a file is generated its progress is shown. Click \"Cancel\" to stop\n" +
+						"the export; no partially written file is left behind.";
 				JOptionPane.showMessageDialog(MNgui.this, steps);
 			}
 		});
@@ -295,6 +358,11 @@ public class MNgui extends JFrame{
 		chkbxPanel.add(rnaCheckbox, BorderLayout.WEST);
 		chkbxPanel.add(geneCheckbox, BorderLayout.EAST);
 		top_panel.add(chkbxPanel);
+		top_panel.add(new JLabel("XGMML Output"));
+		Panel xgmmlPanel = new Panel(new BorderLayout());
+		xgmmlPanel.add(mergeCheckbox, BorderLayout.WEST);
+		xgmmlPanel.add(resumeCheckbox, BorderLayout.EAST);
+		top_panel.add(xgmmlPanel);
 		top_panel.add(genxgmmlbtn);
 		top_panel.add(genxmlbtn);
 		
@@ -305,6 +373,52 @@ public class MNgui extends JFrame{
 		main_panel.add(top_panel,BorderLayout.NORTH);
 		
 		this.getContentPane().add(main_panel);
+		
+		//refresh the organism list without holding up the window
+		this.refreshOrganisms();
+	}
+	
+	/**
+	 * method to fetch the list of organisms from MetNetDB in the background,
+	 * and show it once it arrives while keeping the user's selection
+	 */
+	private void refreshOrganisms(){
+		if (this.orgNames.isEmpty()){
+			this.listOfOrgs.setToolTipText("Loading organisms from MetNetDB...");
+		}
+		new SwingWorker<Vector<String>, Void>(){
+			@Override
+			protected Vector<String> doInBackground() {
+				return MNgui.this.orgCache.refresh();
+			}
+			
+			@Override
+			protected void done() {
+				MNgui.this.listOfOrgs.setToolTipText(null);
+				Vector<String> names;
+				try {
+					names = get();
+				} catch (Exception e) {
+					System.err.println("Unable to fetch organisms from MetNetDB: " + e);
+					return;
+				}
+				if (names.isEmpty() || names.equals(MNgui.this.orgNames)){
+					return;
+				}
+				//replace the cached list, re-selecting the organism the user already picked
+				String selected = MNgui.this.selectedOrg;
+				MNgui.this.orgNames = names;
+				MNgui.this.orgModel.removeAllElements();
+				for (String name:names){
+					MNgui.this.orgModel.addElement(name);
+				}
+				if (selected != null && names.contains(selected)){
+					MNgui.this.listOfOrgs.setSelectedItem(selected);
+				} else {
+					MNgui.this.listOfOrgs.setSelectedIndex(-1);
+				}
+			}
+		}.execute();
 	}
 	
 	/**
@@ -317,6 +431,42 @@ public class MNgui extends JFrame{
 		this.genxmlbtn.setEnabled(false);
 	}
 	
+	/**
+	 * method to keep the window open while an export runs in the background,
+	 * so that closing it can not leave half written files behind
+	 */
+	private void exportStarted(){
+		this.setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
+	}
+	
+	/**
+	 * method to make the UI ready for action again once a background export is done
+	 */
+	private void exportFinished(){
+		this.setDefaultCloseOperation(EXIT_ON_CLOSE);
+		this.enableButtons();
+		//print where the export spent its time, and start afresh for the next one
+		Metrics.dump(System.out);
+		Metrics.reset();
+	}
+	
+	/**
+	 * method to get the outcome of a finished background export
+	 * @param worker finished export
+	 * @return true if the export reported success
+	 */
+	private boolean succeeded(SwingWorker<Boolean, Void> worker){
+		try {
+			return worker.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			System.err.println("Export failed: " + e.getCause());
+			return false;
+		}
+	}
+	
 	/**
 	 * method to enable all the action buttons of the UI to show that app is ready for action
 	 */
@@ -332,7 +482,13 @@ public class MNgui extends JFrame{
 	 * Method creates a ui and makes it visible
 	 */
 	public static void main(String[] args) {
-		MNgui app = new MNgui();
-		app.setVisible(true);
+		//build the ui on the event dispatch thread
+		SwingUtilities.invokeLater(new Runnable(){
+			@Override
+			public void run() {
+				MNgui app = new MNgui();
+				app.setVisible(true);
+			}
+		});
 	}
 }
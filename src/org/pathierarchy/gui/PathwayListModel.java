@@ -0,0 +1,77 @@
+package org.pathierarchy.gui;
+
+import javax.swing.AbstractListModel;
+
+import org.pathierarchy.data.PathwayNameIndex;
+
+/**
+ * @author Divya Mistry
+ * PathwayListModel shows the pathways of an organism that match a filter.
+ * The names and ids stay in their arrays and the model only keeps the
+ * positions of the matching ones, so neither loading nor filtering adds
+ * list elements one by one, and the JList only asks for the rows it shows.
+ */
+public class PathwayListModel extends AbstractListModel{
+	private static final long serialVersionUID = 1L;
+	
+	private String[] names = new String[0]; //names of all the pathways
+	private int[] ids = new int[0]; //ids of all the pathways, in the same order as the names
+	private PathwayNameIndex index = new PathwayNameIndex(new String[0]); //index over the names
+	private int[] shown = new int[0]; //positions of the pathways matching the filter
+	private String filter = ""; //text the shown names contain
+	
+	/**
+	 * replace the listed pathways, keeping the current filter
+	 * @param pathNames names of the pathways
+	 * @param pathIds ids of the pathways, in the same order as the names
+	 * @param nameIndex index over the names
+	 */
+	public void setPathways(String[] pathNames, int[] pathIds, PathwayNameIndex nameIndex){
+		this.names = pathNames;
+		this.ids = pathIds;
+		this.index = nameIndex;
+		this.setFilter(this.filter);
+	}
+	
+	/**
+	 * show only the pathways whose names contain given text, ignoring case.
+	 * Every row is replaced, which clears the selection of a JList showing the model.
+	 * @param text text to look for, empty to show every pathway
+	 */
+	public void setFilter(String text){
+		int before = this.shown.length;
+		this.filter = text;
+		this.shown = this.index.search(text);
+		if (before > 0){
+			this.fireIntervalRemoved(this, 0, before - 1);
+		}
+		if (this.shown.length > 0){
+			this.fireIntervalAdded(this, 0, this.shown.length - 1);
+		}
+	}
+	
+	/**
+	 * @return number of pathways listed before filtering
+	 */
+	public int getPathwayCount(){
+		return this.names.length;
+	}
+	
+	/**
+	 * @param row row of the list
+	 * @return id of the pathway shown in given row
+	 */
+	public int getPathwayId(int row){
+		return this.ids[this.shown[row]];
+	}
+	
+	@Override
+	public Object getElementAt(int row) {
+		return this.names[this.shown[row]];
+	}
+	
+	@Override
+	public int getSize() {
+		return this.shown.length;
+	}
+}
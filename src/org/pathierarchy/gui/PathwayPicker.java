@@ -0,0 +1,238 @@
+package org.pathierarchy.gui;
+
+import java.awt.BorderLayout;
+import java.awt.Dialog.ModalityType;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.LinkedHashSet;
+import java.util.Vector;
+
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingWorker;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+
+import org.pathierarchy.data.PathwayNameIndex;
+
+import edu.iastate.metnet.Organism;
+import edu.iastate.metnet.Pathway;
+
+/**
+ * @author Divya Mistry
+ * PathwayPicker lets a user choose pathways of an organism. The dialog opens
+ * right away and the pathways are fetched and indexed in the background.
+ * Typing in the filter field narrows the list to the pathways whose names
+ * contain the typed text, names starting with it first. Pathways selected
+ * under one filter stay selected while other filters are tried.
+ */
+public class PathwayPicker extends JDialog{
+	private static final long serialVersionUID = 1L;
+	
+	private String orgName; //name of the organism whose pathways are listed
+	private Organism orgm = null; //organism, once it has been fetched
+	private PathwayListModel listmod; //pathways matching the filter
+	private JList list; //list of the pathways matching the filter
+	private JTextField filterField; //text the listed names have to contain
+	private JLabel statusLabel; //loading state and number of listed pathways
+	private Vector<Integer> chosenPaths = new Vector<Integer>(); //ids of the pathways chosen by the user
+	private LinkedHashSet<Integer> selectedIds = new LinkedHashSet<Integer>(); //ids selected so far, under any filter
+	private boolean filtering = false; //true while the list is refilled, whose selection changes are not the user's
+	
+	/**
+	 * constructor to prepare the dialog, which is shown with {@link #pick()}
+	 * @param owner window the dialog belongs to
+	 * @param organism name of the organism whose pathways are to be listed
+	 */
+	public PathwayPicker(JFrame owner, String organism){
+		super(owner, "Choose which pathways to export as XGMML...");
+		this.orgName = organism;
+		this.setModalityType(ModalityType.APPLICATION_MODAL);
+		this.setDefaultCloseOperation(HIDE_ON_CLOSE);
+		
+		//the list only renders the visible rows, and a fixed row height spares it from measuring every name
+		this.listmod = new PathwayListModel();
+		this.list = new JList(this.listmod);
+		this.list.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+		this.list.setPrototypeCellValue("Pathway name long enough for the list width");
+		//remember the user's selection, since filtering clears the list's
+		this.list.addListSelectionListener(new ListSelectionListener(){
+			@Override
+			public void valueChanged(ListSelectionEvent e) {
+				PathwayPicker.this.selectionChanged(e.getFirstIndex(), e.getLastIndex());
+			}
+		});
+		JScrollPane scroller = new JScrollPane(this.list);
+		
+		//filter the list on every change of the filter text
+		this.filterField = new JTextField();
+		this.filterField.getDocument().addDocumentListener(new DocumentListener(){
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				PathwayPicker.this.applyFilter();
+			}
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				PathwayPicker.this.applyFilter();
+			}
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+				PathwayPicker.this.applyFilter();
+			}
+		});
+		JPanel filterPanel = new JPanel(new BorderLayout());
+		filterPanel.add(new JLabel("Filter: "), BorderLayout.WEST);
+		filterPanel.add(this.filterField, BorderLayout.CENTER);
+		
+		//when user clicks "OK", save the ids of the selected pathways and close the window
+		JButton accept = new JButton("OK");
+		accept.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				PathwayPicker.this.chosenPaths.addAll(PathwayPicker.this.selectedIds);
+				PathwayPicker.this.setVisible(false); //close the window
+			}
+		});
+		this.statusLabel = new JLabel("Loading pathways of " + organism + "...");
+		JPanel bottomPanel = new JPanel(new BorderLayout());
+		bottomPanel.add(this.statusLabel, BorderLayout.CENTER);
+		bottomPanel.add(accept, BorderLayout.EAST);
+		
+		//add apropriate elements to the dialog window
+		JPanel panel = new JPanel(new BorderLayout());
+		panel.add(filterPanel, BorderLayout.NORTH);
+		panel.add(scroller, BorderLayout.CENTER);
+		panel.add(bottomPanel, BorderLayout.SOUTH);
+		this.setContentPane(panel);
+		this.setSize(500, 320);
+		this.setLocationRelativeTo(owner);
+	}
+	
+	/**
+	 * show the dialog, load the pathways in the background and wait for the user's choice
+	 * @return ids of the pathways chosen by the user, empty if none were chosen
+	 */
+	public Vector<Integer> pick(){
+		new SwingWorker<Loaded, Void>(){
+			//fetch the organism and its pathways, and index their names
+			@Override
+			protected Loaded doInBackground() {
+				Loaded l = new Loaded();
+				l.orgm = Organism.identify(PathwayPicker.this.orgName);
+				Pathway[] paths = l.orgm.getPathways().toArray();
+				l.names = new String[paths.length];
+				l.ids = new int[paths.length];
+				for (int i=0; i<paths.length; i++){
+					l.names[i] = paths[i].name;
+					l.ids[i] = paths[i].id;
+				}
+				l.index = new PathwayNameIndex(l.names);
+				return l;
+			}
+			
+			@Override
+			protected void done() {
+				Loaded loaded;
+				try {
+					loaded = get();
+				} catch (Exception e) {
+					System.err.println("Unable to fetch pathways of " + PathwayPicker.this.orgName + ": " + e);
+					PathwayPicker.this.statusLabel.setText("Pathways of " + PathwayPicker.this.orgName + " could not be fetched");
+					return;
+				}
+				PathwayPicker.this.orgm = loaded.orgm;
+				PathwayPicker.this.filtering = true;
+				try {
+					PathwayPicker.this.listmod.setPathways(loaded.names, loaded.ids, loaded.index);
+				} finally {
+					PathwayPicker.this.filtering = false;
+				}
+				PathwayPicker.this.updateStatus();
+			}
+		}.execute();
+		//modal, returns once the user closed the dialog
+		this.setVisible(true);
+		this.dispose();
+		return this.chosenPaths;
+	}
+	
+	/**
+	 * @return organism whose pathways were listed, null if it could not be fetched
+	 */
+	public Organism getOrganism(){
+		return this.orgm;
+	}
+	
+	/**
+	 * narrow the list to the pathways matching the filter text
+	 */
+	private void applyFilter(){
+		this.filtering = true;
+		try {
+			this.listmod.setFilter(this.filterField.getText());
+			//select the listed pathways that were selected under an earlier filter
+			ListSelectionModel sel = this.list.getSelectionModel();
+			sel.setValueIsAdjusting(true);
+			for (int row=0; row<this.listmod.getSize(); row++){
+				if (this.selectedIds.contains(this.listmod.getPathwayId(row))){
+					sel.addSelectionInterval(row, row);
+				}
+			}
+			sel.setValueIsAdjusting(false);
+		} finally {
+			this.filtering = false;
+		}
+		if (this.orgm != null){
+			this.updateStatus();
+		}
+	}
+	
+	/**
+	 * bring the selected ids up to date with the rows whose selection the user changed
+	 * @param first first row that may have changed
+	 * @param last last row that may have changed
+	 */
+	private void selectionChanged(int first, int last){
+		if (this.filtering){
+			return;
+		}
+		for (int row=first; row<=last && row<this.listmod.getSize(); row++){
+			int id = this.listmod.getPathwayId(row);
+			if (this.list.isSelectedIndex(row)){
+				this.selectedIds.add(id);
+			} else {
+				this.selectedIds.remove(id);
+			}
+		}
+		if (this.orgm != null){
+			this.updateStatus();
+		}
+	}
+	
+	/**
+	 * show how many pathways are listed and selected
+	 */
+	private void updateStatus(){
+		this.statusLabel.setText(this.listmod.getSize() + " of " + this.listmod.getPathwayCount() + " pathways, " +
+				this.selectedIds.size() + " selected");
+	}
+	
+	/**
+	 * organism and pathways fetched in the background
+	 */
+	private static class Loaded {
+		Organism orgm; //organism whose pathways were fetched
+		String[] names; //names of the pathways
+		int[] ids; //ids of the pathways, in the same order as the names
+		PathwayNameIndex index; //index over the names
+	}
+}
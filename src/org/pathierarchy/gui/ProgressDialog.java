@@ -0,0 +1,134 @@
+package org.pathierarchy.gui;
+
+import java.awt.BorderLayout;
+import java.awt.GridLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.Timer;
+
+import org.pathierarchy.xml.ExportMonitor;
+
+/**
+ * @author Divya Mistry
+ * ProgressDialog shows the progress of an export running in the background:
+ * pathways processed out of the total, throughput and estimated time left.
+ * The dialog polls the export's {@link ExportMonitor} a few times per second,
+ * so the export itself never has to touch the UI. Cancel asks the export to
+ * stop at the next pathway.
+ */
+public class ProgressDialog extends JDialog{
+	private static final long serialVersionUID = 1L;
+	private static final int REFRESH_MILLIS = 250; //how often the monitor is polled
+	
+	private ExportMonitor monitor; //progress of the export being shown
+	private JLabel phaseLabel; //what the export is currently doing
+	private JProgressBar progressBar; //pathways processed out of the total
+	private JLabel rateLabel; //throughput and time left
+	private JButton cancelbtn; //button to stop the export
+	private Timer refresher; //polls the monitor on the event dispatch thread
+	
+	/**
+	 * constructor to prepare the dialog, which is shown with {@link #start()}
+	 * @param owner window the dialog belongs to
+	 * @param title title of the dialog
+	 * @param mon monitor of the export to be shown
+	 */
+	public ProgressDialog(JFrame owner, String title, ExportMonitor mon){
+		super(owner, title, false);
+		this.monitor = mon;
+		this.setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
+		this.setResizable(false);
+		
+		this.phaseLabel = new JLabel(" ");
+		this.progressBar = new JProgressBar();
+		this.progressBar.setStringPainted(true);
+		this.rateLabel = new JLabel(" ");
+		this.cancelbtn = new JButton("Cancel");
+		this.cancelbtn.addActionListener(new ActionListener(){
+			//stop the export at the next pathway, the dialog closes once it has stopped
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				ProgressDialog.this.monitor.cancel();
+				ProgressDialog.this.cancelbtn.setEnabled(false);
+				ProgressDialog.this.cancelbtn.setText("Cancelling...");
+			}
+		});
+		
+		JPanel info = new JPanel(new GridLayout(3,1));
+		info.add(this.phaseLabel);
+		info.add(this.progressBar);
+		info.add(this.rateLabel);
+		JPanel panel = new JPanel(new BorderLayout());
+		panel.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+		panel.add(info, BorderLayout.CENTER);
+		panel.add(this.cancelbtn, BorderLayout.SOUTH);
+		this.setContentPane(panel);
+		this.setSize(360, 140);
+		this.setLocationRelativeTo(owner);
+		
+		this.refresher = new Timer(REFRESH_MILLIS, new ActionListener(){
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				ProgressDialog.this.refresh();
+			}
+		});
+	}
+	
+	/**
+	 * show the dialog and start following the export
+	 */
+	public void start(){
+		this.refresh();
+		this.refresher.start();
+		this.setVisible(true);
+	}
+	
+	/**
+	 * stop following the export and close the dialog
+	 */
+	public void finish(){
+		this.refresher.stop();
+		this.setVisible(false);
+		this.dispose();
+	}
+	
+	/**
+	 * update the labels and progress bar from the monitor
+	 */
+	private void refresh(){
+		this.phaseLabel.setText(this.monitor.getPhase());
+		int total = this.monitor.getTotal();
+		int done = this.monitor.getDone();
+		if (total < 0){
+			//amount of work is not known yet, e.g. while the hierarchy is loaded
+			this.progressBar.setIndeterminate(true);
+			this.progressBar.setString("");
+			this.rateLabel.setText(" ");
+			return;
+		}
+		this.progressBar.setIndeterminate(false);
+		this.progressBar.setMaximum(Math.max(total, 1));
+		this.progressBar.setValue(done);
+		this.progressBar.setString(done + " of " + total + " pathways");
+		long left = this.monitor.getRemainingMillis();
+		this.rateLabel.setText(String.format("%.1f pathways/s, %s left", this.monitor.getThroughput(),
+				left < 0 ? "estimating time" : formatTime(left)));
+	}
+	
+	/**
+	 * @param millis duration in milliseconds
+	 * @return duration as m:ss
+	 */
+	private static String formatTime(long millis){
+		long secs = (millis + 999) / 1000;
+		return String.format("%d:%02d", secs / 60, secs % 60);
+	}
+}
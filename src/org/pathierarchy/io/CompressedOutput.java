@@ -0,0 +1,49 @@
+package org.pathierarchy.io;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * opens output files as plain or gzip compressed streams, so that the
+ * exporters do not need to know how their output is stored.
+ * @author Divya Mistry
+ *
+ */
+public class CompressedOutput {
+	public static final String GZIP_SUFFIX = ".gz"; //added to the name of gzip compressed files
+	private static final int BUFFER_SIZE = 64 * 1024; //bytes buffered before the file is written
+	
+	/**
+	 * open a file for writing
+	 * @param f file to be written
+	 * @param gzip true to gzip compress the file
+	 * @param threads number of threads compressing at the same time, more than 1 compresses blocks
+	 *        in parallel where the JVM supports it ({@link ParallelGZIPOutputStream#isSupported()})
+	 * @return buffered stream writing to the file
+	 * @throws IOException if the file could not be created
+	 */
+	public static OutputStream open(File f, boolean gzip, int threads) throws IOException {
+		OutputStream file = new FileOutputStream(f);
+		if (!gzip){
+			return new BufferedOutputStream(file, BUFFER_SIZE);
+		}
+		if (threads > 1 && ParallelGZIPOutputStream.isSupported()){
+			return new ParallelGZIPOutputStream(new BufferedOutputStream(file, BUFFER_SIZE), threads);
+		}
+		return new GZIPOutputStream(file, BUFFER_SIZE);
+	}
+	
+	/**
+	 * @param name name of an uncompressed file
+	 * @param gzip true if the file is gzip compressed
+	 * @return name of the file as stored
+	 */
+	public static String fileName(String name, boolean gzip){
+		return gzip ? name + GZIP_SUFFIX : name;
+	}
+}
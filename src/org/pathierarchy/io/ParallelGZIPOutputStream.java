@@ -0,0 +1,294 @@
+package org.pathierarchy.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+
+/**
+ * gzip output stream that compresses blocks of the data on several threads, the
+ * way pigz does. Every block is deflated on its own, primed with the end of the
+ * block before it, and ended with a sync flush, which closes it on a byte boundary
+ * without ending the deflate stream. The compressed blocks are written in order
+ * between a single gzip header and trailer, while the CRC and length of the data
+ * are computed in order on the writing thread. The result is one ordinary gzip
+ * member, which any gzip reader, including java.util.zip.GZIPInputStream of
+ * Java 6, reads in full.
+ *
+ * Sync flushes are only available from Java 7 on, see {@link #isSupported()}.
+ * At most two blocks per thread are held in memory at the same time, so a
+ * slow disk holds up the writer instead of filling the heap.
+ * @author Divya Mistry
+ *
+ */
+public class ParallelGZIPOutputStream extends OutputStream {
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 20; //bytes deflated by one thread at a time
+	private static final int DICTIONARY_SIZE = 32 * 1024; //deflate window, primed from the previous block
+	private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+	
+	//Deflater.deflate(byte[], int, int, int) and Deflater.SYNC_FLUSH, looked up at runtime
+	//  since they are not part of Java 6. null if the running JVM does not have them
+	private static final Method SYNC_DEFLATE;
+	private static final int SYNC_FLUSH = 2;
+	static {
+		Method m = null;
+		try {
+			m = Deflater.class.getMethod("deflate", byte[].class, int.class, int.class, int.class);
+		} catch (NoSuchMethodException e) {
+			//Java 6, blocks can not be compressed independently
+		}
+		SYNC_DEFLATE = m;
+	}
+	
+	private OutputStream out; //stream the gzip member is written to
+	private ExecutorService pool; //threads compressing the blocks
+	private int maxPending; //blocks compressed or waiting to be written at most
+	private LinkedList<Future<byte[]>> pending; //compressed blocks not written yet, in order
+	private byte[] block; //block being filled
+	private int count; //bytes in the block being filled
+	private byte[] previous = null; //last block handed to the threads, its end primes the next one
+	private int previousCount = 0;
+	private int blockSize;
+	private CRC32 crc = new CRC32(); //checksum of the uncompressed data, in order
+	private long size = 0; //uncompressed bytes
+	private boolean closed = false;
+	
+	/**
+	 * @return true if the running JVM can compress blocks independently (Java 7 and later).
+	 *         Where it can not, a plain GZIPOutputStream has to be used instead.
+	 */
+	public static boolean isSupported(){
+		return SYNC_DEFLATE != null;
+	}
+	
+	/**
+	 * constructor with the default block size
+	 * @param out stream the gzip data is written to, closed by {@link #close()}
+	 * @param threads number of threads compressing at the same time
+	 * @throws IOException if the gzip header could not be written
+	 */
+	public ParallelGZIPOutputStream(OutputStream out, int threads) throws IOException {
+		this(out, threads, DEFAULT_BLOCK_SIZE);
+	}
+	
+	/**
+	 * constructor
+	 * @param out stream the gzip data is written to, closed by {@link #close()}
+	 * @param threads number of threads compressing at the same time
+	 * @param blockSize bytes deflated by one thread at a time
+	 * @throws IOException if the gzip header could not be written
+	 * @throws UnsupportedOperationException if the JVM can not compress blocks independently
+	 */
+	public ParallelGZIPOutputStream(OutputStream out, int threads, int blockSize) throws IOException {
+		if (!isSupported()){
+			throw new UnsupportedOperationException("Parallel gzip compression needs Java 7 or later");
+		}
+		this.out = out;
+		this.blockSize = blockSize;
+		this.block = new byte[blockSize];
+		this.maxPending = Math.max(1, threads) * 2;
+		this.pending = new LinkedList<Future<byte[]>>();
+		this.pool = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable r) {
+				//never keep the jvm alive for a stream that was not closed
+				Thread t = new Thread(r, "gzip-block");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this.out.write(HEADER);
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		this.block[this.count++] = (byte) b;
+		if (this.count == this.blockSize){
+			submitBlock(false);
+		}
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		while (len > 0){
+			int n = Math.min(len, this.blockSize - this.count);
+			System.arraycopy(b, off, this.block, this.count, n);
+			this.count += n;
+			off += n;
+			len -= n;
+			if (this.count == this.blockSize){
+				submitBlock(false);
+			}
+		}
+	}
+	
+	/**
+	 * compress and write everything written so far. Every flush ends a block
+	 * early, so flushing often makes the output larger.
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		if (this.count > 0){
+			submitBlock(false);
+		}
+		while (!this.pending.isEmpty()){
+			writeOldest();
+		}
+		this.out.flush();
+	}
+	
+	/**
+	 * write the remaining data and the gzip trailer, stop the compressing threads
+	 * and close the underlying stream
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.closed){
+			return;
+		}
+		try {
+			//the last block ends the deflate stream, even if it is empty
+			submitBlock(true);
+			while (!this.pending.isEmpty()){
+				writeOldest();
+			}
+			writeTrailer();
+		} finally {
+			this.closed = true;
+			this.pool.shutdownNow();
+			this.out.close();
+		}
+	}
+	
+	/**
+	 * hand the filled part of the block to the compressing threads, waiting for
+	 * the oldest block to be written if too many are in flight
+	 * @param last true if the block ends the stream
+	 */
+	private void submitBlock(final boolean last) throws IOException {
+		final byte[] data = this.block;
+		final int len = this.count;
+		final byte[] dict = this.previous;
+		final int dictLen = this.previousCount;
+		//the checksum covers the data in the order it is written
+		this.crc.update(data, 0, len);
+		this.size += len;
+		if (len > 0){
+			this.previous = data;
+			this.previousCount = len;
+		}
+		this.block = new byte[this.blockSize];
+		this.count = 0;
+		this.pending.add(this.pool.submit(new Callable<byte[]>(){
+			@Override
+			public byte[] call() throws IOException {
+				return compress(data, len, dict, dictLen, last);
+			}
+		}));
+		while (this.pending.size() > this.maxPending){
+			writeOldest();
+		}
+	}
+	
+	/**
+	 * wait for the oldest block to be compressed and write it
+	 */
+	private void writeOldest() throws IOException {
+		Future<byte[]> oldest = this.pending.removeFirst();
+		try {
+			this.out.write(oldest.get());
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof IOException ? (IOException) cause : new IOException("Block compression failed", cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while compressing");
+		}
+	}
+	
+	/**
+	 * write the CRC and length of the uncompressed data, little-endian as gzip wants them
+	 */
+	private void writeTrailer() throws IOException {
+		byte[] trailer = new byte[8];
+		writeIntLE(trailer, 0, (int) this.crc.getValue());
+		writeIntLE(trailer, 4, (int) this.size);
+		this.out.write(trailer);
+	}
+	
+	private static void writeIntLE(byte[] b, int off, int v){
+		b[off] = (byte) v;
+		b[off + 1] = (byte) (v >>> 8);
+		b[off + 2] = (byte) (v >>> 16);
+		b[off + 3] = (byte) (v >>> 24);
+	}
+	
+	/**
+	 * @param data block to be compressed
+	 * @param len number of bytes of the block in use
+	 * @param dict block before this one, null for the first block
+	 * @param dictLen number of bytes of <i>dict</i> in use
+	 * @param last true to end the deflate stream with this block, false to end it with a sync flush
+	 * @return raw deflate data of the block
+	 * @throws IOException if the sync flush could not be called
+	 */
+	private static byte[] compress(byte[] data, int len, byte[] dict, int dictLen, boolean last) throws IOException {
+		Deflater def = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			if (dict != null){
+				int n = Math.min(dictLen, DICTIONARY_SIZE);
+				def.setDictionary(dict, dictLen - n, n);
+			}
+			def.setInput(data, 0, len);
+			ByteArrayOutputStream bos = new ByteArrayOutputStream(len / 3 + 64);
+			byte[] buf = new byte[64 * 1024];
+			if (last){
+				def.finish();
+				while (!def.finished()){
+					bos.write(buf, 0, def.deflate(buf));
+				}
+			} else {
+				//a full buffer may mean the flush is not done yet
+				int n;
+				do {
+					n = syncDeflate(def, buf);
+					bos.write(buf, 0, n);
+				} while (n == buf.length);
+			}
+			return bos.toByteArray();
+		} finally {
+			def.end();
+		}
+	}
+	
+	private static int syncDeflate(Deflater def, byte[] buf) throws IOException {
+		try {
+			return (Integer) SYNC_DEFLATE.invoke(def, buf, 0, buf.length, SYNC_FLUSH);
+		} catch (IllegalAccessException e) {
+			throw new IOException("Unable to flush a compressed block", e);
+		} catch (InvocationTargetException e) {
+			throw new IOException("Unable to flush a compressed block", e.getCause());
+		}
+	}
+	
+	private void ensureOpen() throws IOException {
+		if (this.closed){
+			throw new IOException("Stream closed");
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package org.pathierarchy.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * lock-free histogram of operation latencies. Latencies fall into buckets
+ * that double in width ([1,2)us, [2,4)us, ...), so percentiles are accurate
+ * to a factor of two, which is enough to spot regressions at a low cost per call.
+ * @author Divya Mistry
+ *
+ */
+public class LatencyHistogram {
+	private static final int BUCKETS = 40; //up to 2^40us, about 12 days
+	
+	private AtomicLongArray buckets = new AtomicLongArray(BUCKETS); //number of latencies per bucket
+	private AtomicLong count = new AtomicLong(); //number of recorded latencies
+	private AtomicLong totalNanos = new AtomicLong(); //sum of recorded latencies
+	private AtomicLong maxNanos = new AtomicLong(); //largest recorded latency
+	
+	/**
+	 * record a latency
+	 * @param nanos latency in nanoseconds
+	 */
+	public void record(long nanos){
+		if (nanos < 0){
+			nanos = 0;
+		}
+		long micros = nanos / 1000;
+		int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+		this.buckets.incrementAndGet(bucket);
+		this.count.incrementAndGet();
+		this.totalNanos.addAndGet(nanos);
+		long max;
+		while (nanos > (max = this.maxNanos.get())){
+			if (this.maxNanos.compareAndSet(max, nanos)){
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * @return number of recorded latencies
+	 */
+	public long getCount(){
+		return this.count.get();
+	}
+	
+	/**
+	 * @return sum of the recorded latencies in nanoseconds
+	 */
+	public long getTotalNanos(){
+		return this.totalNanos.get();
+	}
+	
+	/**
+	 * @return largest recorded latency in nanoseconds
+	 */
+	public long getMaxNanos(){
+		return this.maxNanos.get();
+	}
+	
+	/**
+	 * @param fraction fraction of the latencies, e.g. 0.95
+	 * @return upper bound in microseconds of the bucket holding that fraction of the latencies, 0 if none were recorded
+	 */
+	public long percentileMicros(double fraction){
+		long all = this.count.get();
+		if (all == 0){
+			return 0;
+		}
+		long wanted = (long) Math.ceil(all * fraction);
+		long seen = 0;
+		for (int i=0; i<BUCKETS; i++){
+			seen += this.buckets.get(i);
+			if (seen >= wanted){
+				return 1L << (i + 1);
+			}
+		}
+		return 1L << BUCKETS;
+	}
+}
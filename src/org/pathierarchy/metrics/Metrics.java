@@ -0,0 +1,219 @@
+package org.pathierarchy.metrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * process wide counters and latency histograms of the work done by an export:
+ * MetNetDB round trips, XML transformation, network building, bytes written.
+ * Operations are timed with
+ * <pre>
+ *   long t = Metrics.start();
+ *   ...
+ *   Metrics.stop("db.getChildren", t);
+ * </pre>
+ * and a summary of everything recorded is printed with {@link #dump(PrintStream)}
+ * at the end of a run. Optionally every pathway level event (one network built,
+ * one file written) is also appended to a tab separated event log, for a closer
+ * look at slow pathways. The log is started by {@link #setEventLog(File)}, or for
+ * any of the programs by running it with -Dpathierarchy.eventLog=&lt;file&gt;.
+ * @author Divya Mistry
+ *
+ */
+public class Metrics {
+	private static volatile boolean enabled = true; //record anything at all
+	private static ConcurrentHashMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<String, LatencyHistogram>();
+	private static ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+	private static PrintWriter eventLog = null; //pathway level events, null if not logged
+	private static long since = System.currentTimeMillis(); //time in millis when recording started
+	
+	public static final String EVENT_LOG_PROPERTY = "pathierarchy.eventLog"; //system property naming the event log file
+	static {
+		String log = System.getProperty(EVENT_LOG_PROPERTY);
+		if (log != null && log.length() > 0){
+			try {
+				setEventLog(new File(log));
+				//events are buffered, so the log is closed however the program ends
+				Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+					@Override
+					public void run() {
+						try {
+							setEventLog(null);
+						} catch (IOException e) {
+							//closing never opens a file
+						}
+					}
+				}, "metrics-event-log"));
+			} catch (IOException e) {
+				System.err.println("Unable to open event log " + log + ": " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Choose whether anything is recorded
+	 * @param on false to turn all the recording calls into no-ops
+	 */
+	public static void setEnabled(boolean on){
+		enabled = on;
+	}
+	
+	/**
+	 * Append pathway level events to a tab separated file:
+	 * time in millis, operation, pathway id, pathway name, latency in microseconds, bytes
+	 * @param f file the events are appended to, null to stop logging events
+	 * @throws IOException if the file could not be opened
+	 */
+	public static synchronized void setEventLog(File f) throws IOException {
+		if (eventLog != null){
+			eventLog.close();
+			eventLog = null;
+		}
+		if (f != null){
+			eventLog = new PrintWriter(new FileWriter(f, true));
+		}
+	}
+	
+	/**
+	 * @return start time of an operation, to be passed to {@link #stop(String, long)}
+	 */
+	public static long start(){
+		return System.nanoTime();
+	}
+	
+	/**
+	 * record the latency of an operation
+	 * @param op name of the operation, e.g. db.getEntities
+	 * @param start value of {@link #start()} when the operation started
+	 * @return latency of the operation in nanoseconds
+	 */
+	public static long stop(String op, long start){
+		long nanos = System.nanoTime() - start;
+		if (enabled){
+			histogram(op).record(nanos);
+		}
+		return nanos;
+	}
+	
+	/**
+	 * add to a counter
+	 * @param counter name of the counter
+	 * @param n amount to be added
+	 */
+	public static void add(String counter, long n){
+		if (!enabled){
+			return;
+		}
+		AtomicLong c = counters.get(counter);
+		if (c == null){
+			AtomicLong created = new AtomicLong();
+			c = counters.putIfAbsent(counter, created);
+			if (c == null){
+				c = created;
+			}
+		}
+		c.addAndGet(n);
+	}
+	
+	/**
+	 * count a file written by an export, and its size
+	 * @param kind kind of file, e.g. xml or xgmml
+	 * @param f file that was written
+	 * @return size of the file in bytes
+	 */
+	public static long fileWritten(String kind, File f){
+		long bytes = f.length();
+		add("files." + kind, 1);
+		add("bytes." + kind, bytes);
+		return bytes;
+	}
+	
+	/**
+	 * log an event of a single pathway, if an event log is set
+	 * @param op name of the operation
+	 * @param pathwayId id of the pathway
+	 * @param pathway name of the pathway
+	 * @param nanos latency of the operation in nanoseconds
+	 * @param bytes bytes written by the operation, 0 if none
+	 */
+	public static void pathwayEvent(String op, int pathwayId, String pathway, long nanos, long bytes){
+		if (!enabled || eventLog == null){
+			return;
+		}
+		synchronized (Metrics.class){
+			if (eventLog != null){
+				eventLog.println(System.currentTimeMillis() + "\t" + op + "\t" + pathwayId + "\t" + pathway + "\t" +
+						(nanos / 1000) + "\t" + bytes);
+			}
+		}
+	}
+	
+	/**
+	 * forget everything recorded so far
+	 */
+	public static void reset(){
+		latencies.clear();
+		counters.clear();
+		since = System.currentTimeMillis();
+	}
+	
+	/**
+	 * @param op name of the operation
+	 * @return latency histogram of the operation, null if it was never recorded
+	 */
+	public static LatencyHistogram getLatency(String op){
+		return latencies.get(op);
+	}
+	
+	/**
+	 * @param counter name of the counter
+	 * @return value of the counter, 0 if it was never added to
+	 */
+	public static long getCount(String counter){
+		AtomicLong c = counters.get(counter);
+		return c == null ? 0 : c.get();
+	}
+	
+	/**
+	 * print everything recorded so far, operations and counters sorted by name
+	 * @param out stream the summary is printed to
+	 */
+	public static synchronized void dump(PrintStream out){
+		out.println("Metrics for the last " + (System.currentTimeMillis() - since) / 1000.0 + "s");
+		out.println(String.format("%-24s %9s %11s %9s %9s %9s %9s %9s",
+				"operation", "calls", "total ms", "mean us", "p50 us", "p95 us", "p99 us", "max us"));
+		for (Map.Entry<String, LatencyHistogram> e:new TreeMap<String, LatencyHistogram>(latencies).entrySet()){
+			LatencyHistogram h = e.getValue();
+			long calls = h.getCount();
+			out.println(String.format("%-24s %9d %11.1f %9d %9d %9d %9d %9d", e.getKey(), calls,
+					h.getTotalNanos() / 1e6, calls == 0 ? 0 : h.getTotalNanos() / calls / 1000,
+					h.percentileMicros(0.5), h.percentileMicros(0.95), h.percentileMicros(0.99), h.getMaxNanos() / 1000));
+		}
+		for (Map.Entry<String, AtomicLong> e:new TreeMap<String, AtomicLong>(counters).entrySet()){
+			out.println(String.format("%-24s %9d", e.getKey(), e.getValue().get()));
+		}
+		if (eventLog != null){
+			eventLog.flush();
+		}
+	}
+	
+	private static LatencyHistogram histogram(String op){
+		LatencyHistogram h = latencies.get(op);
+		if (h == null){
+			LatencyHistogram created = new LatencyHistogram();
+			h = latencies.putIfAbsent(op, created);
+			if (h == null){
+				h = created;
+			}
+		}
+		return h;
+	}
+}
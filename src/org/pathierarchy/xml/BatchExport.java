@@ -0,0 +1,462 @@
+package org.pathierarchy.xml;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.pathierarchy.data.CompactNameTable;
+import org.pathierarchy.data.MetNetSource;
+import org.pathierarchy.data.PClassLoader;
+import org.pathierarchy.data.PClassNode;
+import org.pathierarchy.data.PClassTree;
+import org.pathierarchy.data.PathwayCatalog;
+import org.pathierarchy.data.PathwayPrefetcher;
+import org.pathierarchy.data.PathwaySource;
+import org.pathierarchy.metrics.Metrics;
+
+import edu.iastate.metnet.Organism;
+import edu.iastate.metnet.Pathway;
+
+/**
+ * BatchExport exports the ontology XML (and optionally the XGMML files) of many
+ * organisms in one process. Each organism passes through three stages that run
+ * on their own threads and are connected by bounded queues, so that waiting on
+ * MetNetDB for one organism overlaps with writing the files of another:
+ *  -- fetch: bulk load the class hierarchy, pathway names and entities
+ *  -- assemble: build the hierarchy tree in memory
+ *  -- write: stream the XML and export the XGMML files
+ * A timing summary of every organism is printed once all of them are done.
+ * 
+ * @author Divya Mistry
+ */
+public class BatchExport {
+	private String dirloc; //directory where the files are created
+	private String[] entityTypes; //types of the entities included in the ontology XML
+	private boolean includeEmptyClasses;
+	private boolean includeXGMML; //also export every pathway of the organism to XGMML
+	private int queueCapacity = 2; //organisms waiting between two stages
+	private int xgmmlWorkers = 4; //pathways exported to XGMML at the same time
+	private boolean incrementalXGMML = false; //skip XGMML files of unchanged pathways
+	private boolean resumeXGMML = true; //skip XGMML files finished by an unfinished earlier export
+	private boolean archiveXGMML = false; //write the XGMML files of an organism into one zip archive
+	private boolean mergeXGMML = false; //write the pathways of an organism as one XGMML network
+	private boolean gzip = false; //gzip compress the ontology XML files
+	private int gzipThreads = 1; //threads compressing blocks of an XML file at the same time
+	private boolean binaryFormat = false; //write the hierarchies in the binary format instead of XML
+	private PathwaySource source = new MetNetSource(); //where the organisms' data come from
+	
+	//class names are shared by the trees of all the organisms
+	private CompactNameTable classNames = new CompactNameTable();
+	
+	//marks the end of the organism list in the queues
+	private static final Job END = new Job(null);
+	
+	//error that stopped the stages, e.g. OutOfMemoryError, null while they run.
+	//  the organisms after it are still passed along, without any work, so no stage waits forever
+	private volatile Error stopped = null;
+	
+	/**
+	 * progress and timing of a single organism through the stages
+	 */
+	private static class Job {
+		String organism;
+		Organism orgm;
+		PClassLoader loader;
+		PathwayCatalog catalog;
+		Pathway[] pathways; //only fetched for XGMML
+		PClassNode tree;
+		long fetchMillis, assembleMillis, writeMillis;
+		int xgmmlFailures;
+		Exception failure; //first error, the organism skips the remaining stages
+		boolean finished; //the write stage is done with the organism
+		
+		Job(String organism){
+			this.organism = organism;
+		}
+	}
+	
+	/**
+	 * constructor
+	 * @param dirLocation directory location where the generated files will be saved
+	 * @param incrna if rna entities are to be included in xml set it to true, else false
+	 * @param incgene if gene entities are to be included in xml set it to true, else false
+	 * @param incemptyclasses if true, include empty pathways classes in xml, if false, do otherwise
+	 * @param incxgmml if true, also export each organism's pathways to XGMML files in a
+	 *        subdirectory named after the organism
+	 */
+	public BatchExport(String dirLocation, boolean incrna, boolean incgene, boolean incemptyclasses, boolean incxgmml){
+		this(dirLocation, PathwaysToXML.entityTypes(incrna, incgene), incemptyclasses, incxgmml);
+	}
+	
+	/**
+	 * constructor
+	 * @param dirLocation directory location where the generated files will be saved
+	 * @param types types of the entities to be included in xml (e.g. EntityType.PROTEIN)
+	 * @param incemptyclasses if true, include empty pathways classes in xml, if false, do otherwise
+	 * @param incxgmml if true, also export each organism's pathways to XGMML files in a
+	 *        subdirectory named after the organism
+	 */
+	public BatchExport(String dirLocation, String[] types, boolean incemptyclasses, boolean incxgmml){
+		this.dirloc = dirLocation;
+		this.entityTypes = PathwaysToXML.distinctTypes(types);
+		this.includeEmptyClasses = incemptyclasses;
+		this.includeXGMML = incxgmml;
+	}
+	
+	/**
+	 * Set how many organisms may wait between two stages
+	 * @param capacity capacity of each queue, at least 1
+	 */
+	public void setQueueCapacity(int capacity){
+		this.queueCapacity = Math.max(1, capacity);
+	}
+	
+	/**
+	 * Set how many pathways of an organism are exported to XGMML at the same time
+	 * @param workers number of concurrent exports
+	 */
+	public void setXGMMLWorkers(int workers){
+		this.xgmmlWorkers = workers;
+	}
+	
+	/**
+	 * Choose whether XGMML files of pathways that did not change since the last
+	 * batch export are kept instead of being rebuilt
+	 * @param incr true to skip unchanged pathways, false to export every pathway
+	 */
+	public void setIncrementalXGMML(boolean incr){
+		this.incrementalXGMML = incr;
+	}
+	
+	/**
+	 * Choose whether XGMML files finished by an earlier batch export of the same
+	 * pathways, which stopped before all of them were done, are kept instead of
+	 * being rebuilt
+	 * @param res true to resume unfinished exports, false to export every pathway again
+	 */
+	public void setResumeXGMML(boolean res){
+		this.resumeXGMML = res;
+	}
+	
+	/**
+	 * Choose whether the XGMML files of an organism are written into one
+	 * zip archive, <organism>.xgmml.zip, instead of a directory per organism
+	 * @param zip true to archive the XGMML files
+	 */
+	public void setXGMMLArchive(boolean zip){
+		this.archiveXGMML = zip;
+	}
+	
+	/**
+	 * Choose whether the pathways of an organism are written as one XGMML network,
+	 * <organism>.network.xgmml.xml, instead of a file per pathway. Takes precedence
+	 * over the archive and incremental XGMML settings.
+	 * @param merge true to merge the pathways of each organism
+	 */
+	public void setMergedXGMML(boolean merge){
+		this.mergeXGMML = merge;
+	}
+	
+	/**
+	 * Choose whether the ontology XML files are gzip compressed while they are written
+	 * @param gz true to compress the files
+	 * @param threads number of threads compressing blocks of a file at the same time,
+	 *        1 for a plain gzip stream
+	 */
+	public void setCompression(boolean gz, int threads){
+		this.gzip = gz;
+		this.gzipThreads = threads;
+	}
+	
+	/**
+	 * Choose whether the hierarchies are written in the binary format of
+	 * {@link BinaryHierarchyWriter} instead of ontology XML
+	 * @param bin true to write the binary format, false to write XML
+	 */
+	public void setBinaryFormat(boolean bin){
+		this.binaryFormat = bin;
+	}
+	
+	/**
+	 * Choose where the hierarchies, pathways and entities come from. Default is a live
+	 * MetNetDB; with any other source the fetch stage reads the organism through the
+	 * source instead of bulk loading it. XGMML exports always need MetNetDB.
+	 * @param src source of the organisms' data
+	 */
+	public void setSource(PathwaySource src){
+		this.source = src;
+	}
+	
+	/**
+	 * export all the given organisms and print a timing summary
+	 * @param organisms names of the organisms, all the organisms of the source if null or empty
+	 * @return true if every organism was exported without errors, false otherwise
+	 * @throws Error if a stage ran into one, e.g. an OutOfMemoryError, after the summary is printed
+	 */
+	public boolean run(String[] organisms){
+		this.stopped = null;
+		if (organisms == null || organisms.length == 0){
+			organisms = this.source.getOrganismNames();
+		}
+		final List<Job> jobs = new ArrayList<Job>();
+		for (String o:organisms){
+			jobs.add(new Job(o));
+		}
+		
+		final BlockingQueue<Job> fetched = new ArrayBlockingQueue<Job>(this.queueCapacity);
+		final BlockingQueue<Job> assembled = new ArrayBlockingQueue<Job>(this.queueCapacity);
+		Thread assembler = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				relay(fetched, assembled, false);
+			}
+		}, "BatchExport-assemble");
+		Thread writer = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				relay(assembled, null, true);
+			}
+		}, "BatchExport-write");
+		assembler.start();
+		writer.start();
+		
+		long start = System.currentTimeMillis();
+		try {
+			//fetch stage runs on the calling thread
+			for (Job job:jobs){
+				if (this.stopped != null){
+					break;
+				}
+				try {
+					fetch(job);
+				} catch (Error e) {
+					stop(e);
+					break;
+				}
+				fetched.put(job);
+			}
+			fetched.put(END);
+			assembler.join();
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			assembler.interrupt();
+			writer.interrupt();
+			System.err.println("Batch export interrupted");
+		}
+		Error e = this.stopped;
+		if (e != null){
+			for (Job job:jobs){
+				if (!job.finished && job.failure == null){
+					job.failure = new IllegalStateException("not exported, the batch export stopped on " + e);
+				}
+			}
+		}
+		boolean ok = printSummary(jobs, System.currentTimeMillis() - start);
+		if (e != null){
+			throw e;
+		}
+		return ok;
+	}
+	
+	/**
+	 * stop the stages after an error none of them can recover from
+	 * @param e error raised by a stage
+	 */
+	private synchronized void stop(Error e){
+		if (this.stopped == null){
+			System.err.println("Batch export stopped: " + e);
+			this.stopped = e;
+		}
+	}
+	
+	/**
+	 * take organisms from one queue, run the assemble or the write stage on them and pass them on.
+	 * Once any stage ran into an error the organisms are passed on without work, down to the
+	 * end of the list, so that neither the stage before nor the one after waits forever.
+	 * @param in queue to take organisms from
+	 * @param out queue to pass organisms to, null for the last stage
+	 * @param write true for the write stage, false for the assemble stage
+	 */
+	private void relay(BlockingQueue<Job> in, BlockingQueue<Job> out, boolean write){
+		try {
+			Job job = in.take();
+			while (job != END){
+				if (this.stopped == null){
+					try {
+						if (write){
+							write(job);
+							job.finished = true;
+						} else {
+							assemble(job);
+						}
+					} catch (Error e) {
+						stop(e);
+					}
+				}
+				if (out != null){
+					out.put(job);
+				}
+				job = in.take();
+			}
+			if (out != null){
+				out.put(END);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * fetch stage: everything an organism needs from MetNetDB to build its XML
+	 */
+	private void fetch(Job job){
+		long start = System.currentTimeMillis();
+		try {
+			job.orgm = this.source.findOrganism(job.organism);
+			if (job.orgm == null){
+				throw new IllegalArgumentException("Unknown organism " + job.organism);
+			}
+			if (!this.source.isLive()){
+				//the source is local, so the tree is as quickly built right here
+				job.tree = new PClassTree(job.orgm, this.source).buildTree();
+				job.catalog = PathwayCatalog.fetch(job.tree,
+						this.entityTypes, this.source);
+				if (this.includeXGMML){
+					//XGMML networks are built from MetNetDB whatever the source
+					job.pathways = Organism.identify(job.organism).getPathways().toArray();
+				}
+				job.fetchMillis = System.currentTimeMillis() - start;
+				return;
+			}
+			job.loader = new PClassLoader();
+			job.loader.load(job.orgm);
+			job.catalog = PathwayPrefetcher.prefetch(job.loader.getAllPathwayIds(),
+					this.entityTypes);
+			if (this.includeXGMML){
+				job.pathways = job.orgm.getPathways().toArray();
+			}
+		} catch (SQLException e) {
+			job.failure = e;
+		} catch (RuntimeException e) {
+			job.failure = e;
+		}
+		job.fetchMillis = System.currentTimeMillis() - start;
+	}
+	
+	/**
+	 * assemble stage: build the hierarchy tree in memory
+	 */
+	private void assemble(Job job){
+		if (job.failure != null || job.tree != null){
+			return;
+		}
+		long start = System.currentTimeMillis();
+		try {
+			job.tree = new PClassTree(job.orgm).buildTree(job.loader);
+			job.loader = null; //no longer needed, let it go before the write stage
+		} catch (RuntimeException e) {
+			job.failure = e;
+		}
+		job.assembleMillis = System.currentTimeMillis() - start;
+	}
+	
+	/**
+	 * write stage: stream the XML and export the XGMML files
+	 */
+	private void write(Job job){
+		if (job.failure != null){
+			return;
+		}
+		long start = System.currentTimeMillis();
+		try {
+			PathwaysToXML ptx = new PathwaysToXML(this.dirloc, job.organism, this.entityTypes, this.includeEmptyClasses);
+			ptx.setStreaming(true);
+			ptx.setClassNameTable(this.classNames);
+			ptx.setCompression(this.gzip, this.gzipThreads);
+			ptx.setBinaryFormat(this.binaryFormat);
+			if (!ptx.generateXML(job.tree, job.catalog)){
+				throw new IllegalStateException("XML file of " + job.organism + " could not be written");
+			}
+			if (this.includeXGMML && this.mergeXGMML){
+				XGMMLExporter exporter = new XGMMLExporter(this.dirloc, this.xgmmlWorkers);
+				job.xgmmlFailures = exporter.exportMerged(job.pathways,
+						PathwaysToXML.newMergedWriter(this.dirloc, job.organism, this.gzip, this.gzipThreads)).size();
+			} else if (this.includeXGMML){
+				XGMMLExporter exporter;
+				if (this.archiveXGMML){
+					exporter = new XGMMLExporter(this.dirloc, this.xgmmlWorkers);
+					exporter.setArchive(new File(this.dirloc, job.organism + ".xgmml.zip"));
+				} else {
+					File dir = new File(this.dirloc, job.organism);
+					if (!dir.isDirectory() && !dir.mkdirs()){
+						throw new IllegalStateException("Unable to create directory " + dir.getPath());
+					}
+					exporter = new XGMMLExporter(dir.getPath(), this.xgmmlWorkers);
+				}
+				exporter.setIncremental(this.incrementalXGMML);
+				exporter.setResume(this.resumeXGMML);
+				Map<String, Exception> failures = exporter.export(job.pathways);
+				job.xgmmlFailures = failures.size();
+			}
+		} catch (RuntimeException e) {
+			job.failure = e;
+		}
+		//the files are written, free the organism's data
+		job.tree = null;
+		job.catalog = null;
+		job.pathways = null;
+		job.writeMillis = System.currentTimeMillis() - start;
+	}
+	
+	/**
+	 * print the time every organism spent in each stage
+	 * @return true if every organism was exported without errors, false otherwise
+	 */
+	private boolean printSummary(List<Job> jobs, long totalMillis){
+		boolean ok = true;
+		System.out.println(String.format("%-30s %10s %12s %10s  %s", "Organism", "fetch(ms)", "assemble(ms)", "write(ms)", "status"));
+		for (Job job:jobs){
+			String status = "ok";
+			if (job.failure != null){
+				status = "FAILED: " + job.failure.getMessage();
+				ok = false;
+			} else if (job.xgmmlFailures > 0){
+				status = job.xgmmlFailures + " XGMML failures";
+				ok = false;
+			}
+			System.out.println(String.format("%-30s %10d %12d %10d  %s", job.organism, job.fetchMillis, job.assembleMillis, job.writeMillis, status));
+		}
+		System.out.println(jobs.size() + " organisms exported in " + totalMillis + " ms");
+		return ok;
+	}
+	
+	public static void main(String[] args){
+		if (args.length < 5){
+			System.out.println("Usage: BatchExport <dirloc> <incRNA> <incGene> <incEmptyClasses> <incXGMML> [<orgname> ...]\n");
+			System.out.println("\t<dirloc>  - directory location where the files are to be stored\n" +
+					           "\t<incRNA>  - include RNA entities in the ontology xml (true/false)\n" +
+					           "\t<incGene> - include Gene entities in the ontology xml (true/false)\n" +
+					           "\t<incEmptyClasses> - include PathwayClasses without any child pathways (true/false)\n" +
+					           "\t<incXGMML> - also export every pathway to XGMML, in a directory per organism (true/false)\n" +
+					           "\t<orgname> - organisms to export (e.g. Vitis), all organisms if none are given\n\n" +
+					           "XGMML files of pathways that did not change since the last batch export are kept.\n" +
+					           "Run with -Dpathierarchy.eventLog=<file> to log the time spent on every pathway.\n");
+		} else {
+			String[] orgs = new String[args.length - 5];
+			System.arraycopy(args, 5, orgs, 0, orgs.length);
+			BatchExport be = new BatchExport(args[0],Boolean.parseBoolean(args[1]),Boolean.parseBoolean(args[2]),
+					Boolean.parseBoolean(args[3]),Boolean.parseBoolean(args[4]));
+			be.setIncrementalXGMML(true);
+			boolean ok = be.run(orgs);
+			Metrics.dump(System.out);
+			if (!ok){
+				System.exit(1);
+			}
+		}
+	}
+}
@@ -0,0 +1,412 @@
+package org.pathierarchy.xml;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.GZIPInputStream;
+
+import org.pathierarchy.data.PClassNode;
+import org.pathierarchy.data.PathwayCatalog;
+import org.pathierarchy.data.PathwayEntry;
+import org.pathierarchy.io.CompressedOutput;
+
+import edu.iastate.metnet.Entity;
+
+/**
+ * BinaryHierarchyReader loads a hierarchy file written by {@link BinaryHierarchyWriter}
+ * so downstream tools can load an organism without parsing XML. The classes are loaded
+ * into a hierarchy tree, flagged to have pathways if they or any of their subclasses
+ * hold one. Pathways and entities are kept in flat arrays with each distinct name held
+ * once, and are only turned into a {@link PathwayCatalog} of MetNet entities when
+ * {@link #getCatalog()} asks for one.
+ * 
+ * @author Divya Mistry
+ */
+public class BinaryHierarchyReader {
+	private InputStream in; //stream the hierarchy is read from
+	private byte[] buf = new byte[64 * 1024]; //bytes read from the stream but not parsed yet
+	private int pos = 0; //next byte to be parsed
+	private int limit = 0; //end of the bytes read into buf
+	
+	private String organism; //organism the hierarchy belongs to
+	private String[] types; //entity types held for every pathway
+	private PClassNode root; //root of the hierarchy tree
+	private PathwayCatalog catalog = null; //names and entities of the pathways in the tree, made on demand
+	
+	//pathways in the order they were written, entities of pathway i at [entityStart[i], entityStart[i+1])
+	private String[] strings = new String[1024]; //string table of the file
+	private int stringCount = 0;
+	private int[] pathwayIds = new int[256];
+	private int[] pathwayNames = new int[256]; //string table indices
+	private int[] entityStart = new int[257];
+	private int pathwayCount = 0;
+	private int[] entityTypes = new int[4096]; //indices into types
+	private int[] entityIds = new int[4096];
+	private int[] entityNames = new int[4096]; //string table indices
+	private int entityCount = 0;
+	private HashMap<Integer, Integer> pathwayIndex = new HashMap<Integer, Integer>(); //pathway id -> position
+	
+	private BinaryHierarchyReader(InputStream in){
+		this.in = in;
+	}
+	
+	/**
+	 * read a hierarchy file, gzip compressed if its name ends with .gz
+	 * @param f hierarchy file
+	 * @return reader holding the hierarchy of the file
+	 * @throws IOException if the file can not be read or is not a hierarchy file of the current version
+	 */
+	public static BinaryHierarchyReader read(File f) throws IOException {
+		InputStream in = new FileInputStream(f);
+		try {
+			if (f.getName().endsWith(CompressedOutput.GZIP_SUFFIX)){
+				in = new GZIPInputStream(in, 64 * 1024);
+			}
+			return read(in);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * read a hierarchy from a stream
+	 * @param in stream holding a hierarchy file, which is not closed
+	 * @return reader holding the hierarchy of the stream
+	 * @throws IOException if the stream can not be read or does not hold a hierarchy of the current version
+	 */
+	public static BinaryHierarchyReader read(InputStream in) throws IOException {
+		BinaryHierarchyReader r = new BinaryHierarchyReader(in);
+		r.parse();
+		r.in = null;
+		r.buf = null;
+		return r;
+	}
+	
+	/**
+	 * @return name of the organism the hierarchy belongs to
+	 */
+	public String getOrganism(){
+		return this.organism;
+	}
+	
+	/**
+	 * @return entity types held for every pathway
+	 */
+	public String[] getTypes(){
+		return this.types.clone();
+	}
+	
+	/**
+	 * @return root of the hierarchy tree
+	 */
+	public PClassNode getRoot(){
+		return this.root;
+	}
+	
+	/**
+	 * @return number of distinct pathways in the hierarchy
+	 */
+	public int getPathwayCount(){
+		return this.pathwayCount;
+	}
+	
+	/**
+	 * @param pathwayId id of a pathway
+	 * @return position of the pathway, -1 if it is not in the hierarchy
+	 */
+	public int indexOf(int pathwayId){
+		Integer i = this.pathwayIndex.get(pathwayId);
+		return i == null ? -1 : i;
+	}
+	
+	/**
+	 * @param i position of a pathway, 0 to getPathwayCount() - 1
+	 * @return id of the pathway
+	 */
+	public int getPathwayId(int i){
+		return this.pathwayIds[i];
+	}
+	
+	/**
+	 * @param i position of a pathway
+	 * @return name of the pathway
+	 */
+	public String getPathwayName(int i){
+		return this.strings[this.pathwayNames[i]];
+	}
+	
+	/**
+	 * @param i position of a pathway
+	 * @return number of entities of the pathway, of all types
+	 */
+	public int getEntityCount(int i){
+		return this.entityStart[i + 1] - this.entityStart[i];
+	}
+	
+	/**
+	 * @param i position of a pathway
+	 * @param j position of an entity in the pathway, 0 to getEntityCount(i) - 1
+	 * @return type of the entity, one of {@link #getTypes()}
+	 */
+	public String getEntityType(int i, int j){
+		return this.types[this.entityTypes[this.entityStart[i] + j]];
+	}
+	
+	/**
+	 * @param i position of a pathway
+	 * @param j position of an entity in the pathway
+	 * @return id of the entity
+	 */
+	public int getEntityId(int i, int j){
+		return this.entityIds[this.entityStart[i] + j];
+	}
+	
+	/**
+	 * @param i position of a pathway
+	 * @param j position of an entity in the pathway
+	 * @return name of the entity
+	 */
+	public String getEntityName(int i, int j){
+		return this.strings[this.entityNames[this.entityStart[i] + j]];
+	}
+	
+	/**
+	 * names and entities of the pathways as the export holds them, e.g. to build a
+	 * {@link org.pathierarchy.data.HierarchyIndex} or to export the hierarchy again.
+	 * Made on the first call.
+	 * @return names and entities of the pathways in the tree
+	 */
+	public PathwayCatalog getCatalog(){
+		if (this.catalog == null){
+			PathwayCatalog cat = new PathwayCatalog(this.types);
+			for (int i=0; i<this.pathwayCount; i++){
+				PathwayEntry entry = new PathwayEntry(this.pathwayIds[i], getPathwayName(i));
+				for (String t:this.types){
+					entry.addType(t);
+				}
+				for (int e=this.entityStart[i]; e<this.entityStart[i + 1]; e++){
+					String type = this.types[this.entityTypes[e]];
+					entry.addEntity(type, new Entity(this.entityIds[e], this.strings[this.entityNames[e]], type));
+				}
+				cat.add(entry);
+			}
+			this.catalog = cat;
+		}
+		return this.catalog;
+	}
+	
+	private void parse() throws IOException {
+		if (readInt() != BinaryHierarchyWriter.MAGIC){
+			throw new IOException("Not a hierarchy file");
+		}
+		int version = readInt();
+		if (version != BinaryHierarchyWriter.VERSION){
+			throw new IOException("Hierarchy file version " + version + " is not supported, expected " + BinaryHierarchyWriter.VERSION);
+		}
+		this.organism = readLiteral();
+		this.types = new String[readVarint()];
+		for (int i=0; i<this.types.length; i++){
+			this.types[i] = readLiteral();
+		}
+		this.root = new PClassNode(-1, null);
+		
+		//open classes, innermost last
+		ArrayList<PClassNode> open = new ArrayList<PClassNode>();
+		open.add(this.root);
+		while (true){
+			int tag = readByte();
+			PClassNode current = open.get(open.size() - 1);
+			switch (tag){
+			case BinaryHierarchyWriter.STRING:
+				if (this.stringCount == this.strings.length){
+					String[] grown = new String[this.stringCount * 2];
+					System.arraycopy(this.strings, 0, grown, 0, this.stringCount);
+					this.strings = grown;
+				}
+				this.strings[this.stringCount++] = readLiteral();
+				break;
+			case BinaryHierarchyWriter.CLASS:
+				int classId = readVarint() - 1;
+				PClassNode node = new PClassNode(classId, string(readVarint()));
+				current.addChildPathwayClass(node);
+				open.add(node);
+				break;
+			case BinaryHierarchyWriter.PATHWAY:
+				readPathway();
+				addPathway(current, this.pathwayIds[this.pathwayCount - 1]);
+				break;
+			case BinaryHierarchyWriter.PATHWAY_REF:
+				int ref = readVarint();
+				if (!this.pathwayIndex.containsKey(ref)){
+					throw new IOException("Pathway " + ref + " is referred to before it is written");
+				}
+				addPathway(current, ref);
+				break;
+			case BinaryHierarchyWriter.END:
+				if (open.size() == 1){
+					throw new IOException("Hierarchy file closes more classes than it opens");
+				}
+				open.remove(open.size() - 1);
+				//a class with pathways anywhere in its subtree is flagged like the built tree flags it
+				if (current.getHasPaths() && open.size() > 1){
+					open.get(open.size() - 1).setHasPaths(true);
+				}
+				break;
+			case BinaryHierarchyWriter.EOF:
+				return;
+			default:
+				throw new IOException("Unknown record " + tag + " in hierarchy file");
+			}
+		}
+	}
+	
+	/**
+	 * read a pathway record into the flat arrays
+	 */
+	private void readPathway() throws IOException {
+		int id = readVarint();
+		int name = readVarint();
+		checkString(name);
+		int count = readVarint();
+		if (this.pathwayCount + 1 == this.pathwayIds.length){
+			int n = this.pathwayIds.length * 2;
+			this.pathwayIds = grow(this.pathwayIds, n);
+			this.pathwayNames = grow(this.pathwayNames, n);
+			this.entityStart = grow(this.entityStart, n + 1);
+		}
+		if (this.entityCount + count > this.entityIds.length){
+			int n = Math.max(this.entityIds.length * 2, this.entityCount + count);
+			this.entityTypes = grow(this.entityTypes, n);
+			this.entityIds = grow(this.entityIds, n);
+			this.entityNames = grow(this.entityNames, n);
+		}
+		for (int e=this.entityCount; e<this.entityCount + count; e++){
+			int type = readVarint();
+			if (type >= this.types.length){
+				throw new IOException("Unknown entity type " + type + " in hierarchy file");
+			}
+			this.entityTypes[e] = type;
+			this.entityIds[e] = readVarint();
+			this.entityNames[e] = checkString(readVarint());
+		}
+		this.entityCount += count;
+		this.pathwayIndex.put(id, this.pathwayCount);
+		this.pathwayIds[this.pathwayCount] = id;
+		this.pathwayNames[this.pathwayCount] = name;
+		this.pathwayCount++;
+		this.entityStart[this.pathwayCount] = this.entityCount;
+	}
+	
+	private void addPathway(PClassNode node, int pathwayId){
+		node.addPathway(pathwayId);
+		if (node != this.root){
+			node.setHasPaths(true);
+		}
+	}
+	
+	private String string(int ref) throws IOException {
+		return this.strings[checkString(ref)];
+	}
+	
+	private int checkString(int ref) throws IOException {
+		if (ref < 0 || ref >= this.stringCount){
+			throw new IOException("Name " + ref + " is used before it is defined in hierarchy file");
+		}
+		return ref;
+	}
+	
+	private static int[] grow(int[] a, int n){
+		int[] grown = new int[n];
+		System.arraycopy(a, 0, grown, 0, a.length);
+		return grown;
+	}
+	
+	private int readByte() throws IOException {
+		if (this.pos == this.limit){
+			fill();
+		}
+		return this.buf[this.pos++] & 0xff;
+	}
+	
+	private int readInt() throws IOException {
+		return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+	}
+	
+	private int readVarint() throws IOException {
+		int p = this.pos;
+		byte[] bytes = this.buf;
+		if (this.limit - p >= 5){
+			//whole number is in the buffer, which holds for all but the last few bytes of a refill
+			int v = bytes[p++];
+			if (v >= 0){
+				this.pos = p;
+				return v;
+			}
+			v &= 0x7f;
+			for (int shift=7; shift<35; shift+=7){
+				int x = bytes[p++];
+				v |= (x & 0x7f) << shift;
+				if (x >= 0){
+					this.pos = p;
+					return v;
+				}
+			}
+			throw new IOException("Malformed number in hierarchy file");
+		}
+		int v = 0;
+		for (int shift=0; shift<35; shift+=7){
+			int b = readByte();
+			v |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0){
+				return v;
+			}
+		}
+		throw new IOException("Malformed number in hierarchy file");
+	}
+	
+	private String readLiteral() throws IOException {
+		int len = readVarint();
+		if (len <= this.limit - this.pos){
+			String s = new String(this.buf, this.pos, len, BinaryHierarchyWriter.UTF8);
+			this.pos += len;
+			return s;
+		}
+		byte[] b = new byte[len];
+		int n = 0;
+		while (n < len){
+			if (this.pos == this.limit){
+				fill();
+			}
+			int chunk = Math.min(len - n, this.limit - this.pos);
+			System.arraycopy(this.buf, this.pos, b, n, chunk);
+			this.pos += chunk;
+			n += chunk;
+		}
+		return new String(b, BinaryHierarchyWriter.UTF8);
+	}
+	
+	private void fill() throws IOException {
+		int n = this.in.read(this.buf, 0, this.buf.length);
+		if (n <= 0){
+			throw new EOFException("Hierarchy file ends before its last record");
+		}
+		this.pos = 0;
+		this.limit = n;
+	}
+	
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1){
+			System.out.println("Usage: BinaryHierarchyReader <hierarchyFile>\n");
+			System.out.println("\t<hierarchyFile> - file written by PathwaysToXML in the binary hierarchy format\n");
+			return;
+		}
+		long t = System.nanoTime();
+		BinaryHierarchyReader r = read(new File(args[0]));
+		long millis = (System.nanoTime() - t) / 1000000;
+		System.out.println(r.getOrganism() + ": " + r.getPathwayCount() + " pathways loaded in " + millis + "ms");
+	}
+}
@@ -0,0 +1,233 @@
+package org.pathierarchy.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.pathierarchy.data.PathwayEntry;
+
+import edu.iastate.metnet.Entity;
+
+/**
+ * BinaryHierarchyWriter writes the same class -> pathway -> entity hierarchy as the
+ * ontology XML in a compact binary form, record by record while the hierarchy is
+ * visited, so nothing but the strings seen so far is held in memory. Files are
+ * read back with {@link BinaryHierarchyReader}, which needs no XML parsing.
+ * 
+ * File layout (numbers are unsigned varints, 7 bits per byte, low bits first):
+ *  -- header: magic "MNHB" and format version as 4 byte big-endian ints,
+ *     organism name and the entity types as string literals
+ *  -- records, each starting with a one byte tag:
+ *     STRING  byte length, UTF-8 bytes: adds the next entry of the string table
+ *     CLASS   class id + 1, name: opens a pathway class
+ *     PATHWAY pathway id, name, entity count, then per entity its type
+ *             (index into the header's types), id and name
+ *     PATHWAY_REF pathway id: a pathway written earlier, under another class
+ *     END     closes the innermost open class
+ *     EOF     end of the file
+ * Names are indices into the string table, whose STRING records always come before
+ * the record using them, so a name that appears many times is stored once.
+ * 
+ * @author Divya Mistry
+ */
+public class BinaryHierarchyWriter {
+	public static final int MAGIC = 0x4d4e4842; //"MNHB"
+	public static final int VERSION = 1; //bump whenever the file layout changes
+	public static final String SUFFIX = ".hierarchy";
+	
+	static final int STRING = 0;
+	static final int CLASS = 1;
+	static final int PATHWAY = 2;
+	static final int PATHWAY_REF = 3;
+	static final int END = 4;
+	static final int EOF = 5;
+	
+	static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private OutputStream out; //stream the hierarchy is written to
+	private byte[] buf = new byte[64 * 1024]; //records not yet handed to the stream
+	private int pos = 0; //bytes used in buf
+	private HashMap<String, Integer> strings = new HashMap<String, Integer>(); //string -> index in the table
+	private HashSet<Integer> written = new HashSet<Integer>(); //ids of the pathways written so far
+	private HashMap<String, Integer> typeIndex = new HashMap<String, Integer>(); //entity type -> index in the header
+	private String[] types = new String[0]; //entity types written for every pathway
+	private int depth = 0; //number of currently open classes
+	private int[] nameRefs = new int[64]; //table index of each entity name of the pathway being written
+	
+	/**
+	 * constructor
+	 * @param out stream the hierarchy is written to. it is flushed, but not closed, by {@link #endDocument()}
+	 */
+	public BinaryHierarchyWriter(OutputStream out){
+		this.out = out;
+	}
+	
+	/**
+	 * write the header
+	 * @param organism name of the organism the hierarchy belongs to
+	 * @param entityTypes entity types written for every pathway, in this order
+	 * @throws IOException if the stream can not be written to
+	 */
+	public void startDocument(String organism, String[] entityTypes) throws IOException {
+		writeInt(MAGIC);
+		writeInt(VERSION);
+		writeLiteral(organism);
+		this.types = entityTypes.clone();
+		writeVarint(this.types.length);
+		for (int i=0; i<this.types.length; i++){
+			writeLiteral(this.types[i]);
+			this.typeIndex.put(this.types[i], i);
+		}
+	}
+	
+	/**
+	 * open a pathway class
+	 * @param classId id of the class, -1 if it has none
+	 * @param name name of the class
+	 * @throws IOException if the stream can not be written to
+	 */
+	public void startClass(int classId, String name) throws IOException {
+		int ref = define(name);
+		ensure(11);
+		this.buf[this.pos++] = CLASS;
+		writeVarint(classId + 1);
+		writeVarint(ref);
+		this.depth++;
+	}
+	
+	/**
+	 * write a pathway with its entities of the header's types into the open class.
+	 * A pathway that was written before is only referred to by its id.
+	 * @param entry name and entities of the pathway
+	 * @throws IOException if the stream can not be written to
+	 */
+	public void pathway(PathwayEntry entry) throws IOException {
+		int id = entry.getPathwayId();
+		if (!this.written.add(id)){
+			ensure(6);
+			this.buf[this.pos++] = PATHWAY_REF;
+			writeVarint(id);
+			return;
+		}
+		//every name must be in the table before the record refers to it
+		int nameRef = define(entry.getName());
+		int count = 0;
+		for (String type:this.types){
+			for (Entity e:entry.getEntities(type)){
+				if (count == this.nameRefs.length){
+					this.nameRefs = Arrays.copyOf(this.nameRefs, count * 2);
+				}
+				this.nameRefs[count++] = define(e.name);
+			}
+		}
+		ensure(16);
+		this.buf[this.pos++] = PATHWAY;
+		writeVarint(id);
+		writeVarint(nameRef);
+		writeVarint(count);
+		int i = 0;
+		for (String type:this.types){
+			int t = this.typeIndex.get(type);
+			for (Entity e:entry.getEntities(type)){
+				writeVarint(t);
+				writeVarint(e.id);
+				writeVarint(this.nameRefs[i++]);
+			}
+		}
+	}
+	
+	/**
+	 * close the innermost open class
+	 * @throws IOException if the stream can not be written to
+	 * @throws IllegalStateException if no class is open
+	 */
+	public void endClass() throws IOException {
+		if (this.depth == 0){
+			throw new IllegalStateException("No open class to be closed");
+		}
+		this.depth--;
+		ensure(1);
+		this.buf[this.pos++] = END;
+	}
+	
+	/**
+	 * close the classes that are still open, mark the end of the file and flush the stream
+	 * @throws IOException if the stream can not be written to
+	 */
+	public void endDocument() throws IOException {
+		while (this.depth > 0){
+			endClass();
+		}
+		ensure(1);
+		this.buf[this.pos++] = EOF;
+		flushBuffer();
+		this.out.flush();
+	}
+	
+	/**
+	 * add a string to the table unless it is there already
+	 * @return index of the string in the table
+	 */
+	private int define(String s) throws IOException {
+		if (s == null){
+			s = "";
+		}
+		Integer ref = this.strings.get(s);
+		if (ref == null){
+			ref = this.strings.size();
+			this.strings.put(s, ref);
+			ensure(1);
+			this.buf[this.pos++] = STRING;
+			writeLiteral(s);
+		}
+		return ref;
+	}
+	
+	private void writeLiteral(String s) throws IOException {
+		byte[] b = s.getBytes(UTF8);
+		writeVarint(b.length);
+		if (b.length > this.buf.length - this.pos){
+			flushBuffer();
+		}
+		if (b.length > this.buf.length){
+			this.out.write(b);
+		} else {
+			System.arraycopy(b, 0, this.buf, this.pos, b.length);
+			this.pos += b.length;
+		}
+	}
+	
+	private void writeInt(int v) throws IOException {
+		ensure(4);
+		this.buf[this.pos++] = (byte) (v >>> 24);
+		this.buf[this.pos++] = (byte) (v >>> 16);
+		this.buf[this.pos++] = (byte) (v >>> 8);
+		this.buf[this.pos++] = (byte) v;
+	}
+	
+	private void writeVarint(int v) throws IOException {
+		ensure(5);
+		while ((v & ~0x7f) != 0){
+			this.buf[this.pos++] = (byte) ((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		this.buf[this.pos++] = (byte) v;
+	}
+	
+	/**
+	 * make room for the given number of bytes in the buffer
+	 */
+	private void ensure(int n) throws IOException {
+		if (this.buf.length - this.pos < n){
+			flushBuffer();
+		}
+	}
+	
+	private void flushBuffer() throws IOException {
+		this.out.write(this.buf, 0, this.pos);
+		this.pos = 0;
+	}
+}
@@ -0,0 +1,117 @@
+package org.pathierarchy.xml;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.pathierarchy.data.Cancellation;
+
+/**
+ * progress and cancellation of a running export, shared between the thread(s)
+ * doing the export and whoever watches it (e.g. a progress bar polling it).
+ * Exporters count the pathways they finished and check for cancellation between
+ * pathways, so a cancelled export stops at a point where no file is half written.
+ * Loading the hierarchy and fetching its pathways check it between queries.
+ * @author Divya Mistry
+ *
+ */
+public class ExportMonitor implements Cancellation {
+	private volatile String phase = ""; //what the export is currently doing
+	private volatile int total = -1; //pathways to be processed in this phase, -1 if not known yet
+	private AtomicInteger done = new AtomicInteger(0); //pathways processed in this phase
+	private volatile long started = System.currentTimeMillis(); //time in millis when this phase started
+	private volatile boolean cancelled = false;
+	
+	/**
+	 * start a phase whose amount of work is not known, e.g. loading the hierarchy
+	 * @param phaseName description of the phase
+	 */
+	public void setPhase(String phaseName){
+		begin(phaseName, -1);
+	}
+	
+	/**
+	 * start a phase that processes a known number of pathways
+	 * @param phaseName description of the phase
+	 * @param count number of pathways to be processed, -1 if not known
+	 */
+	public void begin(String phaseName, int count){
+		this.phase = phaseName;
+		this.done.set(0);
+		this.total = count;
+		this.started = System.currentTimeMillis();
+	}
+	
+	/**
+	 * count one more processed pathway
+	 */
+	public void worked(){
+		this.done.incrementAndGet();
+	}
+	
+	/**
+	 * ask the export to stop at the next pathway, or at the next query while loading
+	 */
+	public void cancel(){
+		this.cancelled = true;
+	}
+	
+	/**
+	 * @return true if the export was asked to stop
+	 */
+	public boolean isCancelled(){
+		return this.cancelled;
+	}
+	
+	/**
+	 * stop the calling export if it was asked to
+	 * @throws CancellationException if the export was cancelled
+	 */
+	@Override
+	public void checkCancelled(){
+		if (this.cancelled){
+			throw new CancellationException("Export cancelled");
+		}
+	}
+	
+	/**
+	 * @return description of the current phase
+	 */
+	public String getPhase(){
+		return this.phase;
+	}
+	
+	/**
+	 * @return pathways to be processed in the current phase, -1 if not known
+	 */
+	public int getTotal(){
+		return this.total;
+	}
+	
+	/**
+	 * @return pathways processed so far in the current phase
+	 */
+	public int getDone(){
+		return this.done.get();
+	}
+	
+	/**
+	 * @return pathways processed per second in the current phase
+	 */
+	public double getThroughput(){
+		long elapsed = System.currentTimeMillis() - this.started;
+		return elapsed <= 0 ? 0 : getDone() * 1000.0 / elapsed;
+	}
+	
+	/**
+	 * @return estimated milliseconds until the current phase is done, -1 if it can not be estimated yet
+	 */
+	public long getRemainingMillis(){
+		int count = getDone();
+		int all = this.total;
+		if (all < 0 || count == 0){
+			return -1;
+		}
+		long elapsed = System.currentTimeMillis() - this.started;
+		return Math.max(0, (long) (elapsed * (double) (all - count) / count));
+	}
+}
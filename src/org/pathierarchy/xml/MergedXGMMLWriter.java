@@ -0,0 +1,367 @@
+package org.pathierarchy.xml;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import org.pathierarchy.io.CompressedOutput;
+import org.pathierarchy.metrics.Metrics;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * MergedXGMMLWriter writes the networks of many pathways as a single XGMML network.
+ * Nodes are deduplicated by their id and edges by their source, target and label,
+ * so an entity or interaction shared by several pathways appears once. Every node
+ * carries a "pathways" list attribute naming the pathways it belongs to.
+ * 
+ * Pathways are added one at a time and their elements are serialized right away
+ * to spill files next to the output, so memory holds only the node ids, edge keys
+ * and pathway memberships, whatever the size of the organism. Once the last
+ * pathway is added the spill files are joined into the XGMML file, nodes first,
+ * each with its membership attributes, then the edges.
+ * 
+ * @author Divya Mistry
+ */
+public class MergedXGMMLWriter {
+	private static final String CHARSET = "UTF-8";
+	
+	private File file; //XGMML file to be written
+	private String label; //label of the merged network
+	private boolean gzip = false; //gzip compress the XGMML file
+	private int gzipThreads = 1; //threads compressing blocks of the file at the same time
+	
+	private File nodeSpill; //serialized nodes, in the order they were first seen
+	private File edgeSpill; //serialized edges, in the order they were first seen
+	private DataOutputStream nodes;
+	private DataOutputStream edges;
+	
+	private HashMap<String, Integer> nodeIndex = new HashMap<String, Integer>(); //node id -> position in the node spill
+	private HashSet<String> edgeKeys = new HashSet<String>(); //source, target and label of every edge written
+	private List<String> pathwayNames = new ArrayList<String>(); //names of the added pathways
+	private int[] memberNode = new int[1024]; //node positions of the (node, pathway) memberships
+	private int[] memberPathway = new int[1024]; //pathway positions of the (node, pathway) memberships
+	private int memberCount = 0;
+	private int[] lastPathway = new int[1024]; //node position -> last pathway the node was counted for
+	
+	/**
+	 * constructor
+	 * @param xgmmlFile file the merged network is written to
+	 * @param networkLabel label of the merged network, e.g. the name of the organism
+	 */
+	public MergedXGMMLWriter(File xgmmlFile, String networkLabel){
+		this.file = xgmmlFile;
+		this.label = networkLabel;
+	}
+	
+	/**
+	 * Choose whether the XGMML file is gzip compressed while it is written
+	 * @param gz true to compress the file
+	 * @param threads number of threads compressing blocks of the file at the same time,
+	 *        1 for a plain gzip stream
+	 */
+	public void setCompression(boolean gz, int threads){
+		this.gzip = gz;
+		this.gzipThreads = threads;
+	}
+	
+	/**
+	 * @return XGMML file the merged network is written to
+	 */
+	public File getFile(){
+		return this.file;
+	}
+	
+	/**
+	 * @return number of distinct nodes added so far
+	 */
+	public int getNodeCount(){
+		return this.nodeIndex.size();
+	}
+	
+	/**
+	 * @return number of distinct edges added so far
+	 */
+	public int getEdgeCount(){
+		return this.edgeKeys.size();
+	}
+	
+	/**
+	 * create the spill files, before any pathway is added
+	 * @throws IOException if the spill files could not be created
+	 */
+	public void open() throws IOException {
+		File dir = this.file.getAbsoluteFile().getParentFile();
+		this.nodeSpill = File.createTempFile("nodes", ".spill", dir);
+		this.edgeSpill = File.createTempFile("edges", ".spill", dir);
+		this.nodes = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.nodeSpill)));
+		this.edges = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.edgeSpill)));
+	}
+	
+	/**
+	 * add the network of a pathway
+	 * @param pathwayName name of the pathway, listed in the "pathways" attribute of its nodes
+	 * @param elements XGMML node and edge elements of the pathway's network
+	 * @throws IOException if the elements could not be spilled
+	 */
+	public void addPathway(String pathwayName, List<Element> elements) throws IOException {
+		int pathway = this.pathwayNames.size();
+		this.pathwayNames.add(pathwayName);
+		for (Element e:elements){
+			if (e.getTagName().equals("node")){
+				String id = e.getAttribute("id");
+				Integer node = this.nodeIndex.get(id);
+				if (node == null){
+					node = this.nodeIndex.size();
+					this.nodeIndex.put(id, node);
+					spill(this.nodes, e);
+					if (node == this.lastPathway.length){
+						this.lastPathway = grow(this.lastPathway);
+					}
+					this.lastPathway[node] = -1;
+				}
+				//a node listed twice by the same pathway is a member once
+				if (this.lastPathway[node] != pathway){
+					this.lastPathway[node] = pathway;
+					addMembership(node, pathway);
+				}
+			} else if (this.edgeKeys.add(e.getAttribute("source") + "\t" + e.getAttribute("target") + "\t" + e.getAttribute("label"))){
+				spill(this.edges, e);
+			}
+		}
+	}
+	
+	private void addMembership(int node, int pathway){
+		if (this.memberCount == this.memberNode.length){
+			this.memberNode = grow(this.memberNode);
+			this.memberPathway = grow(this.memberPathway);
+		}
+		this.memberNode[this.memberCount] = node;
+		this.memberPathway[this.memberCount] = pathway;
+		this.memberCount++;
+	}
+	
+	private static int[] grow(int[] a){
+		int[] b = new int[a.length * 2];
+		System.arraycopy(a, 0, b, 0, a.length);
+		return b;
+	}
+	
+	/**
+	 * serialize an element into a spill file, as its length followed by its UTF-8 text
+	 */
+	private static void spill(DataOutputStream out, Element e) throws IOException {
+		StringBuilder sb = new StringBuilder(256);
+		serialize(e, sb);
+		byte[] b = sb.toString().getBytes(CHARSET);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+	
+	/**
+	 * append the text of an element and its subtree. The MetNet elements use prefixes
+	 * (e.g. cy:) that are only declared on the graph element, which rules out the
+	 * JAXP serializer for single elements.
+	 * @param n node to be serialized
+	 * @param sb text the node is appended to
+	 */
+	private static void serialize(Node n, StringBuilder sb){
+		switch (n.getNodeType()){
+			case Node.ELEMENT_NODE:
+				sb.append('<').append(n.getNodeName());
+				NamedNodeMap attrs = n.getAttributes();
+				for (int i=0; i<attrs.getLength(); i++){
+					Node a = attrs.item(i);
+					sb.append(' ').append(a.getNodeName()).append("=\"").append(escape(a.getNodeValue())).append('"');
+				}
+				if (!n.hasChildNodes()){
+					sb.append("/>");
+					return;
+				}
+				sb.append('>');
+				for (Node c=n.getFirstChild(); c != null; c=c.getNextSibling()){
+					serialize(c, sb);
+				}
+				sb.append("</").append(n.getNodeName()).append('>');
+				break;
+			case Node.TEXT_NODE:
+			case Node.CDATA_SECTION_NODE:
+				sb.append(escape(n.getNodeValue()));
+				break;
+			default:
+				//comments and processing instructions carry nothing for Cytoscape
+		}
+	}
+	
+	/**
+	 * write the XGMML file from the spill files, or drop everything, and remove the spill files.
+	 * The file is written under a temporary name first, so a failed export leaves no partial file.
+	 * @param complete true if every pathway was added and the file is to be written
+	 * @return true if the XGMML file is in place
+	 * @throws IOException if the file could not be written
+	 */
+	public boolean finish(boolean complete) throws IOException {
+		File part = new File(this.file.getPath() + ".part");
+		boolean written = false;
+		try {
+			closeSpills();
+			if (complete){
+				writeNetwork(part);
+				if (!part.renameTo(this.file) && (this.file.exists() && !this.file.delete() || !part.renameTo(this.file))){
+					throw new IOException("Unable to rename " + part.getPath() + " to " + this.file.getName());
+				}
+				written = true;
+				Metrics.fileWritten("xgmml", this.file);
+			}
+		} finally {
+			if (!written){
+				part.delete();
+			}
+			if (this.nodeSpill != null){
+				this.nodeSpill.delete();
+			}
+			if (this.edgeSpill != null){
+				this.edgeSpill.delete();
+			}
+		}
+		return written;
+	}
+	
+	private void closeSpills() throws IOException {
+		try {
+			if (this.nodes != null){
+				this.nodes.close();
+			}
+		} finally {
+			this.nodes = null;
+			if (this.edges != null){
+				this.edges.close();
+			}
+			this.edges = null;
+		}
+	}
+	
+	private void writeNetwork(File part) throws IOException {
+		//group the memberships by node, keeping the pathway order within each node
+		int nodeCount = this.nodeIndex.size();
+		int[] offsets = new int[nodeCount + 1];
+		for (int i=0; i<this.memberCount; i++){
+			offsets[this.memberNode[i] + 1]++;
+		}
+		for (int i=0; i<nodeCount; i++){
+			offsets[i + 1] += offsets[i];
+		}
+		int[] members = new int[this.memberCount];
+		int[] fill = new int[nodeCount];
+		System.arraycopy(offsets, 0, fill, 0, nodeCount);
+		for (int i=0; i<this.memberCount; i++){
+			members[fill[this.memberNode[i]]++] = this.memberPathway[i];
+		}
+		this.memberNode = null;
+		this.memberPathway = null;
+		
+		Writer out = new BufferedWriter(new OutputStreamWriter(CompressedOutput.open(part, this.gzip, this.gzipThreads), CHARSET));
+		try {
+			out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n");
+			out.write("<graph label=\"" + escape(this.label) + "\" directed=\"1\" xmlns=\"http://www.cs.rpi.edu/XGMML\"" +
+					" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xmlns:ns1=\"http://www.w3.org/1999/xlink\"" +
+					" xmlns:dc=\"http://purl.org/dc/elements/1.1/\" xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"" +
+					" xmlns:cy=\"http://www.cytoscape.org\">\n");
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.nodeSpill)));
+			try {
+				for (int node=0; node<nodeCount; node++){
+					String xml = readSpilled(in);
+					String atts = membershipAtts(members, offsets[node], offsets[node + 1]);
+					//the attributes go last inside the node element
+					if (xml.endsWith("/>")){
+						out.write(xml.substring(0, xml.length() - 2));
+						out.write(">");
+						out.write(atts);
+						out.write("</node>");
+					} else {
+						int close = xml.lastIndexOf("</");
+						out.write(xml.substring(0, close));
+						out.write(atts);
+						out.write(xml.substring(close));
+					}
+					out.write('\n');
+				}
+			} finally {
+				in.close();
+			}
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.edgeSpill)));
+			try {
+				for (int i=0; i<this.edgeKeys.size(); i++){
+					out.write(readSpilled(in));
+					out.write('\n');
+				}
+			} finally {
+				in.close();
+			}
+			out.write("</graph>\n");
+		} finally {
+			out.close();
+		}
+	}
+	
+	private String membershipAtts(int[] members, int from, int to){
+		StringBuilder sb = new StringBuilder();
+		sb.append("<att type=\"integer\" name=\"pathwayCount\" value=\"").append(to - from).append("\"/>");
+		sb.append("<att type=\"list\" name=\"pathways\">");
+		for (int i=from; i<to; i++){
+			sb.append("<att type=\"string\" value=\"").append(escape(this.pathwayNames.get(members[i]))).append("\"/>");
+		}
+		sb.append("</att>");
+		return sb.toString();
+	}
+	
+	private static String readSpilled(DataInputStream in) throws IOException {
+		byte[] b = new byte[in.readInt()];
+		try {
+			in.readFully(b);
+		} catch (EOFException e) {
+			throw new IOException("Spill file is truncated");
+		}
+		return new String(b, CHARSET);
+	}
+	
+	/**
+	 * @param s text of an attribute value, null for an empty one
+	 * @return the text with the characters XML reserves escaped, and line breaks
+	 *         and tabs as character references the way the DOM Transformer writes them
+	 */
+	static String escape(String s){
+		if (s == null){
+			return "";
+		}
+		StringBuilder sb = new StringBuilder(s.length() + 16);
+		for (int i=0; i<s.length(); i++){
+			char c = s.charAt(i);
+			switch (c){
+				case '&': sb.append("&amp;"); break;
+				case '<': sb.append("&lt;"); break;
+				case '>': sb.append("&gt;"); break;
+				case '"': sb.append("&quot;"); break;
+				case '\n': sb.append("&#10;"); break;
+				case '\r': sb.append("&#13;"); break;
+				case '\t': sb.append("&#9;"); break;
+				default: sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
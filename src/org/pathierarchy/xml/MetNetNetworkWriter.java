@@ -0,0 +1,40 @@
+package org.pathierarchy.xml;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.pathierarchy.metrics.Metrics;
+
+import edu.iastate.metnet.ExportHelper;
+import edu.iastate.metnet.Network;
+import edu.iastate.metnet.Pathway;
+
+
+/**
+ * network writer building the network of a pathway from MetNetDB through the
+ * MetNet API and writing it with the API's Cytoscape export
+ * @author Divya Mistry
+ *
+ */
+public class MetNetNetworkWriter implements NetworkWriter {
+	
+	@Override
+	public String signature(Pathway p) {
+		return p.signature() + "|" + p.fingerprint();
+	}
+	
+	@Override
+	public void write(Pathway p, File file) throws IOException {
+		long start = Metrics.start();
+		Network nw = new Network(p);
+		long t = Metrics.start();
+		Metrics.stop("xgmml.network", start);
+		ExportHelper.toCytoscape(nw, file.getPath());
+		Metrics.stop("xgmml.toCytoscape", t);
+		//ExportHelper only prints its errors, so a missing file is the only sign of a failure
+		if (!file.isFile() || file.length() == 0){
+			file.delete();
+			throw new IOException("XGMML file was not written: " + file.getPath());
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package org.pathierarchy.xml;
+
+import java.io.File;
+import java.io.IOException;
+
+import edu.iastate.metnet.Pathway;
+
+
+/**
+ * builds the network of a single pathway and writes it as an XGMML file for
+ * {@link XGMMLExporter}. {@link MetNetNetworkWriter} builds the networks from
+ * MetNetDB; other writers let the exporter's file, archive, manifest and journal
+ * handling run without MetNetDB, e.g. in benchmarks.
+ * Implementations must be safe to use from several threads at the same time,
+ * since the exporter writes several pathways at once.
+ * @author Divya Mistry
+ *
+ */
+public interface NetworkWriter {
+	/**
+	 * @param p pathway to be looked at
+	 * @return signature of the pathway's content, which changes whenever its network does
+	 */
+	String signature(Pathway p);
+	
+	/**
+	 * build the network of a pathway and write it to a file
+	 * @param p pathway to be written
+	 * @param file file to be created
+	 * @throws IOException if the file could not be written
+	 */
+	void write(Pathway p, File file) throws IOException;
+}
@@ -1,19 +1,42 @@
 package org.pathierarchy.xml;
 
+import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.SQLException;
 import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
+import org.pathierarchy.data.CompactNameTable;
+import org.pathierarchy.data.CompactPClassTree;
+import org.pathierarchy.data.HierarchyIndex;
+import org.pathierarchy.data.HierarchySnapshot;
+import org.pathierarchy.data.MetNetSource;
 import org.pathierarchy.data.PClassNode;
 import org.pathierarchy.data.PClassTree;
+import org.pathierarchy.data.PathwayCatalog;
+import org.pathierarchy.data.PathwayEntry;
+import org.pathierarchy.data.PathwayPrefetcher;
+import org.pathierarchy.data.PathwaySource;
+import org.pathierarchy.data.SnapshotSource;
+import org.pathierarchy.io.CompressedOutput;
+import org.pathierarchy.metrics.Metrics;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
@@ -23,7 +46,6 @@ import edu.iastate.metnet.ExportHelper;
 import edu.iastate.metnet.Network;
 import edu.iastate.metnet.Organism;
 import edu.iastate.metnet.Pathway;
-import edu.iastate.metnet.util.EntityVector;
 
 /**
  * PathwaysToXML is used to create an XML file that has following hierarchy for a given organism
@@ -55,11 +77,15 @@ public class PathwaysToXML {
 	private TransformerFactory transfac;
 	private Transformer trans;
 	
-	//streamResult, file and filewriter are used to get the result of XML transformers and send it to a file
+	//streamResult, file and writer are used to get the result of XML transformers and send it to a file
 	private String dirloc; //location where all the files are to be created
 	private File xmlfile;
-	private FileWriter fw;
+	private File partfile; //file being written, renamed to xmlfile once it is complete
+	private Writer fw;
+	private Closeable output; //stream of the file being written
 	private StreamResult result;
+	private boolean gzip = false; //gzip compress the xml file
+	private int gzipThreads = 1; //threads compressing blocks of the xml file at the same time
 	
 	//hold the DOM structure of XML that can later be spewed to the xml doc
 	private DOMSource source;
@@ -70,13 +96,54 @@ public class PathwaysToXML {
 	//store the name of organism provided by user
 	private String organism;
 	
-	//store the preference of which entities to include
-	private boolean includeRNA;
-	private boolean includeGene;
+	//store the preference of which entities to include, in the order they are printed
+	private String[] types;
 	
 	//pereference to print empty pathway-classes in the hierarchy
 	private boolean includeEmptyClasses;
 	
+	//number of pathway classes fetched concurrently while building the hierarchy (1 = sequential)
+	private int treeParallelism = 1;
+	//load the whole hierarchy with a few set based queries instead of querying each class
+	private boolean bulkLoad = false;
+	
+	//write elements to the file as they are visited instead of building a DOM first
+	private boolean streaming = false;
+	private StreamingXMLWriter sw; //used instead of the DOM while streaming
+	
+	//write the hierarchy in the binary format of BinaryHierarchyWriter instead of XML
+	private boolean binary = false;
+	private BinaryHierarchyWriter bw; //used instead of the DOM and the StreamingXMLWriter for the binary format
+	
+	//number of pathways exported to XGMML at the same time (1 = one after the other)
+	private int xgmmlWorkers = 1;
+	//only rebuild XGMML files of pathways that changed since the last export
+	private boolean incrementalXGMML = false;
+	//write the XGMML files into one zip archive instead of a file per pathway
+	private boolean archiveXGMML = false;
+	
+	//directory of hierarchy snapshots to start from instead of MetNetDB, null to always query MetNetDB
+	private File snapshotDir = null;
+	private long snapshotTTL; //maximum age of a usable snapshot in milliseconds
+	//names and entities of the pathways being printed, null to query them while printing
+	private PathwayCatalog catalog = null;
+	//where the hierarchy, pathways and entities come from
+	private PathwaySource dataSource = new MetNetSource();
+	//fetch names and entities of all the pathways in batches before printing
+	private boolean prefetch = false;
+	//table of class names for the compact trees that are printed, may be shared between exports
+	private CompactNameTable classNames = new CompactNameTable();
+	
+	//write each distinct entity once in an <entities> table and refer to it by id from the pathways
+	private boolean entityTable = false;
+	private LinkedHashMap<Integer, String[]> tableEntities; //entity id -> {element name, entity name}
+	
+	//progress and cancellation of the export, null if not watched
+	private ExportMonitor monitor = null;
+	//reverse lookups over the exported hierarchy, null unless requested
+	private boolean buildIndex = false;
+	private HierarchyIndex index = null;
+	
 	/**
 	 * constructor
 	 * @param dirLocation directory location where the generated xml file will be saved
@@ -86,9 +153,20 @@ public class PathwaysToXML {
 	 * @param incemptyclasses if true, include empty pathways classes in xml, if false, do otherwise
 	 */
 	public PathwaysToXML(String dirLocation, String orgname, boolean incrna, boolean incgene, boolean incemptyclasses) {
+		this(dirLocation, orgname, entityTypes(incrna, incgene), incemptyclasses);
+	}
+	
+	/**
+	 * constructor
+	 * @param dirLocation directory location where the generated xml file will be saved
+	 * @param orgname name of the organism for which the pathway hierarchy is to be generated
+	 * @param entityTypes types of the entities to be included in xml (e.g. EntityType.GENE,
+	 *        EntityType.PROTEIN_COMPLEX), printed in this order. see {@link #elementName(String)}
+	 * @param incemptyclasses if true, include empty pathways classes in xml, if false, do otherwise
+	 */
+	public PathwaysToXML(String dirLocation, String orgname, String[] entityTypes, boolean incemptyclasses) {
 		this.organism = orgname; // save the organism name for later use
-		this.includeGene = incgene;
-		this.includeRNA = incrna;
+		this.types = distinctTypes(entityTypes);
 		this.includeEmptyClasses = incemptyclasses;
 		this.dirloc = dirLocation;
 		
@@ -116,9 +194,7 @@ public class PathwaysToXML {
 			trans.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
 			trans.setOutputProperty(OutputKeys.INDENT, "yes");
 			
-			//used to spew out xml to file
-			this.fw = new FileWriter(this.xmlfile);
-			this.result = new StreamResult(fw);
+			//the file itself is opened by generateXML, once the output options are known
 			this.source = new DOMSource(doc);
 		} catch (Exception e){
 			System.out.println("XML Document could not be successfully created in PathwaysToXML class.\n" +
@@ -126,15 +202,192 @@ public class PathwaysToXML {
 		}
 	}
 	
+	/**
+	 * Choose whether a {@link HierarchyIndex} of the hierarchy is built along with the XML,
+	 * answering which pathways and classes hold an entity without MetNetDB. Building it
+	 * needs the entities of every pathway up front, so they are fetched before the XML
+	 * is written if neither a snapshot nor prefetching provides them.
+	 * @param idx true to build the index
+	 */
+	public void setBuildIndex(boolean idx){
+		this.buildIndex = idx;
+	}
+	
+	/**
+	 * @return index built by the last XML export, null if none was requested or the export failed
+	 */
+	public HierarchyIndex getHierarchyIndex(){
+		return this.index;
+	}
+	
+	/**
+	 * Choose where the hierarchy, pathways and entities of the XML come from.
+	 * Default is a live MetNetDB; a {@link SnapshotSource} exports without MetNetDB.
+	 * XGMML exports always need MetNetDB to build the pathway networks.
+	 * @param src source of the organism's data
+	 */
+	public void setSource(PathwaySource src){
+		this.dataSource = src;
+	}
+	
+	/**
+	 * Set how many pathway classes may be fetched from MetNetDB at the same time
+	 * while the hierarchy tree is built. Default is 1, i.e. a sequential build.
+	 * @param parallelism maximum number of concurrent fetches
+	 */
+	public void setTreeParallelism(int parallelism){
+		this.treeParallelism = parallelism;
+	}
+	
+	/**
+	 * Choose whether the hierarchy tree is built from a bulk load of all classes and
+	 * pathway memberships of the organism, instead of two queries per pathway class.
+	 * A bulk load takes precedence over the tree parallelism.
+	 * @param bulk true to bulk load the hierarchy, false otherwise
+	 */
+	public void setBulkLoad(boolean bulk){
+		this.bulkLoad = bulk;
+	}
+	
+	/**
+	 * Choose whether XGMML exports skip the pathways that did not change since the last
+	 * export to the same directory, see {@link XGMMLExporter#setIncremental(boolean)}
+	 * @param incr true to skip unchanged pathways, false to export every pathway
+	 */
+	public void setIncrementalXGMML(boolean incr){
+		this.incrementalXGMML = incr;
+	}
+	
+	/**
+	 * Watch the export with a monitor, which counts the written pathways and
+	 * can stop the export between two pathways, or between two queries while
+	 * the hierarchy is loaded and its pathways are fetched
+	 * @param mon monitor of the export, null to export without one
+	 */
+	public void setMonitor(ExportMonitor mon){
+		this.monitor = mon;
+	}
+	
+	/**
+	 * Choose whether XGMML exports write all the pathways into one zip archive,
+	 * <organism>.xgmml.zip in the export directory, instead of a file per pathway
+	 * @param zip true to archive the XGMML files
+	 */
+	public void setXGMMLArchive(boolean zip){
+		this.archiveXGMML = zip;
+	}
+	
+	/**
+	 * Choose whether the XML file is gzip compressed while it is written.
+	 * The file name gets a .gz suffix.
+	 * @param gz true to compress the file
+	 * @param threads number of threads compressing blocks of the file at the same time,
+	 *        1 for a plain gzip stream
+	 */
+	public void setCompression(boolean gz, int threads){
+		this.gzip = gz;
+		this.gzipThreads = threads;
+	}
+	
+	/**
+	 * @return XML file created by the export
+	 */
+	public File getXMLFile(){
+		return this.xmlfile;
+	}
+	
+	/**
+	 * Choose whether the XML is streamed to the file while the hierarchy is visited,
+	 * instead of being built as a DOM and transformed at the end. Streaming keeps
+	 * memory use independent of the document size and produces the same elements.
+	 * @param stream true to stream the XML, false to build a DOM
+	 */
+	public void setStreaming(boolean stream){
+		this.streaming = stream;
+	}
+	
+	/**
+	 * Choose whether the hierarchy is written in the compact binary format of
+	 * {@link BinaryHierarchyWriter} instead of XML, e.g. for tools that load large
+	 * organisms with {@link BinaryHierarchyReader}. The binary file holds the same
+	 * classes, pathways and entities as the XML, is streamed the same way and gets
+	 * a {@value BinaryHierarchyWriter#SUFFIX} suffix instead of .xml.
+	 * @param bin true to write the binary format, false to write XML
+	 */
+	public void setBinaryFormat(boolean bin){
+		this.binary = bin;
+	}
+	
+	/**
+	 * Set how many pathways are exported to XGMML at the same time
+	 * by {@link #generateXGMML()} and {@link #generateXGMMLs(Pathway[])}
+	 * @param workers number of concurrent exports, 1 to export one pathway after the other
+	 */
+	public void setXGMMLWorkers(int workers){
+		this.xgmmlWorkers = workers;
+	}
+	
+	/**
+	 * Keep a snapshot of the organism's hierarchy, pathway names and entities in the given
+	 * directory. {@link #generateXML()} starts from the snapshot instead of MetNetDB as long
+	 * as it is younger than <i>ttl</i>, and takes a new one otherwise.
+	 * @param dir directory holding the snapshots, null to disable snapshots
+	 * @param ttl maximum age of a usable snapshot in milliseconds, 0 to always take a new one
+	 */
+	public void setSnapshotCache(File dir, long ttl){
+		this.snapshotDir = dir;
+		this.snapshotTTL = ttl;
+	}
+	
+	/**
+	 * Choose whether names and entities of all the organism's pathways are fetched in
+	 * a few batched queries before the XML is written, so that writing the XML does not
+	 * query MetNetDB at all. Otherwise each pathway is queried as it is written.
+	 * @param pre true to prefetch, false otherwise
+	 */
+	public void setPrefetch(boolean pre){
+		this.prefetch = pre;
+	}
+	
+	/**
+	 * Share a table of class names with other exports, so that the compact hierarchy
+	 * trees of many organisms held at the same time store each class name once
+	 * @param names table of class names
+	 */
+	public void setClassNameTable(CompactNameTable names){
+		this.classNames = names;
+	}
+	
+	/**
+	 * Choose whether entities are written once in a table instead of once per pathway.
+	 * In table mode pathways hold {@code <gene ref="id"/>}, {@code <rna ref="id"/>} etc.
+	 * elements, and the last child of {@code <Pathways>} is an {@code <entities>} element
+	 * holding a {@code <gene id="id" name="Name of Gene"/>}, {@code <rna .../>} etc.
+	 * element for every distinct entity.
+	 * @param table true to write an entity table, false to repeat the entities in every pathway
+	 */
+	public void setEntityTable(boolean table){
+		this.entityTable = table;
+	}
+	
 	/**
 	 * Add a Pathway Class to the DOM/XML hierarchy.
 	 * Pathway Class XML elements are of form
 	 * {@code <class name="Name Of Pathway Class">}
 	 * @param parent XML element under which the new PathwayClass is to be added 
+	 * @param classId id of the pathway class, only written in the binary format
 	 * @param name name of the pathway class
 	 * @return child XML element that just got created for the given parent
 	 */
-	private Element addClass(Element parent, String name){
+	private Element addClass(Element parent, int classId, String name) throws XMLStreamException, IOException {
+		if (this.bw != null){
+			this.bw.startClass(classId, name);
+			return null;
+		}
+		if (this.streaming){
+			this.sw.startElement("class", "name", name);
+			return null;
+		}
 		//create an element for the document
 		Element child = doc.createElement("class");
 		//set the name attribute to the name of the pathway class
@@ -152,7 +405,11 @@ public class PathwaysToXML {
 	 * @param name name of the pathway to be added
 	 * @return the pathway XML element that just got created for given parent
 	 */
-	private Element addPathway(Element parent, String name){
+	private Element addPathway(Element parent, String name) throws XMLStreamException {
+		if (this.streaming){
+			this.sw.startElement("pathway", "name", name);
+			return null;
+		}
 		//create an element for the document
 		Element child = doc.createElement("pathway");
 		//set the name attribute of pathway to the given pathway name
@@ -162,93 +419,425 @@ public class PathwaysToXML {
 		return child;
 	}
 	/**
-	 * Add a Gene to the DOM/XML hierarchy
-	 * Gene XML elements are of form
-	 * {@code <gene name="Name of Gene">}
-	 * @param parent XML element under which the new Gene is to be added
-	 * @param name name of the gene to be added
-	 * @return the gene XML element that just got created for given parent
+	 * Add an entity, e.g. a Gene, to the DOM/XML hierarchy
+	 * Entity XML elements are of form
+	 * {@code <gene name="Name of Gene">}, named after the entity type
+	 * @param parent XML element under which the new entity is to be added
+	 * @param tag name of the XML element, see {@link #elementName(String)}
+	 * @param name name of the entity to be added
+	 * @return the entity XML element that just got created for given parent
 	 */
-	private Element addGene(Element parent, String name){
+	private Element addEntity(Element parent, String tag, String name) throws XMLStreamException {
+		if (this.streaming){
+			this.sw.startElement(tag, "name", name);
+			this.sw.endElement();
+			return null;
+		}
 		//create an element in the document
-		Element child = doc.createElement("gene");
-		//set the name attribute of gene to the given gene name
+		Element child = doc.createElement(tag);
+		//set the name attribute of entity to the given entity name
 		child.setAttribute("name", name);
-		//add the newly created gene under given parent
+		//add the newly created entity under given parent
 		parent.appendChild(child);
 		return child;
 	}
 	
 	/**
-	 * Add an RNA to the DOM/XML hierarchy
-	 * RNA XML elements are of form
-	 * {@code <rna name="Name of RNA">}
-	 * @param parent XML element under which the new RNA is to be added
-	 * @param name name of the RNA to be added
-	 * @return the RNA XML element that just got created for given parent
+	 * Add a reference to an entity of the entity table to the DOM/XML hierarchy.
+	 * Reference XML elements are of form
+	 * {@code <gene ref="Id of Gene">}
+	 * @param parent XML element under which the reference is to be added
+	 * @param tag name of the XML element, e.g. gene or rna
+	 * @param e entity to be referred to
+	 * @throws XMLStreamException if the element could not be streamed
 	 */
-	private Element addRNA(Element parent, String name){
-		//create an element in the document
-		Element child = doc.createElement("rna");
-		//set the name attribute of gene to the given gene name
-		child.setAttribute("name", name);
-		//add the newly created gene under given parent
+	private void addEntityRef(Element parent, String tag, Entity e) throws XMLStreamException {
+		//remember the entity for the table
+		if (!this.tableEntities.containsKey(e.id)){
+			this.tableEntities.put(e.id, new String[]{tag, e.name});
+		}
+		String ref = String.valueOf(e.id);
+		if (this.streaming){
+			this.sw.startElement(tag, "ref", ref);
+			this.sw.endElement();
+			return;
+		}
+		Element child = doc.createElement(tag);
+		child.setAttribute("ref", ref);
 		parent.appendChild(child);
-		return child;
+	}
+	
+	/**
+	 * Add the table of all the entities referred to by the pathways to the DOM/XML hierarchy
+	 * @param parent XML element under which the table is to be added, null while streaming
+	 * @throws XMLStreamException if the table could not be streamed
+	 */
+	private void addEntityTable(Element parent) throws XMLStreamException {
+		Element table = null;
+		if (this.streaming){
+			this.sw.startElement("entities");
+		} else {
+			table = doc.createElement("entities");
+			parent.appendChild(table);
+		}
+		for (Integer id:this.tableEntities.keySet()){
+			String[] ent = this.tableEntities.get(id);
+			if (this.streaming){
+				this.sw.startElement(ent[0], "id", id.toString(), "name", ent[1]);
+				this.sw.endElement();
+			} else {
+				Element child = doc.createElement(ent[0]);
+				child.setAttribute("id", id.toString());
+				child.setAttribute("name", ent[1]);
+				table.appendChild(child);
+			}
+		}
+		this.closeElement();
+	}
+	
+	/**
+	 * Close a class or pathway element once all of its children have been added.
+	 * Only needed while streaming, DOM elements are complete as soon as they are appended.
+	 * @throws XMLStreamException if the element could not be written
+	 */
+	private void closeElement() throws XMLStreamException {
+		if (this.streaming){
+			this.sw.endElement();
+		}
+	}
+	
+	/**
+	 * Close a class element, or class record of the binary format, once all of its children have been added
+	 * @throws XMLStreamException if the element could not be written
+	 * @throws IOException if the record could not be written
+	 */
+	private void closeClass() throws XMLStreamException, IOException {
+		if (this.bw != null){
+			this.bw.endClass();
+		} else {
+			this.closeElement();
+		}
 	}
 	
 	/**
 	 * Method to create the XML file that contains the 
 	 * (Pathway Class -> Pathway -> Gene) hierarchy
 	 * for the currently chosen organism
+	 * @return true if the file was written, false if the export failed or was cancelled
 	 */
-	public void generateXML(){
-		//prepare the hierarchy tree in the memory
-		this.tree = new PClassTree(this.organism);
+	public boolean generateXML(){
+		PClassNode treeRoot = null;
+		if (this.snapshotDir != null){
+			HierarchySnapshot snap = HierarchySnapshot.load(this.snapshotDir, this.organism, this.snapshotTTL, entityTypes());
+			if (snap != null){
+				treeRoot = snap.getRoot();
+				this.catalog = snap.getCatalog();
+			}
+		}
 		
-		//iterate through the tree to prepare the DOM/XML structure
-		print_xmltree(this.tree.buildTree(),this.root);
+		if (treeRoot == null){
+			if (this.monitor != null){
+				this.monitor.setPhase("Loading pathway hierarchy");
+			}
+			//prepare the hierarchy tree in the memory
+			this.tree = new PClassTree(this.organism, this.dataSource);
+			if (this.tree.getOrganism() == null){
+				System.err.println("Organism " + this.organism + " was not found");
+				return false;
+			}
+			//the build and the fetch check the monitor between queries
+			this.tree.setCancellation(this.monitor);
+			try {
+				long t = Metrics.start();
+				treeRoot = this.bulkLoad ? this.tree.buildTreeBulk() : this.tree.buildTree(this.treeParallelism);
+				Metrics.stop("hierarchy.build", t);
+				if (this.prefetch || this.snapshotDir != null){
+					//fetch everything up front so that the walk does not wait for MetNetDB
+					//  and the result can be kept for the next export
+					if (this.monitor != null){
+						this.monitor.setPhase("Fetching pathways");
+					}
+					this.catalog = fetchCatalog(treeRoot);
+				}
+			} catch (CancellationException e) {
+				System.out.println("XML export of " + this.organism + " cancelled");
+				return false;
+			}
+			if (this.snapshotDir != null && this.dataSource.isLive()){
+				try {
+					new HierarchySnapshot(this.organism, treeRoot, this.catalog).write(this.snapshotDir);
+				} catch (IOException e) {
+					System.err.println("Unable to save snapshot of " + this.organism + ": " + e.getMessage());
+				}
+			}
+		}
 		
-		//spew out the document content to a file
+		return generateXML(treeRoot, this.catalog);
+	}
+	
+	/**
+	 * Method to create the XML file from an already built hierarchy
+	 * tree of the currently chosen organism
+	 * @param treeRoot root of the hierarchy tree
+	 * @param cat names and entities of the pathways in the tree, null to query them while printing
+	 * @return true if the file was written, false if the export failed or was cancelled
+	 */
+	public boolean generateXML(PClassNode treeRoot, PathwayCatalog cat){
+		this.catalog = cat;
+		//iterate through the compact form of the tree to prepare the DOM/XML structure
+		CompactPClassTree ctree = CompactPClassTree.from(treeRoot, this.classNames);
+		this.index = null;
+		if (this.buildIndex){
+			if (this.catalog == null){
+				try {
+					this.catalog = fetchCatalog(treeRoot);
+				} catch (CancellationException e) {
+					System.out.println("XML export of " + this.organism + " cancelled");
+					return false;
+				}
+			}
+			long t = Metrics.start();
+			this.index = HierarchyIndex.build(ctree, this.catalog);
+			Metrics.stop("hierarchy.index", t);
+		}
+		this.tableEntities = new LinkedHashMap<Integer, String[]>();
+		if (this.monitor != null){
+			this.monitor.begin("Writing XML", countPathways(ctree, ctree.getRoot()));
+		}
+		if (!openFile()){
+			return false;
+		}
+		
+		boolean written = false;
 		try {
-			trans.transform(source, result);
-			this.fw.close();
+			if (this.binary){
+				long t = Metrics.start();
+				generateBinary(ctree);
+				Metrics.stop("hierarchy.binary", t);
+			} else if (this.streaming){
+				long t = Metrics.start();
+				generateStreamingXML(ctree);
+				Metrics.stop("xml.stream", t);
+			} else {
+				long t = Metrics.start();
+				print_xmltree(ctree,ctree.getRoot(),this.root);
+				if (this.entityTable){
+					addEntityTable(this.root);
+				}
+				Metrics.stop("xml.buildDOM", t);
+				//spew out the document content to a file
+				t = Metrics.start();
+				trans.transform(source, result);
+				Metrics.stop("xml.transform", t);
+			}
+			written = true;
+		} catch (CancellationException e) {
+			System.out.println("XML export of " + this.organism + " cancelled");
 		} catch (Exception e) {
 			System.err.println(e);
+		} finally {
+			written = finishFile(written);
+			if (written){
+				Metrics.fileWritten(this.binary ? "hierarchy" : "xml", this.xmlfile);
+			}
+		}
+		return written;
+	}
+	
+	/**
+	 * Write the hierarchy straight to the XML file while it is visited
+	 * @param ctree hierarchy tree
+	 * @throws XMLStreamException if the XML could not be written
+	 * @throws IOException never, the traversal is shared with the binary format
+	 */
+	private void generateStreamingXML(CompactPClassTree ctree) throws XMLStreamException, IOException {
+		try {
+			this.sw = new StreamingXMLWriter(this.fw);
+			this.sw.startDocument();
+			this.sw.startElement("Pathways");
+			print_xmltree(ctree,ctree.getRoot(),null);
+			if (this.entityTable){
+				addEntityTable(null);
+			}
+			this.sw.endElement();
+			this.sw.endDocument();
+		} finally {
+			this.sw = null;
 		}
 	}
 	
+	/**
+	 * Write the hierarchy in the binary format while it is visited
+	 * @param ctree hierarchy tree
+	 * @throws IOException if the file could not be written
+	 * @throws XMLStreamException never, the traversal is shared with the XML
+	 */
+	private void generateBinary(CompactPClassTree ctree) throws IOException, XMLStreamException {
+		this.bw.startDocument(this.organism, entityTypes());
+		print_xmltree(ctree,ctree.getRoot(),null);
+		this.bw.endDocument();
+	}
+	
+	/**
+	 * Open the file that the XML is written to, under a temporary name so that
+	 * a failed or cancelled export leaves no partial file behind
+	 * @return true if the file could be created
+	 */
+	private boolean openFile(){
+		if (this.binary && this.xmlfile.getName().endsWith(".xml")){
+			String name = this.xmlfile.getName();
+			this.xmlfile = new File(this.dirloc, name.substring(0, name.length() - 4) + BinaryHierarchyWriter.SUFFIX);
+		}
+		if (this.gzip && !this.xmlfile.getName().endsWith(CompressedOutput.GZIP_SUFFIX)){
+			this.xmlfile = new File(this.dirloc, CompressedOutput.fileName(this.xmlfile.getName(), true));
+		}
+		this.partfile = new File(this.dirloc, this.xmlfile.getName() + ".part");
+		try {
+			OutputStream os = CompressedOutput.open(this.partfile, this.gzip, this.gzipThreads);
+			if (this.binary){
+				//the binary writer buffers by itself
+				this.bw = new BinaryHierarchyWriter(os);
+				this.output = os;
+				return true;
+			}
+			//the document declares UTF-8, so it is written as such whatever the platform's encoding
+			this.fw = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
+			this.result = new StreamResult(this.fw);
+			this.output = this.fw;
+			return true;
+		} catch (IOException e) {
+			System.out.println("XML file " + this.partfile.getPath() + " could not be created.\n" +
+			                   "Please ensure the availability of the directory location and read/write permissions.\n");
+			return false;
+		}
+	}
+	
+	/**
+	 * Close the file being written, and either give it its final name or remove it
+	 * @param complete true if the whole document was written
+	 * @return true if the XML file is in place
+	 */
+	private boolean finishFile(boolean complete){
+		if (this.output == null){
+			return false;
+		}
+		try {
+			this.output.close();
+		} catch (IOException e) {
+			System.err.println("Unable to close " + this.partfile.getPath() + ": " + e.getMessage());
+			complete = false;
+		}
+		this.output = null;
+		this.fw = null;
+		this.bw = null;
+		if (complete && (this.partfile.renameTo(this.xmlfile) || (!this.xmlfile.exists() || this.xmlfile.delete()) && this.partfile.renameTo(this.xmlfile))){
+			return true;
+		}
+		if (complete){
+			System.err.println("Unable to rename " + this.partfile.getPath() + " to " + this.xmlfile.getName());
+		}
+		this.partfile.delete();
+		return false;
+	}
+	
+	/**
+	 * Count the pathways that print_xmltree writes for a subtree, mirroring its traversal
+	 * @param ctree hierarchy tree being printed
+	 * @param treeRoot node whose subtree is counted
+	 * @return number of pathway elements written for the subtree
+	 */
+	private int countPathways(CompactPClassTree ctree, int treeRoot){
+		int count = ctree.getHasPaths(treeRoot) ? ctree.getPathwayCount(treeRoot) : 0;
+		for (int i=0; i<ctree.getChildCount(treeRoot); i++){
+			int node = ctree.getChild(treeRoot, i);
+			if (this.includeEmptyClasses || ctree.getHasPaths(node)){
+				count += countPathways(ctree, node);
+			}
+		}
+		return count;
+	}
+	
 	/**
 	 * Method to create XGMML files for each of the
 	 * pathways in this organism. The file names are
-	 * of format <pathway_name>.xgmml.xml
+	 * of format <pathway_name>.xgmml.xml, with " (<id>)" added
+	 * to names shared by several pathways
+	 * @return pathways that could not be exported, keyed by "<name> (<id>)" of the pathway
 	 */
-	public void generateXGMML(){
+	public Map<String, Exception> generateXGMML(){
 		Organism org = Organism.identify(this.organism);
 		Pathway[] allpaths = org.getPathways().toArray();
 		
-		//cycle through all the paths and generate xgmml
-		for (Pathway p:allpaths){
-			ExportHelper.toCytoscape(new Network(p), this.dirloc + System.getProperty("file.separator") + p.name + ".xgmml.xml");
-//			new ExportXGMML(new Network(p), this.dirloc + System.getProperty("file.separator") + p.name + ".xgmml.xml");
-		}
+		//generate xgmml for all the paths
+		return newXGMMLExporter().export(allpaths);
 	}
 
 	/**
 	 * Method to create XGMML files for given pathways
 	 * in currently chosen organism. The file names are
-	 * of format <pathway_name>.xgmml.xml
+	 * of format <pathway_name>.xgmml.xml, with " (<id>)" added
+	 * to names shared by several pathways
 	 * 
 	 * @param paths pathways for which XGMML files will be generated
+	 * @return pathways that could not be exported, keyed by "<name> (<id>)" of the pathway
 	 */
-	public void generateXGMMLs(Pathway[] paths){
+	public Map<String, Exception> generateXGMMLs(Pathway[] paths){
 		Organism orgm = Organism.identify(this.organism);
 		
-		//cycle through all the paths and generate xgmml
-		for (Pathway p:paths){
-			ExportHelper.toCytoscape(new Network(orgm.getPathways().get(p.id)), this.dirloc + System.getProperty("file.separator") + p.name + ".xgmml.xml");
-//			new ExportXGMML(new Network(orgm.getPathways().get(p.id)), this.dirloc + "\\" + p.name + ".xgmml.xml");
+		//the exporter resolves all the ids against a single fetch of the organism's pathways
+		int[] ids = new int[paths.length];
+		for (int i=0; i<paths.length; i++){
+			ids[i] = paths[i].id;
+		}
+		return newXGMMLExporter().export(orgm, ids);
+	}
+	
+	/**
+	 * Method to create a single XGMML network of all the pathways in this organism,
+	 * with the entities and interactions they share written once.
+	 * The file name is of format <organism>.network.xgmml.xml
+	 * @return pathways that could not be merged, keyed by "<name> (<id>)" of the pathway
+	 */
+	public Map<String, Exception> generateMergedXGMML(){
+		Organism org = Organism.identify(this.organism);
+		return generateMergedXGMMLs(org.getPathways().toArray());
+	}
+	
+	/**
+	 * Method to create a single XGMML network of the given pathways in currently
+	 * chosen organism, with the entities and interactions they share written once.
+	 * The file name is of format <organism>.network.xgmml.xml
+	 * @param paths pathways to be merged into the network
+	 * @return pathways that could not be merged, keyed by "<name> (<id>)" of the pathway
+	 */
+	public Map<String, Exception> generateMergedXGMMLs(Pathway[] paths){
+		return newXGMMLExporter().exportMerged(paths, newMergedWriter(this.dirloc, this.organism, this.gzip, this.gzipThreads));
+	}
+	
+	/**
+	 * @param dir directory the network is written to
+	 * @param orgname name of the organism, which labels the network
+	 * @param gz true to gzip compress the file
+	 * @param threads number of threads compressing blocks of the file at the same time
+	 * @return writer of an organism's merged network
+	 */
+	static MergedXGMMLWriter newMergedWriter(String dir, String orgname, boolean gz, int threads){
+		MergedXGMMLWriter writer = new MergedXGMMLWriter(new File(dir, CompressedOutput.fileName(orgname + ".network.xgmml.xml", gz)), orgname);
+		writer.setCompression(gz, threads);
+		return writer;
+	}
+	
+	/**
+	 * @return exporter writing to this export's directory with the chosen XGMML settings
+	 */
+	private XGMMLExporter newXGMMLExporter(){
+		XGMMLExporter exporter = new XGMMLExporter(this.dirloc, this.xgmmlWorkers);
+		exporter.setIncremental(this.incrementalXGMML);
+		exporter.setMonitor(this.monitor);
+		if (this.archiveXGMML){
+			exporter.setArchive(new File(this.dirloc, this.organism + ".xgmml.zip"));
 		}
+		return exporter;
 	}
 	
 	/**
@@ -262,67 +851,172 @@ public class PathwaysToXML {
 //		new ExportXGMML(nw, this.dirloc + "\\" + "Network" + Calendar.getInstance().getTimeInMillis() + "xgmml.xml");
 	}
 	
+	/**
+	 * @return entity types chosen to be included in the XML
+	 */
+	private String[] entityTypes(){
+		return this.types;
+	}
+	
+	/**
+	 * @param incrna true if rna entities are included
+	 * @param incgene true if gene entities are included
+	 * @return entity types to be fetched for the given choices
+	 */
+	static String[] entityTypes(boolean incrna, boolean incgene){
+		if (incrna && incgene){
+			return new String[]{EntityType.RNA, EntityType.GENE};
+		} else if (incrna){
+			return new String[]{EntityType.RNA};
+		} else if (incgene){
+			return new String[]{EntityType.GENE};
+		}
+		return new String[0];
+	}
+	
+	/**
+	 * MetNetDB compares entity types case-insensitively and some of the EntityType
+	 * constants are aliases (e.g. DNA and GENE), so keep one spelling of each type
+	 * @param entityTypes entity types as chosen
+	 * @return entity types without the ones that were already chosen, in the same order
+	 */
+	static String[] distinctTypes(String[] entityTypes){
+		LinkedHashMap<String, String> distinct = new LinkedHashMap<String, String>();
+		for (String t:entityTypes){
+			String key = t.toLowerCase(Locale.ENGLISH);
+			if (!distinct.containsKey(key)){
+				distinct.put(key, t);
+			}
+		}
+		return distinct.values().toArray(new String[distinct.size()]);
+	}
+	
+	/**
+	 * name of the XML elements holding the entities of an entity type: the type in lower
+	 * case, with characters not allowed in element names replaced by underscores.
+	 * e.g. rna for EntityType.RNA and protein_complex for EntityType.PROTEIN_COMPLEX
+	 * @param type entity type
+	 * @return name of the XML elements of the type's entities
+	 */
+	static String elementName(String type){
+		StringBuilder sb = new StringBuilder(type.length() + 1);
+		String lower = type.toLowerCase(Locale.ENGLISH);
+		for (int i=0; i<lower.length(); i++){
+			char c = lower.charAt(i);
+			boolean allowed = (c >= 'a' && c <= 'z') || c == '_' || (i > 0 && ((c >= '0' && c <= '9') || c == '-' || c == '.'));
+			sb.append(allowed ? c : '_');
+		}
+		return sb.length() == 0 ? "_" : sb.toString();
+	}
+	
+	/**
+	 * Fetch names and chosen entities of all the pathways in the hierarchy,
+	 * in batches if prefetching is enabled and one pathway at a time otherwise
+	 * @param treeRoot root of the hierarchy tree
+	 * @return catalog of all the pathways in the tree
+	 * @throws CancellationException if the export was cancelled while fetching
+	 */
+	private PathwayCatalog fetchCatalog(PClassNode treeRoot){
+		if (this.prefetch && this.dataSource.isLive()){
+			try {
+				return PathwayPrefetcher.prefetch(treeRoot, entityTypes(), this.monitor);
+			} catch (SQLException e) {
+				System.err.println("Prefetch of pathways failed, querying them one by one instead: " + e.getMessage());
+			}
+		}
+		return PathwayCatalog.fetch(treeRoot, entityTypes(), this.dataSource, this.monitor);
+	}
+	
+	/**
+	 * Find the name and chosen entities of a pathway, from the catalog if there is one
+	 * @param pId id of the pathway
+	 * @return entry of the pathway
+	 * @throws IllegalStateException if the source does not know the pathway
+	 */
+	private PathwayEntry lookupPathway(int pId){
+		PathwayEntry entry = this.catalog == null ? null : this.catalog.get(pId);
+		if (entry == null){
+			entry = this.dataSource.getPathway(pId, entityTypes());
+		}
+		if (entry == null){
+			throw new IllegalStateException("Pathway " + pId + " of " + this.organism + " was not found");
+		}
+		return entry;
+	}
+	
 	/**
 	 * Iterate through a given hierarchy tree and prepare XML document
-	 * @param treeRoot Pathway class whose subclasses and pathways are to be looked at
-	 * @param xmlParent XML element under which other subelements are to be added
+	 * @param ctree hierarchy tree being printed
+	 * @param treeRoot node of the Pathway class whose subclasses and pathways are to be looked at
+	 * @param xmlParent XML element under which other subelements are to be added, null while streaming
+	 * @throws XMLStreamException if streamed elements could not be written
+	 * @throws IOException if the binary format could not be written
 	 */
-	private void print_xmltree(PClassNode treeRoot, Element xmlParent){
+	private void print_xmltree(CompactPClassTree ctree, int treeRoot, Element xmlParent) throws XMLStreamException, IOException {
 		//if this pathway class has its own child pathways
 		// (i.e. not child pathways of its subclasses), print them
-		if (treeRoot.getHasPaths() && treeRoot.getChildPathwayIds() != null){
-			for (Integer pId:treeRoot.getChildPathwayIds()){ 
-				Pathway path = new Pathway(pId);
-				Element childPathway = this.addPathway(xmlParent, path.name);
-				
-				//print RNAs
-				if (this.includeRNA){
-					EntityVector rnaEntities = path.getEntities(EntityType.RNA);
-					if (rnaEntities.size()>0) {
-						//for every matching entity, add it to the dom hierarchy tree
-						for (Entity e:rnaEntities.toArray()) {
-							this.addRNA(childPathway, e.name);
-						}
+		if (ctree.getHasPaths(treeRoot)){
+			for (int i=0; i<ctree.getPathwayCount(treeRoot); i++){
+				if (this.monitor != null){
+					this.monitor.checkCancelled();
+				}
+				int pId = ctree.getPathwayId(treeRoot, i);
+				PathwayEntry path = this.lookupPathway(pId);
+				if (this.bw != null){
+					//the binary format writes the pathway with its entities as one record
+					this.bw.pathway(path);
+					if (this.monitor != null){
+						this.monitor.worked();
 					}
+					continue;
 				}
+				Element childPathway = this.addPathway(xmlParent, path.getName());
 				
-				//print Genes
-				if (this.includeGene){
-					EntityVector geneEntities = path.getEntities(EntityType.GENE);
-					if (geneEntities.size()>0){
-						for (Entity e:geneEntities.toArray()){
-							this.addGene(childPathway, e.name);
+				//print the entities of every chosen type, e.g. RNAs then Genes
+				for (String type:this.types){
+					String tag = elementName(type);
+					//for every matching entity, add it to the dom hierarchy tree
+					for (Entity e:path.getEntities(type)) {
+						if (this.entityTable){
+							this.addEntityRef(childPathway, tag, e);
+						} else {
+							this.addEntity(childPathway, tag, e.name);
 						}
 					}
 				}
+				this.closeElement();
+				if (this.monitor != null){
+					this.monitor.worked();
+				}
 			}
 		}
 		//if this pathway class has subclasses, iterate through their hierarchies as well 
-		if (treeRoot.getChildClasses() != null){
-			for (PClassNode node:treeRoot.getChildClasses()){
-				//if user chose to allow printing of empty pathway-classes
-				//  include them in the printing hierarchy
-				if (this.includeEmptyClasses){
-					//print the class name
-					Element childClass = this.addClass(xmlParent, node.getClassName());
-					//check its children for pathways
-					print_xmltree(node,childClass);
-				}
-				//only add pathway class to xml if it has been flagged 
-				//  to contain pathways somewhere in its subtree
-				else if (node.getHasPaths()){
-					//print the class name
-					Element childClass = this.addClass(xmlParent, node.getClassName());
-					//check its children for pathways
-					print_xmltree(node,childClass);
-				}
+		for (int i=0; i<ctree.getChildCount(treeRoot); i++){
+			int node = ctree.getChild(treeRoot, i);
+			//if user chose to allow printing of empty pathway-classes
+			//  include them in the printing hierarchy
+			if (this.includeEmptyClasses){
+				//print the class name
+				Element childClass = this.addClass(xmlParent, ctree.getClassId(node), ctree.getClassName(node));
+				//check its children for pathways
+				print_xmltree(ctree,node,childClass);
+				this.closeClass();
+			}
+			//only add pathway class to xml if it has been flagged 
+			//  to contain pathways somewhere in its subtree
+			else if (ctree.getHasPaths(node)){
+				//print the class name
+				Element childClass = this.addClass(xmlParent, ctree.getClassId(node), ctree.getClassName(node));
+				//check its children for pathways
+				print_xmltree(ctree,node,childClass);
+				this.closeClass();
 			}
 		}
 	}
 	
 	public static void main(String[] args){
 		if (args.length < 5){
-			System.out.println("Usage: PathwaysToXML <dirloc> <orgname> <incRNA> <incGene> <incEmptyClasses>\n");
+			System.out.println("Usage: PathwaysToXML <dirloc> <orgname> <incRNA> <incGene> <incEmptyClasses> [<snapshotDir> [<snapshotTTL>]]\n");
 			System.out.println("\t<dirloc>  - directory location where ontology xml is to be stored\n" +
 					           "\t\t  (e.g. c:\\temp)\n" +
 					           "\t<orgname> - name of the organism for which ontology xml is to be generated\n" +
@@ -332,10 +1026,26 @@ public class PathwaysToXML {
 					           "\t<incGene> - include Gene entities in the ontology xml\n" +
 					           "\t\t  (true to include Genes, false otherwise)\n" +
 					           "\t<incEmptyClasses> - include PathwayClasses without any child pathways\n" +
-					           "\t\t  (true to include such pathway classes, false otherwise)\n");
+					           "\t\t  (true to include such pathway classes, false otherwise)\n" +
+					           "\t<snapshotDir> - optional directory to keep hierarchy snapshots in, so that\n" +
+					           "\t\t  repeated exports do not need to query MetNetDB\n" +
+					           "\t<snapshotTTL> - optional age in hours after which a snapshot is refreshed\n" +
+					           "\t\t  (default 24, 0 to refresh the snapshot now, offline to export\n" +
+					           "\t\t  from the snapshot alone without connecting to MetNetDB)\n\n" +
+					           "Run with -Dpathierarchy.eventLog=<file> to log the time spent on every pathway.\n");
 		} else {
 			PathwaysToXML ptx = new PathwaysToXML(args[0],args[1],Boolean.parseBoolean(args[2]),Boolean.parseBoolean(args[3]),Boolean.parseBoolean(args[4]));
-			ptx.generateXML();
+			if (args.length > 6 && args[6].equals("offline")){
+				ptx.setSource(new SnapshotSource(new File(args[5])));
+			} else if (args.length > 5){
+				long ttlHours = args.length > 6 ? Long.parseLong(args[6]) : 24;
+				ptx.setSnapshotCache(new File(args[5]), ttlHours * 60 * 60 * 1000);
+			}
+			boolean written = ptx.generateXML();
+			Metrics.dump(System.out);
+			if (!written){
+				System.exit(1);
+			}
 		}
 	}
 }
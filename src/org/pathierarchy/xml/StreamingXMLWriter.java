@@ -0,0 +1,140 @@
+package org.pathierarchy.xml;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * StreamingXMLWriter writes an indented XML document element by element to a
+ * character stream, so nothing but the currently open elements is held in memory.
+ * Elements without children are written as {@code <name attr="value"/>}, and
+ * attribute values are escaped the same way the DOM Transformer writes them, i.e.
+ * with line breaks and tabs as character references and null as an empty value.
+ * 
+ * @author Divya Mistry
+ */
+public class StreamingXMLWriter {
+	private static final String INDENT = "    "; //indentation for each level of the hierarchy
+	
+	private Writer writer; //stream the document is written to
+	private int depth = 0; //number of currently open elements
+	
+	//an element is held back until its first child or its end is seen,
+	//  so that it can still be written as an empty element
+	private String pendingName = null;
+	private String[] pendingAttrs = null;
+	private String[] open = new String[16]; //names of the currently open elements, outermost first
+	
+	/**
+	 * constructor
+	 * @param w stream the document is written to. it is flushed, but not closed, by {@link #endDocument()}
+	 * @throws XMLStreamException never, kept for the callers written against the StAX based writer
+	 */
+	public StreamingXMLWriter(Writer w) throws XMLStreamException {
+		this.writer = w;
+	}
+	
+	/**
+	 * write the XML declaration
+	 * @throws XMLStreamException if the stream can not be written to
+	 */
+	public void startDocument() throws XMLStreamException {
+		write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+	}
+	
+	/**
+	 * open an element
+	 * @param name name of the element
+	 * @param attrs attribute names and values, alternating (e.g. "id", "12", "name", "Gene A")
+	 * @throws XMLStreamException if the stream can not be written to
+	 */
+	public void startElement(String name, String... attrs) throws XMLStreamException {
+		flushPending();
+		this.pendingName = name;
+		this.pendingAttrs = attrs;
+	}
+	
+	/**
+	 * close the most recently opened element
+	 * @throws XMLStreamException if the stream can not be written to
+	 */
+	public void endElement() throws XMLStreamException {
+		if (this.pendingName != null){
+			newLine();
+			writePendingTag("/>");
+			this.pendingName = null;
+		} else {
+			this.depth--;
+			newLine();
+			write("</" + this.open[this.depth] + ">");
+		}
+	}
+	
+	/**
+	 * finish the document and flush everything written so far to the stream
+	 * @throws XMLStreamException if the stream can not be written to
+	 */
+	public void endDocument() throws XMLStreamException {
+		flushPending();
+		while (this.depth > 0){
+			endElement();
+		}
+		write("\n");
+		try {
+			this.writer.flush();
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+	
+	/**
+	 * write out the held back element as an opening tag, since it is going to have children
+	 * @throws XMLStreamException if the stream can not be written to
+	 */
+	private void flushPending() throws XMLStreamException {
+		if (this.pendingName != null){
+			newLine();
+			writePendingTag(">");
+			if (this.depth == this.open.length){
+				this.open = Arrays.copyOf(this.open, this.depth * 2);
+			}
+			this.open[this.depth++] = this.pendingName;
+			this.pendingName = null;
+		}
+	}
+	
+	/**
+	 * write the held back element's tag with its attributes
+	 * @param end end of the tag, "/>" for an empty element or ">" for an opening tag
+	 * @throws XMLStreamException if the stream can not be written to
+	 */
+	private void writePendingTag(String end) throws XMLStreamException {
+		StringBuilder sb = new StringBuilder("<").append(this.pendingName);
+		for (int i=0; i+1<this.pendingAttrs.length; i+=2){
+			sb.append(' ').append(this.pendingAttrs[i]).append("=\"").append(MergedXGMMLWriter.escape(this.pendingAttrs[i+1])).append('"');
+		}
+		write(sb.append(end).toString());
+	}
+	
+	/**
+	 * start a new line indented to the current depth
+	 * @throws XMLStreamException if the stream can not be written to
+	 */
+	private void newLine() throws XMLStreamException {
+		StringBuilder sb = new StringBuilder("\n");
+		for (int i=0; i<this.depth; i++){
+			sb.append(INDENT);
+		}
+		write(sb.toString());
+	}
+	
+	private void write(String s) throws XMLStreamException {
+		try {
+			this.writer.write(s);
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+}
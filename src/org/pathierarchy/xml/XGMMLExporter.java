@@ -0,0 +1,849 @@
+package org.pathierarchy.xml;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.pathierarchy.io.CompressedOutput;
+import org.pathierarchy.metrics.Metrics;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import edu.iastate.metnet.Context;
+import edu.iastate.metnet.Interaction;
+import edu.iastate.metnet.Network;
+import edu.iastate.metnet.Organism;
+import edu.iastate.metnet.Pathway;
+
+/**
+ * XGMMLExporter writes one XGMML file per pathway, building the networks
+ * of several pathways at the same time on a bounded pool of workers.
+ * A pathway that fails to export is reported and does not stop the others.
+ * The file names are of format <pathway_name>.xgmml.xml, or <pathway_name> (<id>).xgmml.xml
+ * for pathways whose name is used by more than one of the exported pathways.
+ * 
+ * In incremental mode a manifest of each exported pathway's signature and
+ * fingerprint is kept next to the files, and pathways whose signature and
+ * fingerprint did not change since the last export are skipped. Both are
+ * derived from the pathway's entity counts per type, so an edit that keeps
+ * those counts is only picked up by a full export.
+ * 
+ * Each file is written under a temporary name and renamed once it is complete,
+ * and every finished pathway is appended to a journal in the directory, along
+ * with the export's set of pathways and, in incremental mode, the pathway's
+ * signature and fingerprint. If an export stops before all of its pathways are
+ * done (the JVM dies, the database goes away, the export is cancelled or some
+ * pathways fail), the next export of the same set of pathways to the same
+ * directory skips the journaled pathways without rebuilding their networks;
+ * in incremental mode only those whose signature and fingerprint did not change.
+ * The journal is removed once an export finishes every pathway.
+ * 
+ * Instead of a file per pathway, all the pathways can be written into one
+ * zip archive, which saves the per-file overhead of thousands of small files,
+ * or merged into a single network, see {@link #exportMerged(Pathway[], MergedXGMMLWriter)}.
+ * 
+ * @author Divya Mistry
+ */
+public class XGMMLExporter {
+	private String dirloc; //directory where the xgmml files are created
+	private int workers; //number of pathways exported at the same time
+	
+	public static final String MANIFEST = "xgmml.manifest"; //name of the manifest file in the directory
+	private boolean incremental = false; //skip pathways that did not change since the last export
+	private Properties manifest; //pathway id -> signature of the pathway when its file was written
+	private AtomicInteger skipped = new AtomicInteger(0); //pathways skipped by the last export
+	private ExportMonitor monitor = null; //progress and cancellation of the export, null if not watched
+	private HashMap<Integer, String> fileNames; //pathway id -> name of its xgmml file in the current export
+	
+	//static lists of the node labels generated by the MetNet API, looked up at runtime since they are not public
+	private static final List<Field> LABEL_LISTS = new ArrayList<Field>();
+	static {
+		for (Class<?> c:new Class<?>[]{Context.class, Interaction.class}){
+			try {
+				Field f = c.getDeclaredField("generated_xggml_nodes");
+				f.setAccessible(true);
+				if (f.get(null) instanceof Vector){
+					LABEL_LISTS.add(f);
+				}
+			} catch (Exception e) {
+				//another version of the API, its labels are left alone
+			}
+		}
+	}
+	private NetworkWriter networks = new MetNetNetworkWriter(); //builds and writes the network of each pathway
+	
+	public static final String JOURNAL = "xgmml.journal"; //name of the journal of finished pathways in the directory
+	private boolean resume = true; //skip pathways finished by an earlier export that did not complete
+	private String run; //identity of the current export, derived from the ids of its pathways
+	private HashMap<String, String[]> journaled; //pathway id -> content signature and file of a pathway finished earlier
+	private FileOutputStream journal = null; //open journal while exporting a file per pathway
+	
+	private File archive = null; //zip archive receiving all the xgmml files, null for a file per pathway
+	private File stageDir; //directory the networks are written to before they are archived
+	private ZipOutputStream zip; //open archive while exporting
+	
+	/**
+	 * constructor
+	 * @param dirLocation directory location where the xgmml files will be saved
+	 * @param workers number of pathways to export at the same time. values less than 2 export
+	 *        the pathways one after the other on the calling thread.
+	 */
+	public XGMMLExporter(String dirLocation, int workers){
+		this.dirloc = dirLocation;
+		this.workers = workers;
+	}
+	
+	/**
+	 * Choose whether pathways that did not change since the last export to the
+	 * same directory are skipped
+	 * @param incr true to skip unchanged pathways, false to export every pathway
+	 */
+	public void setIncremental(boolean incr){
+		this.incremental = incr;
+	}
+	
+	/**
+	 * Choose whether pathways finished by an earlier export to the same directory,
+	 * which stopped before all of its pathways were done, are skipped. Only an export
+	 * of the same pathways is resumed; in incremental mode only the pathways whose
+	 * signature and fingerprint are unchanged are skipped. Resuming is the default;
+	 * either way the export keeps a new journal of its own progress.
+	 * @param res true to resume an unfinished export, false to export every pathway again
+	 */
+	public void setResume(boolean res){
+		this.resume = res;
+	}
+	
+	/**
+	 * Choose how the network of each pathway is built and written. The default
+	 * builds the networks from MetNetDB.
+	 * @param nw writer of the pathway networks
+	 */
+	public void setNetworkWriter(NetworkWriter nw){
+		this.networks = nw;
+	}
+	
+	/**
+	 * Watch the export with a monitor, which counts the exported pathways and can
+	 * stop the export between two pathways
+	 * @param mon monitor of the export, null to export without one
+	 */
+	public void setMonitor(ExportMonitor mon){
+		this.monitor = mon;
+	}
+	
+	/**
+	 * Write all the xgmml files into one zip archive instead of a file per pathway.
+	 * Each network is written to a staging directory in the export directory and
+	 * moved into the archive as soon as it is complete. Archives are always
+	 * written in full, so incremental mode does not apply to them.
+	 * @param zipFile archive to be created, replacing an existing one once the export is done.
+	 *        null to write a file per pathway
+	 */
+	public void setArchive(File zipFile){
+		this.archive = zipFile;
+	}
+	
+	/**
+	 * @return number of unchanged or already finished pathways skipped by the last export
+	 */
+	public int getSkippedCount(){
+		return this.skipped.get();
+	}
+	
+	/**
+	 * export each of the given pathways of an organism to its own xgmml file.
+	 * The organism's pathway list is fetched once to resolve all of the ids.
+	 * @param orgm organism the pathways belong to
+	 * @param pathwayIds ids of the pathways to be exported
+	 * @return failures keyed by "<name> (<id>)" of the pathway that failed. ids that are not
+	 *         pathways of the organism are keyed by "pathway <id>" and reported last.
+	 */
+	public Map<String, Exception> export(Organism orgm, int[] pathwayIds){
+		HashMap<Integer, Pathway> byId = new HashMap<Integer, Pathway>();
+		for (Pathway p:orgm.getPathways().toArray()){
+			byId.put(p.id, p);
+		}
+		
+		Map<String, Exception> unknown = new LinkedHashMap<String, Exception>();
+		Pathway[] paths = new Pathway[pathwayIds.length];
+		int found = 0;
+		for (int id:pathwayIds){
+			Pathway p = byId.get(id);
+			if (p == null){
+				String key = "pathway " + id;
+				System.err.println("Unable to export XGMML for " + key + ": not a pathway of " + orgm.name);
+				unknown.put(key, new IllegalArgumentException(key + " is not a pathway of " + orgm.name));
+			} else {
+				paths[found++] = p;
+			}
+		}
+		if (found < paths.length){
+			Pathway[] resolved = new Pathway[found];
+			System.arraycopy(paths, 0, resolved, 0, found);
+			paths = resolved;
+		}
+		Map<String, Exception> failures = export(paths);
+		failures.putAll(unknown);
+		return failures;
+	}
+	
+	/**
+	 * export each of the given pathways to its own xgmml file
+	 * @param paths pathways to be exported
+	 * @return failures keyed by "<name> (<id>)" of the pathway that failed, in the order of <i>paths</i>.
+	 *         empty if every pathway was exported. Pathways left out because the export
+	 *         was cancelled are not failures.
+	 */
+	public Map<String, Exception> export(Pathway[] paths){
+		this.skipped.set(0);
+		if (this.monitor != null){
+			this.monitor.begin("Exporting XGMML", paths.length);
+		}
+		//names are picked before any worker starts, so no two pathways share a file
+		this.fileNames = fileNames(paths);
+		if (this.archive != null){
+			return exportArchive(paths);
+		}
+		if (this.incremental){
+			this.manifest = readManifest();
+		}
+		this.run = runIdentity(paths);
+		try {
+			openJournal();
+		} catch (IOException e) {
+			System.err.println("Unable to keep a journal in " + this.dirloc + ", the export can not be resumed: " + e.getMessage());
+		}
+		boolean finished = false;
+		try {
+			Map<String, Exception> failures = exportAll(paths);
+			finished = failures.isEmpty() && !isCancelled();
+			return failures;
+		} finally {
+			if (this.incremental){
+				writeManifest();
+			}
+			closeJournal(finished);
+		}
+	}
+	
+	/**
+	 * export the given pathways as a single network, with the entities and interactions
+	 * they share written once. Networks are built by the workers, at most twice as many
+	 * ahead of the writer as there are workers, and merged in the order of <i>paths</i>.
+	 * Nodes are labelled with the plain names of their entities and interactions, so the
+	 * file does not depend on the order the workers ran in.
+	 * Incremental mode and the archive do not apply to a merged network.
+	 * @param paths pathways to be merged
+	 * @param writer writer of the merged network
+	 * @return failures keyed by "<name> (<id>)" of the pathway that failed, in the order of <i>paths</i>.
+	 *         The network is written without the failed pathways; it is not written at all if
+	 *         the export was cancelled or the file could not be written, which is reported
+	 *         under the key "network <file name>".
+	 */
+	public Map<String, Exception> exportMerged(Pathway[] paths, MergedXGMMLWriter writer){
+		Map<String, Exception> failures = new LinkedHashMap<String, Exception>();
+		if (this.monitor != null){
+			this.monitor.begin("Merging XGMML", paths.length);
+		}
+		final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, this.workers));
+		LinkedList<Future<List<Element>>> pending = new LinkedList<Future<List<Element>>>();
+		int lookahead = 2 * Math.max(1, this.workers);
+		int submitted = 0;
+		boolean complete = false;
+		try {
+			writer.open();
+			for (int i=0; i<paths.length; i++){
+				//keep the workers busy, but only a bounded number of networks in memory
+				while (submitted < paths.length && submitted < i + lookahead){
+					final Pathway p = paths[submitted++];
+					pending.add(pool.submit(new Callable<List<Element>>(){
+						@Override
+						public List<Element> call() throws ParserConfigurationException {
+							return networkElements(p, dbf.newDocumentBuilder().newDocument());
+						}
+					}));
+				}
+				Future<List<Element>> next = pending.removeFirst();
+				if (isCancelled()){
+					break;
+				}
+				try {
+					long t = Metrics.start();
+					writer.addPathway(paths[i].name, next.get());
+					Metrics.stop("xgmml.merge", t);
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					report(failures, paths[i], cause instanceof Exception ? (Exception) cause : e);
+				} finally {
+					if (this.monitor != null){
+						this.monitor.worked();
+					}
+				}
+			}
+			complete = !isCancelled();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failures.put("network " + writer.getFile().getName(), e);
+		} catch (IOException e) {
+			System.err.println("Unable to write merged XGMML " + writer.getFile().getPath() + ": " + e.getMessage());
+			failures.put("network " + writer.getFile().getName(), e);
+		} finally {
+			pool.shutdownNow();
+			try {
+				writer.finish(complete && failures.size() < paths.length);
+			} catch (IOException e) {
+				System.err.println("Unable to write merged XGMML " + writer.getFile().getPath() + ": " + e.getMessage());
+				failures.put("network " + writer.getFile().getName(), e);
+			}
+		}
+		return failures;
+	}
+	
+	/**
+	 * build the network of a pathway as XGMML node and edge elements
+	 * @param p pathway whose network is to be built
+	 * @param doc document the elements are created in
+	 * @return node elements of the network's contexts, followed by the elements of its interactions
+	 */
+	private static List<Element> networkElements(Pathway p, Document doc){
+		long start = Metrics.start();
+		Network nw = new Network(p);
+		Metrics.stop("xgmml.network", start);
+		List<Element> elements = new ArrayList<Element>();
+		//the API makes every node label unique among all the labels it ever generated by
+		//  appending spaces, so the label depends on what the other workers generated first.
+		//  the merged network lists every node once, so its plain name is used instead
+		Context[] contexts = nw.getContexts().toArray();
+		for (Context c:contexts){
+			Element node = c.toXgmml(doc);
+			node.setAttribute("label", String.valueOf(c.name));
+			elements.add(node);
+		}
+		for (Interaction in:nw.getInteractions().toArray()){
+			String id = String.valueOf(in.id);
+			for (Element e:in.toXgmml(doc)){
+				if (e.getTagName().equals("node") && e.getAttribute("id").equals(id)){
+					e.setAttribute("label", String.valueOf(in.name));
+				}
+				elements.add(e);
+			}
+		}
+		forgetLabels();
+		Metrics.pathwayEvent("xgmml.merge", p.id, p.name, System.nanoTime() - start, 0);
+		return elements;
+	}
+	
+	/**
+	 * empty the lists of generated node labels the MetNet API keeps in Context and
+	 * Interaction. Only Network.toXgmml ever clears the one of Context, so without
+	 * this they grow with every node merged in the JVM, and each new label is looked
+	 * up in them one by one. If the lists can not be reached they keep growing.
+	 * An xgmml file written through Network.toXgmml at the same time may end up with
+	 * a label twice, which Cytoscape accepts since nodes are told apart by their ids.
+	 */
+	private static void forgetLabels(){
+		for (Field f:LABEL_LISTS){
+			try {
+				((Vector<?>) f.get(null)).clear();
+			} catch (IllegalAccessException e) {
+				//not reachable after all, the labels are only kept longer
+			}
+		}
+	}
+	
+	/**
+	 * export the pathways into the zip archive, through a temporary file
+	 * that only replaces the archive once it is complete
+	 * @param paths pathways to be exported
+	 * @return failures keyed by "<name> (<id>)" of the pathway that failed
+	 */
+	private Map<String, Exception> exportArchive(Pathway[] paths){
+		Map<String, Exception> failures = new LinkedHashMap<String, Exception>();
+		File part = new File(this.archive.getPath() + ".part");
+		boolean complete = false;
+		try {
+			this.stageDir = File.createTempFile("xgmml", ".stage", new File(this.dirloc));
+			if (!this.stageDir.delete() || !this.stageDir.mkdir()){
+				throw new IOException("Unable to create staging directory " + this.stageDir.getPath());
+			}
+			this.zip = new ZipOutputStream(CompressedOutput.open(part, false, 1));
+			try {
+				failures = exportAll(paths);
+			} finally {
+				this.zip.close();
+			}
+			complete = true;
+		} catch (IOException e) {
+			System.err.println("Unable to write XGMML archive " + this.archive.getPath() + ": " + e.getMessage());
+			failures.put("archive " + this.archive.getName(), e);
+		} finally {
+			this.zip = null;
+			if (this.stageDir != null){
+				//whatever a failed pathway left behind
+				File[] left = this.stageDir.listFiles();
+				for (int i=0; left != null && i<left.length; i++){
+					left[i].delete();
+				}
+				this.stageDir.delete();
+				this.stageDir = null;
+			}
+		}
+		if (complete && !part.renameTo(this.archive) && (this.archive.exists() && !this.archive.delete() || !part.renameTo(this.archive))){
+			IOException e = new IOException("Unable to rename " + part.getPath() + " to " + this.archive.getName());
+			System.err.println(e.getMessage());
+			failures.put("archive " + this.archive.getName(), e);
+			complete = false;
+		}
+		if (!complete){
+			part.delete();
+		}
+		return failures;
+	}
+	
+	private Map<String, Exception> exportAll(Pathway[] paths){
+		Map<String, Exception> failures = new LinkedHashMap<String, Exception>();
+		if (this.workers < 2){
+			for (Pathway p:paths){
+				if (isCancelled()){
+					break;
+				}
+				try {
+					exportPathway(p);
+				} catch (Exception e) {
+					report(failures, p, e);
+				}
+			}
+			return failures;
+		}
+		
+		ExecutorService pool = Executors.newFixedThreadPool(this.workers);
+		try {
+			//submit every pathway, the pool keeps at most <workers> of them in flight
+			Future<?>[] pending = new Future<?>[paths.length];
+			for (int i=0; i<paths.length; i++){
+				final Pathway p = paths[i];
+				pending[i] = pool.submit(new Callable<Void>(){
+					@Override
+					public Void call() throws IOException {
+						exportPathway(p);
+						return null;
+					}
+				});
+			}
+			//collect the outcome of every pathway in submission order
+			for (int i=0; i<paths.length; i++){
+				try {
+					pending[i].get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					report(failures, paths[i], cause instanceof Exception ? (Exception) cause : e);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					report(failures, paths[i], e);
+					break;
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return failures;
+	}
+	
+	/**
+	 * export a pathway unless the export was cancelled, and count it on the monitor
+	 * @param p pathway to be exported
+	 * @throws IOException if the xgmml file was not written
+	 */
+	private void exportPathway(Pathway p) throws IOException {
+		//a cancelled export stops between pathways, so no file is left half written
+		if (isCancelled()){
+			return;
+		}
+		try {
+			writePathway(p);
+		} finally {
+			if (this.monitor != null){
+				this.monitor.worked();
+			}
+		}
+	}
+	
+	/**
+	 * @return true if the monitor of the export asked it to stop
+	 */
+	private boolean isCancelled(){
+		return this.monitor != null && this.monitor.isCancelled();
+	}
+	
+	/**
+	 * build the network of a pathway and write it to its xgmml file,
+	 * unless it is unchanged since the last incremental export
+	 * @param p pathway to be exported
+	 * @throws IOException if the file could not be written
+	 */
+	private void writePathway(Pathway p) throws IOException {
+		File out = new File(this.zip != null ? this.stageDir.getPath() : this.dirloc, this.fileNames.get(p.id));
+		String key = String.valueOf(p.id);
+		String content = ""; //signature of the pathway's content in incremental mode, journaled with its file
+		String signature = null;
+		if (this.zip == null){
+			//the signature costs a few queries per pathway, so it is only asked for when it is kept
+			if (this.incremental){
+				content = this.networks.signature(p);
+			}
+			if (isJournaled(key, content, out)){
+				//finished by an earlier run of this export that stopped before all of its pathways were done
+				this.skipped.incrementAndGet();
+				Metrics.add("xgmml.resumed", 1);
+				if (this.incremental){
+					this.manifest.setProperty(key, content + "|" + out.getName());
+				}
+				return;
+			}
+		}
+		if (this.incremental && this.zip == null){
+			signature = content + "|" + out.getName();
+			if (signature.equals(this.manifest.getProperty(key)) && out.isFile()){
+				this.skipped.incrementAndGet();
+				Metrics.add("xgmml.skipped", 1);
+				return;
+			}
+			//forget the old signature until the new file is written
+			this.manifest.remove(key);
+		}
+		//the network is written next to the file and only replaces it once complete
+		File part = new File(out.getPath() + ".part");
+		if (part.exists() && !part.delete()){
+			throw new IOException("Unable to replace " + part.getPath());
+		}
+		long start = Metrics.start();
+		this.networks.write(p, part);
+		if (this.zip == null){
+			//the file must be on disk before the journal says it is done
+			sync(part);
+		}
+		if (!part.renameTo(out) && (out.exists() && !out.delete() || !part.renameTo(out))){
+			part.delete();
+			throw new IOException("Unable to rename " + part.getPath() + " to " + out.getName());
+		}
+		long bytes = Metrics.fileWritten("xgmml", out);
+		Metrics.pathwayEvent("xgmml", p.id, p.name, System.nanoTime() - start, bytes);
+		if (this.zip != null){
+			try {
+				addToArchive(out);
+			} finally {
+				out.delete();
+			}
+		} else {
+			if (this.incremental){
+				this.manifest.setProperty(key, signature);
+			}
+			journal(key, content, out);
+		}
+	}
+	
+	/**
+	 * @param key id of a pathway
+	 * @param content signature of the pathway's content, empty if not incremental
+	 * @param out xgmml file of the pathway
+	 * @return true if an earlier run of this export journaled the pathway as done with the
+	 *         same content, and its file is still there
+	 */
+	private boolean isJournaled(String key, String content, File out){
+		if (this.journaled == null){
+			return false;
+		}
+		String[] done = this.journaled.get(key);
+		return done != null && done[0].equals(content) && done[1].equals(out.getName()) && out.isFile();
+	}
+	
+	/**
+	 * pick the xgmml file name of every pathway. A name used by more than one of the
+	 * pathways gets the pathway's id added, so that their files do not overwrite each other.
+	 * @param paths pathways of an export
+	 * @return pathway id -> file name, unique among the pathways
+	 */
+	private static HashMap<Integer, String> fileNames(Pathway[] paths){
+		HashMap<String, Integer> uses = new HashMap<String, Integer>();
+		for (Pathway p:paths){
+			Integer n = uses.get(p.name);
+			uses.put(p.name, n == null ? 1 : n + 1);
+		}
+		HashMap<Integer, String> names = new HashMap<Integer, String>();
+		HashSet<String> taken = new HashSet<String>();
+		for (Pathway p:paths){
+			if (names.containsKey(p.id)){
+				continue;
+			}
+			String name = uses.get(p.name) > 1 ? p.name + " (" + p.id + ")" : p.name;
+			if (!taken.add(name + ".xgmml.xml")){
+				//a pathway may be named like the unique name of another one
+				name = p.name + " (" + p.id + ")";
+				for (int i=2; !taken.add(name + ".xgmml.xml"); i++){
+					name = p.name + " (" + p.id + "-" + i + ")";
+				}
+			}
+			names.put(p.id, name + ".xgmml.xml");
+		}
+		return names;
+	}
+	
+	/**
+	 * @param paths pathways of an export
+	 * @return identity of an export of the pathways, the same for any order of them
+	 */
+	private static String runIdentity(Pathway[] paths){
+		int[] ids = new int[paths.length];
+		for (int i=0; i<paths.length; i++){
+			ids[i] = paths[i].id;
+		}
+		Arrays.sort(ids);
+		CRC32 crc = new CRC32();
+		for (int id:ids){
+			crc.update(new byte[]{(byte) (id >>> 24), (byte) (id >>> 16), (byte) (id >>> 8), (byte) id});
+		}
+		return ids.length + "-" + Long.toHexString(crc.getValue());
+	}
+	
+	/**
+	 * start the journal of this export, keeping the pathways an unfinished earlier
+	 * run of the same export journaled if it is to be resumed. Entries of any other
+	 * export are dropped. Partial files left by a stopped export are removed.
+	 * @throws IOException if the journal can not be written
+	 */
+	private void openJournal() throws IOException {
+		this.journaled = this.resume ? readJournal() : new HashMap<String, String[]>();
+		File[] parts = new File(this.dirloc).listFiles();
+		for (int i=0; parts != null && i<parts.length; i++){
+			if (parts[i].getName().endsWith(".xgmml.xml.part")){
+				parts[i].delete();
+			}
+		}
+		//rewrite the journal with the entries that are kept, which also drops a torn last line
+		File f = new File(this.dirloc, JOURNAL);
+		File tmp = new File(this.dirloc, JOURNAL + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			StringBuilder sb = new StringBuilder();
+			for (Map.Entry<String, String[]> e:this.journaled.entrySet()){
+				sb.append(this.run).append('\t').append(e.getKey()).append('\t').append(e.getValue()[0]).append('\t').append(e.getValue()[1]).append('\n');
+			}
+			out.write(sb.toString().getBytes("UTF-8"));
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(f) && (f.exists() && !f.delete() || !tmp.renameTo(f))){
+			tmp.delete();
+			throw new IOException("Unable to rename " + tmp.getPath());
+		}
+		this.journal = new FileOutputStream(f, true);
+	}
+	
+	/**
+	 * read the journal of an earlier run of this export to the export directory
+	 * @return pathway id -> content signature and file name of the pathways it finished,
+	 *         empty if there is no journal or it belongs to another export
+	 */
+	private HashMap<String, String[]> readJournal(){
+		HashMap<String, String[]> entries = new HashMap<String, String[]>();
+		int dropped = 0;
+		File f = new File(this.dirloc, JOURNAL);
+		if (!f.isFile()){
+			return entries;
+		}
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+			try {
+				String line;
+				while ((line = in.readLine()) != null){
+					//export identity, pathway id, content signature and file name
+					String[] fields = line.split("\t", -1);
+					if (fields.length == 4 && fields[0].equals(this.run)){
+						entries.put(fields[1], new String[]{fields[2], fields[3]});
+					} else if (line.length() > 0){
+						dropped++;
+					}
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Ignoring unreadable journal " + f.getPath() + ": " + e.getMessage());
+			entries.clear();
+		}
+		if (dropped > 0){
+			System.out.println("Dropping " + dropped + " journal entries of another XGMML export in " + this.dirloc);
+		}
+		if (!entries.isEmpty()){
+			System.out.println("Resuming XGMML export in " + this.dirloc + ", " + entries.size() + " pathways were already done");
+		}
+		return entries;
+	}
+	
+	/**
+	 * append a finished pathway to the journal and force it to disk
+	 * @param key id of the pathway
+	 * @param content signature of the pathway's content, empty if not incremental
+	 * @param out xgmml file written for the pathway
+	 */
+	private void journal(String key, String content, File out){
+		if (this.journal == null){
+			return;
+		}
+		String line = this.run + "\t" + key + "\t" + content + "\t" + out.getName() + "\n";
+		try {
+			long t = Metrics.start();
+			synchronized (this.journal){
+				this.journal.write(line.getBytes("UTF-8"));
+				this.journal.getFD().sync();
+			}
+			Metrics.stop("xgmml.journal", t);
+		} catch (IOException e) {
+			//the file is written, only a resumed export would build it again
+			System.err.println("Unable to journal XGMML for pathway " + out.getName() + ": " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * close the journal of this export
+	 * @param finished true if every pathway was exported, which makes the journal obsolete
+	 */
+	private void closeJournal(boolean finished){
+		if (this.journal != null){
+			try {
+				this.journal.close();
+			} catch (IOException e) {
+				System.err.println("Unable to close journal in " + this.dirloc + ": " + e.getMessage());
+			}
+			this.journal = null;
+		}
+		this.journaled = null;
+		if (finished){
+			new File(this.dirloc, JOURNAL).delete();
+		}
+	}
+	
+	/**
+	 * force a written file to disk
+	 * @param f file to be synced
+	 * @throws IOException if the file can not be synced
+	 */
+	private static void sync(File f) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			raf.getFD().sync();
+		} finally {
+			raf.close();
+		}
+	}
+	
+	/**
+	 * copy a written xgmml file into the archive, one file at a time
+	 * @param f xgmml file to be archived
+	 * @throws IOException if the file could not be read or archived
+	 */
+	private void addToArchive(File f) throws IOException {
+		byte[] buf = new byte[64 * 1024];
+		InputStream in = new FileInputStream(f);
+		try {
+			synchronized (this.zip){
+				this.zip.putNextEntry(new ZipEntry(f.getName()));
+				int n;
+				while ((n = in.read(buf)) > 0){
+					this.zip.write(buf, 0, n);
+				}
+				this.zip.closeEntry();
+			}
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * read the manifest of the export directory
+	 * @return manifest of the last export, empty if there is none or it can not be read
+	 */
+	private Properties readManifest(){
+		Properties props = new Properties();
+		File f = new File(this.dirloc, MANIFEST);
+		if (f.isFile()){
+			try {
+				InputStream in = new FileInputStream(f);
+				try {
+					props.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				System.err.println("Ignoring unreadable manifest " + f.getPath() + ": " + e.getMessage());
+				props.clear();
+			}
+		}
+		return props;
+	}
+	
+	/**
+	 * write the manifest of the export directory, through a temporary file so that
+	 * an interrupted write never leaves a partial manifest behind
+	 */
+	private void writeManifest(){
+		File f = new File(this.dirloc, MANIFEST);
+		File tmp = new File(this.dirloc, MANIFEST + ".tmp");
+		try {
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				this.manifest.store(out, "pathway id = signature|fingerprint|file of the last XGMML export");
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(f) && (f.exists() && !f.delete() || !tmp.renameTo(f))){
+				throw new IOException("Unable to rename " + tmp.getPath() + " to " + f.getName());
+			}
+		} catch (IOException e) {
+			System.err.println("Unable to save manifest " + f.getPath() + ": " + e.getMessage());
+			tmp.delete();
+		}
+	}
+	
+	/**
+	 * record and print the failure of a single pathway. The key carries the id as well,
+	 * since pathways of different ids may share a name.
+	 */
+	private void report(Map<String, Exception> failures, Pathway p, Exception e){
+		String key = p.name + " (" + p.id + ")";
+		System.err.println("Unable to export XGMML for pathway " + key + ": " + e.getMessage());
+		failures.put(key, e);
+	}
+}